@@ -0,0 +1,146 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+
+/**
+ * Dense integer IDs for the names of accounts. Each name is given the
+ * next unused ID the first time it is seen, so the IDs can index
+ * arrays of per-account state. Names are found with an open-addressing
+ * table, so looking one up never allocates.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class AccountDictionary {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The ID of the empty name, which is the source of every deposit. */
+  public static final int DEPOSIT = 0;
+
+  /** The initial number of slots in the table. Must be a power of 2. */
+  static final int INITIAL_SLOTS = 32;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The name with each ID. */
+  String[] names;
+
+  /** The number of names with IDs. */
+  int count;
+
+  /** The table of IDs, each stored plus one so that 0 marks an empty slot. */
+  int[] slots;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new dictionary that knows only the empty name.
+   */
+  public AccountDictionary() {
+    this.names = new String[INITIAL_SLOTS / 2];
+    this.count = 0;
+    this.slots = new int[INITIAL_SLOTS];
+    this.intern("");
+  } // AccountDictionary()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the slot that holds a name, or the empty slot where it belongs.
+   *
+   * @param name
+   *   The name to look for.
+   *
+   * @return the index of the slot.
+   */
+  int slotOf(String name) {
+    int mask = this.slots.length - 1;
+    int h = name.hashCode();
+    int i = (h ^ (h >>> 16)) & mask;
+    while (this.slots[i] != 0 && !this.names[this.slots[i] - 1].equals(name)) {
+      i = (i + 1) & mask;
+    } // while
+    return i;
+  } // slotOf(String)
+
+  /**
+   * Double the size of the table.
+   */
+  void grow() {
+    int[] old = this.slots;
+    this.slots = new int[old.length * 2];
+    this.names = Arrays.copyOf(this.names, this.slots.length / 2);
+    for (int i = 0; i < old.length; i++) {
+      if (old[i] != 0) {
+        this.slots[this.slotOf(this.names[old[i] - 1])] = old[i];
+      } // if
+    } // for
+  } // grow()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the ID of a name, giving it a new ID if it does not have one.
+   *
+   * @param name
+   *   The name.
+   *
+   * @return the ID of the name.
+   */
+  public int intern(String name) {
+    int slot = this.slotOf(name);
+    if (this.slots[slot] == 0) {
+      if (this.count == this.names.length) {
+        this.grow();
+        slot = this.slotOf(name);
+      } // if
+      this.names[this.count] = name;
+      this.count++;
+      this.slots[slot] = this.count;
+    } // if
+    return this.slots[slot] - 1;
+  } // intern(String)
+
+  /**
+   * Get the ID of a name without giving it one.
+   *
+   * @param name
+   *   The name.
+   *
+   * @return the ID of the name (or -1, if it has no ID).
+   */
+  public int lookup(String name) {
+    return this.slots[this.slotOf(name)] - 1;
+  } // lookup(String)
+
+  /**
+   * Get the name with an ID.
+   *
+   * @param id
+   *   The ID, between 0 (inclusive) and size() (exclusive).
+   *
+   * @return the name.
+   */
+  public String nameOf(int id) {
+    return this.names[id];
+  } // nameOf(int)
+
+  /**
+   * Get the number of names with IDs.
+   *
+   * @return the number of names.
+   */
+  public int size() {
+    return this.count;
+  } // size()
+} // class AccountDictionary
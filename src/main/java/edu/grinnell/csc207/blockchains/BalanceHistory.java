@@ -0,0 +1,125 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+
+import edu.grinnell.csc207.util.IntList;
+
+/**
+ * The history of every account's balance, indexed by account ID. For
+ * each account, we keep the numbers of the blocks that changed its
+ * balance, in increasing order, along with its balance after each of
+ * those blocks, so that a past balance can be found by binary search.
+ * Deposits have no account, so no history is kept for DEPOSIT.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class BalanceHistory {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The numbers of the blocks in which each account appears. */
+  IntList[] heights;
+
+  /** Each account's balance after each of those blocks. */
+  IntList[] balances;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty, history.
+   */
+  public BalanceHistory() {
+    this.heights = new IntList[0];
+    this.balances = new IntList[0];
+  } // BalanceHistory()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Record an account's balance after a block. Blocks must be recorded
+   * in increasing order of number.
+   *
+   * @param id
+   *   The ID of the account (or DEPOSIT, which is ignored).
+   * @param height
+   *   The number of the block.
+   * @param balance
+   *   The account's balance after that block.
+   */
+  public void record(int id, int height, int balance) {
+    if (id == AccountDictionary.DEPOSIT) {
+      return;
+    } else if (id >= this.heights.length) {
+      int capacity = Math.max(id + 1, this.heights.length * 2);
+      this.heights = Arrays.copyOf(this.heights, capacity);
+      this.balances = Arrays.copyOf(this.balances, capacity);
+    } // if/else
+    if (this.heights[id] == null) {
+      this.heights[id] = new IntList();
+      this.balances[id] = new IntList();
+    } // if
+    IntList hs = this.heights[id];
+    if (!hs.isEmpty() && hs.get(hs.size() - 1) == height) {
+      this.balances[id].set(hs.size() - 1, balance);
+    } else {
+      hs.add(height);
+      this.balances[id].add(balance);
+    } // if/else
+  } // record(int, int, int)
+
+  /**
+   * Forget the change to an account's balance made by the last block.
+   *
+   * @param id
+   *   The ID of the account (or DEPOSIT, which is ignored).
+   * @param height
+   *   The number of the last block.
+   */
+  public void forget(int id, int height) {
+    if (id == AccountDictionary.DEPOSIT) {
+      return;
+    } // if
+    IntList hs = this.heights[id];
+    if (!hs.isEmpty() && hs.get(hs.size() - 1) == height) {
+      hs.removeLast();
+      this.balances[id].removeLast();
+    } // if
+  } // forget(int, int)
+
+  /**
+   * Get the numbers of the blocks in which an account appears.
+   *
+   * @param id
+   *   The ID of the account (or -1, for an unknown account).
+   *
+   * @return those numbers, in increasing order (or null, if the account
+   *   has never appeared).
+   */
+  public IntList heightsOf(int id) {
+    return (id < 0 || id >= this.heights.length) ? null : this.heights[id];
+  } // heightsOf(int)
+
+  /**
+   * Find an account's balance after a block.
+   *
+   * @param id
+   *   The ID of the account (or -1, for an unknown account).
+   * @param height
+   *   The number of the block.
+   *
+   * @return the account's balance after that block.
+   */
+  public int balanceAt(int id, int height) {
+    if (id < 0 || id >= this.heights.length || this.heights[id] == null) {
+      return 0;
+    } // if
+    int i = this.heights[id].floorIndex(height);
+    return (i < 0) ? 0 : this.balances[id].get(i);
+  } // balanceAt(int, int)
+} // class BalanceHistory
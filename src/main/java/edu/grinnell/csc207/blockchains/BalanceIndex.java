@@ -0,0 +1,363 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+
+import edu.grinnell.csc207.util.IntList;
+
+/**
+ * Accounts ordered by balance, from largest to smallest, with ties
+ * broken by account ID. The accounts are kept in a treap in which each
+ * account ID is its own node, so the tree is stored in int arrays
+ * indexed by ID. Every node also records the size of its subtree, which
+ * lets us find ranks and the nth account in logarithmic expected time.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class BalanceIndex {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The ID used for a missing node. */
+  static final int NIL = -1;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The balance of each account in the index. */
+  int[] balances;
+
+  /** The left child of each node, whose balances are larger. */
+  int[] left;
+
+  /** The right child of each node, whose balances are smaller. */
+  int[] right;
+
+  /** The number of nodes in the subtree rooted at each node (0 if absent). */
+  int[] sizes;
+
+  /** The root of the tree. */
+  int root;
+
+  /** The left half of the most recent split. */
+  int splitLeft;
+
+  /** The right half of the most recent split. */
+  int splitRight;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty, index.
+   */
+  public BalanceIndex() {
+    this.balances = new int[0];
+    this.left = new int[0];
+    this.right = new int[0];
+    this.sizes = new int[0];
+    this.root = NIL;
+  } // BalanceIndex()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the heap priority of a node, which is a fixed scrambling of its
+   * ID.
+   *
+   * @param id
+   *   The ID of the node.
+   *
+   * @return the priority.
+   */
+  static int priority(int id) {
+    int h = id * 0x9E3779B9;
+    h ^= h >>> 15;
+    h *= 0x85EBCA6B;
+    return h ^ (h >>> 13);
+  } // priority(int)
+
+  /**
+   * Get the size of a subtree.
+   *
+   * @param t
+   *   The root of the subtree (or NIL).
+   *
+   * @return the number of nodes in it.
+   */
+  int size(int t) {
+    return (t == NIL) ? 0 : this.sizes[t];
+  } // size(int)
+
+  /**
+   * Recompute the size of a subtree after its children change.
+   *
+   * @param t
+   *   The root of the subtree.
+   */
+  void update(int t) {
+    this.sizes[t] = 1 + size(this.left[t]) + size(this.right[t]);
+  } // update(int)
+
+  /**
+   * Determine if a node comes before a key in the order of the index.
+   *
+   * @param t
+   *   The node.
+   * @param balance
+   *   The balance of the key.
+   * @param id
+   *   The ID of the key.
+   *
+   * @return true if the node has a larger balance, or the same balance
+   *   and a smaller ID, and false otherwise.
+   */
+  boolean before(int t, int balance, int id) {
+    return this.balances[t] > balance || (this.balances[t] == balance && t < id);
+  } // before(int, int, int)
+
+  /**
+   * Split a subtree into the nodes that come before a key (stored in
+   * splitLeft) and the rest (stored in splitRight).
+   *
+   * @param t
+   *   The root of the subtree (or NIL).
+   * @param balance
+   *   The balance of the key.
+   * @param id
+   *   The ID of the key.
+   */
+  void split(int t, int balance, int id) {
+    if (t == NIL) {
+      this.splitLeft = NIL;
+      this.splitRight = NIL;
+    } else if (before(t, balance, id)) {
+      split(this.right[t], balance, id);
+      this.right[t] = this.splitLeft;
+      update(t);
+      this.splitLeft = t;
+    } else {
+      split(this.left[t], balance, id);
+      this.left[t] = this.splitRight;
+      update(t);
+      this.splitRight = t;
+    } // if/else
+  } // split(int, int, int)
+
+  /**
+   * Join two subtrees, where every node in the first comes before every
+   * node in the second.
+   *
+   * @param a
+   *   The root of the first subtree (or NIL).
+   * @param b
+   *   The root of the second subtree (or NIL).
+   *
+   * @return the root of the joined tree.
+   */
+  int merge(int a, int b) {
+    if (a == NIL) {
+      return b;
+    } else if (b == NIL) {
+      return a;
+    } else if (priority(a) > priority(b)) {
+      this.right[a] = merge(this.right[a], b);
+      update(a);
+      return a;
+    } else {
+      this.left[b] = merge(a, this.left[b]);
+      update(b);
+      return b;
+    } // if/else
+  } // merge(int, int)
+
+  /**
+   * Count the nodes that come before a key.
+   *
+   * @param balance
+   *   The balance of the key.
+   * @param id
+   *   The ID of the key.
+   *
+   * @return the number of such nodes.
+   */
+  int countBefore(int balance, int id) {
+    int count = 0;
+    int t = this.root;
+    while (t != NIL) {
+      if (before(t, balance, id)) {
+        count += size(this.left[t]) + 1;
+        t = this.right[t];
+      } else {
+        t = this.left[t];
+      } // if/else
+    } // while
+    return count;
+  } // countBefore(int, int)
+
+  /**
+   * Add the first nodes of a subtree, in order, to a list.
+   *
+   * @param t
+   *   The root of the subtree (or NIL).
+   * @param n
+   *   The largest number of nodes the list may hold.
+   * @param result
+   *   The list.
+   */
+  void collectFirst(int t, int n, IntList result) {
+    if (t == NIL || result.size() >= n) {
+      return;
+    } // if
+    collectFirst(this.left[t], n, result);
+    if (result.size() < n) {
+      result.add(t);
+      collectFirst(this.right[t], n, result);
+    } // if
+  } // collectFirst(int, int, IntList)
+
+  /**
+   * Add the nodes of a subtree whose balances are in a range, in order,
+   * to a list.
+   *
+   * @param t
+   *   The root of the subtree (or NIL).
+   * @param lo
+   *   The smallest balance in the range.
+   * @param hi
+   *   The largest balance in the range.
+   * @param result
+   *   The list.
+   */
+  void collectBetween(int t, int lo, int hi, IntList result) {
+    if (t == NIL) {
+      return;
+    } else if (this.balances[t] > hi) {
+      collectBetween(this.right[t], lo, hi, result);
+    } else if (this.balances[t] < lo) {
+      collectBetween(this.left[t], lo, hi, result);
+    } else {
+      collectBetween(this.left[t], lo, hi, result);
+      result.add(t);
+      collectBetween(this.right[t], lo, hi, result);
+    } // if/else
+  } // collectBetween(int, int, int, IntList)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Determine if an account is in the index.
+   *
+   * @param id
+   *   The ID of the account.
+   *
+   * @return true if it is in the index and false otherwise.
+   */
+  public boolean contains(int id) {
+    return id >= 0 && id < this.sizes.length && this.sizes[id] > 0;
+  } // contains(int)
+
+  /**
+   * Add an account to the index, unless it is already there.
+   *
+   * @param id
+   *   The ID of the account.
+   * @param balance
+   *   The balance of the account.
+   */
+  public void insert(int id, int balance) {
+    if (this.contains(id)) {
+      return;
+    } // if
+    if (id >= this.sizes.length) {
+      int capacity = Math.max(id + 1, this.sizes.length * 2);
+      this.balances = Arrays.copyOf(this.balances, capacity);
+      this.left = Arrays.copyOf(this.left, capacity);
+      this.right = Arrays.copyOf(this.right, capacity);
+      this.sizes = Arrays.copyOf(this.sizes, capacity);
+    } // if
+    this.balances[id] = balance;
+    this.left[id] = NIL;
+    this.right[id] = NIL;
+    this.sizes[id] = 1;
+    split(this.root, balance, id);
+    int rest = this.splitRight;
+    this.root = merge(merge(this.splitLeft, id), rest);
+  } // insert(int, int)
+
+  /**
+   * Remove an account from the index, if it is there.
+   *
+   * @param id
+   *   The ID of the account.
+   */
+  public void remove(int id) {
+    if (!this.contains(id)) {
+      return;
+    } // if
+    split(this.root, this.balances[id], id);
+    int before = this.splitLeft;
+    split(this.splitRight, this.balances[id], id + 1);
+    this.root = merge(before, this.splitRight);
+    this.sizes[id] = 0;
+  } // remove(int)
+
+  /**
+   * Get the number of accounts in the index.
+   *
+   * @return the number of accounts.
+   */
+  public int size() {
+    return size(this.root);
+  } // size()
+
+  /**
+   * Find the rank of an account, where the account with the largest
+   * balance has rank 1.
+   *
+   * @param id
+   *   The ID of the account.
+   *
+   * @return the rank (or 0, if the account is not in the index).
+   */
+  public int rank(int id) {
+    return this.contains(id) ? countBefore(this.balances[id], id) + 1 : 0;
+  } // rank(int)
+
+  /**
+   * Get the accounts with the largest balances.
+   *
+   * @param n
+   *   The largest number of accounts to get.
+   *
+   * @return the IDs of those accounts, from largest balance to smallest.
+   */
+  public IntList top(int n) {
+    IntList result = new IntList();
+    collectFirst(this.root, n, result);
+    return result;
+  } // top(int)
+
+  /**
+   * Get the accounts whose balances are in a range.
+   *
+   * @param lo
+   *   The smallest balance in the range.
+   * @param hi
+   *   The largest balance in the range.
+   *
+   * @return the IDs of those accounts, from largest balance to smallest.
+   */
+  public IntList between(int lo, int hi) {
+    IntList result = new IntList();
+    collectBetween(this.root, lo, hi, result);
+    return result;
+  } // between(int, int)
+} // class BalanceIndex
@@ -82,15 +82,38 @@ public class Block {
     this.computeHash();
   } // Block(int, Transaction, Hash, long)
 
+  /**
+   * Create a block that has only a header, as if it had been pruned.
+   *
+   * @param iNum
+   *   The number of the block.
+   * @param iPrevHash
+   *   The hash of the previous block.
+   * @param iNonce
+   *   The nonce of the block.
+   * @param iHash
+   *   The hash of the block.
+   */
+  Block(int iNum, Hash iPrevHash, long iNonce, Hash iHash) {
+    this.num = iNum;
+    this.prevHash = iPrevHash;
+    this.nonce = iNonce;
+    this.currentHash = iHash;
+  } // Block(int, Hash, long, Hash)
+
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
 
   /**
    * Compute the hash of the block given all the other info already
-   * stored in the block.
+   * stored in the block. The signature of a signed transaction is part
+   * of the hash. Pruned blocks keep the hash they already have.
    */
   public void computeHash() {
+    if (this.isPruned()) {
+      return;
+    } // if
     try {
       MessageDigest md = MessageDigest.getInstance("sha-256");
 
@@ -100,6 +123,7 @@ public class Block {
       byte[] sourcebytes = this.transaction.getSource().getBytes();
       byte[] targetbytes = this.transaction.getTarget().getBytes();
       byte[] prevbytes = this.prevHash.getBytes();
+      byte[] sigbytes = this.transaction.getSignature();
 
       if (nonce == null) {
         for (long i = 0; i < Long.MAX_VALUE; i++) {
@@ -107,6 +131,9 @@ public class Block {
           md.update(sourcebytes);
           md.update(targetbytes);
           md.update(amtbytes);
+          if (sigbytes != null) {
+            md.update(sigbytes);
+          } // if
           if (this.num != 0) {
             md.update(prevbytes);
           } // if
@@ -121,22 +148,43 @@ public class Block {
           md.reset();
         } // for
       } else {
-        byte[] noncebytes = ByteBuffer.allocate(Long.BYTES).putLong(this.nonce).array();
-        md.update(ibytes);
-        md.update(sourcebytes);
-        md.update(targetbytes);
-        md.update(amtbytes);
-        if (this.num != 0) {
-          md.update(prevbytes);
-        } // if
-        md.update(noncebytes);
-        currentHash = new Hash(md.digest());
+        currentHash = this.recomputeHash();
       } // else
     } catch (NoSuchAlgorithmException e) {
       // catch exception
     } // try/catch
   } // computeHash()
 
+  /**
+   * Compute the hash for the contents and nonce of the block, without
+   * changing the block.
+   *
+   * @return the hash that the block should have (or the hash it has,
+   *   if it has been pruned).
+   */
+  public Hash recomputeHash() {
+    if (this.isPruned()) {
+      return this.currentHash;
+    } // if
+    try {
+      MessageDigest md = MessageDigest.getInstance("sha-256");
+      md.update(ByteBuffer.allocate(Integer.BYTES).putInt(this.num).array());
+      md.update(this.transaction.getSource().getBytes());
+      md.update(this.transaction.getTarget().getBytes());
+      md.update(ByteBuffer.allocate(Integer.BYTES).putInt(this.transaction.getAmount()).array());
+      if (this.transaction.isSigned()) {
+        md.update(this.transaction.getSignature());
+      } // if
+      if (this.num != 0) {
+        md.update(this.prevHash.getBytes());
+      } // if
+      md.update(ByteBuffer.allocate(Long.BYTES).putLong(this.nonce).array());
+      return new Hash(md.digest());
+    } catch (NoSuchAlgorithmException e) {
+      return null;
+    } // try/catch
+  } // recomputeHash()
+
   // +---------+-----------------------------------------------------
   // | Methods |
   // +---------+
@@ -153,11 +201,10 @@ public class Block {
   /**
    * Get the transaction stored in this block.
    *
-   * @return the transaction.
+   * @return the transaction (or null, if it has been pruned).
    */
   public Transaction getTransaction() {
-    return new Transaction(transaction.getSource(),
-                           transaction.getTarget(), transaction.getAmount());
+    return this.transaction;
   } // getTransaction()
 
   /**
@@ -174,7 +221,7 @@ public class Block {
    *
    * @return the hash of the previous block.
    */
-  Hash getPrevHash() {
+  public Hash getPrevHash() {
     return prevHash;
   } // getPrevHash
 
@@ -183,17 +230,32 @@ public class Block {
    *
    * @return the hash of the current block.
    */
-  Hash getHash() {
+  public Hash getHash() {
     return currentHash;
   } // getHash
 
+  /**
+   * Determine if the transaction in this block has been pruned, leaving
+   * only the header (number, previous hash, nonce, and hash).
+   *
+   * @return true if the block has been pruned and false otherwise.
+   */
+  public boolean isPruned() {
+    return this.transaction == null;
+  } // isPruned()
+
   /**
    * Get a string representation of the block.
    *
    * @return a string representation of the block.
    */
   public String toString() {
-    if (this.transaction.getSource().equals("")) {
+    if (this.isPruned()) {
+      return "Block " + this.num + "(Pruned, Nonce: "
+             + this.nonce + ", prevHash: "
+             + this.prevHash + ", hash: "
+             + this.currentHash + ")";
+    } else if (this.transaction.getSource().equals("")) {
       return "Block " + this.num + "(Transaction: [Deposit, Target: "
              + this.transaction.getTarget() + ", Amount: "
              + this.transaction.getAmount() + "], Nonce: "
@@ -208,6 +270,6 @@ public class Block {
              + this.nonce + ", prevHash: "
              + this.prevHash + ", hash: "
              + this.currentHash + ")";
-    } // if/else
+    } // if/else if/else
   } // toString()
 } // class Block
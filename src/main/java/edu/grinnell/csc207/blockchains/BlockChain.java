@@ -1,12 +1,31 @@
 package edu.grinnell.csc207.blockchains;
 
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import edu.grinnell.csc207.util.IntList;
 
 /**
  * A full blockchain.
  *
+ * <p>Any number of threads may read the chain while one thread changes
+ * it. Changes take the write side of a stamped lock; lookups take the
+ * read side, and reads of a few fields (such as the size and the last
+ * hash) are optimistic, retrying under the read lock only if a change
+ * happened while they ran. The nodes are kept in an array that is only
+ * ever extended in place. Removing a block leaves its slot alone, and
+ * the array is copied before such a slot is reused if a snapshot may
+ * still hold the array, so an iterator can hold on to the array and the
+ * size at the time it was created and see exactly those blocks.</p>
+ *
  * @author Myles Bohrer-Purnell
  * @author Anthony Castleberry
  */
@@ -24,8 +43,68 @@ public class BlockChain implements Iterable<Transaction> {
   /** The number of blocks in the blockchain. */
   int size;
 
+  /** The node holding each block, indexed by block number. Only the first size are used. */
+  Node[] index;
+
+  /** Whether a snapshot may hold the current index array. */
+  volatile boolean shared;
+
   /** checker for the hashes of the blocks in the chain. */
   HashValidator check;
+
+  /** The number of most recent blocks whose transactions are kept (0 to keep all). */
+  int pruneDepth;
+
+  /** The state of the chain as of the last pruned block. */
+  Checkpoint checkpoint;
+
+  /** The first node whose block has not been pruned. */
+  Node frontier;
+
+  /** The IDs of everyone who appears in the chain. */
+  AccountDictionary accounts;
+
+  /** The current balance of every user. */
+  Ledger ledger;
+
+  /** Everyone who appears in the chain. */
+  UserRegistry users;
+
+  /** The past balances of every user. */
+  BalanceHistory history;
+
+  /** Every user, ordered by balance. */
+  BalanceIndex ranking;
+
+  /** The numbers of the blocks holding each transaction, by transaction ID. */
+  HashMap<Hash, IntList> transactionIds;
+
+  /** The number of each block, by hash. */
+  HashMap<Hash, Integer> blockHeights;
+
+  /** The validator used to check the whole chain. */
+  ChainValidator validator;
+
+  /** The checker for signatures (or null, if signatures are not required). */
+  SignatureVerifier signatures;
+
+  /** The last node known to be correct (or null, if none is known). */
+  Node verifiedNode;
+
+  /** The number of blocks known to be correct. */
+  int verifiedCount;
+
+  /** The hash of the last block known to be correct. */
+  Hash verifiedHash;
+
+  /** The balances as of the last block known to be correct. */
+  Ledger verifiedLedger;
+
+  /** The lock that lets many threads read the chain while one changes it. */
+  StampedLock lock;
+
+  /** The lock held while checking, so that only one check updates what is known to be correct. */
+  ReentrantLock checker;
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -38,10 +117,30 @@ public class BlockChain implements Iterable<Transaction> {
    */
   public BlockChain(HashValidator iCheck) {
     this.size = 1;
-    this.firstBlock = new Node(new Block(0, new Transaction("", "", 0),
-                               new Hash(new byte[] {}), iCheck));
+    this.accounts = new AccountDictionary();
+    this.firstBlock = this.record(new Block(0, new Transaction("", "", 0),
+                                  new Hash(new byte[] {}), iCheck));
+    this.index = new Node[16];
+    this.index[0] = this.firstBlock;
     this.tailBlock = this.firstBlock;
     this.check = iCheck;
+    this.pruneDepth = 0;
+    this.checkpoint = new Checkpoint(this.accounts);
+    this.frontier = this.firstBlock;
+    this.ledger = new Ledger(this.accounts);
+    this.ledger.apply(this.firstBlock);
+    this.users = new UserRegistry(this.accounts);
+    this.history = new BalanceHistory();
+    this.ranking = new BalanceIndex();
+    this.transactionIds = new HashMap<Hash, IntList>();
+    this.blockHeights = new HashMap<Hash, Integer>();
+    this.blockHeights.put(this.firstBlock.getBlock().getHash(), 0);
+    this.recordHistory(this.firstBlock, 0);
+    this.validator = new ChainValidator(iCheck);
+    this.signatures = null;
+    this.lock = new StampedLock();
+    this.checker = new ReentrantLock();
+    this.setWatermark(0, null);
   } // BlockChain(HashValidator)
 
   // +---------+-----------------------------------------------------
@@ -55,43 +154,219 @@ public class BlockChain implements Iterable<Transaction> {
    * @return a hash that fits the given block information
    */
   public Hash computeHash(Block blk) {
-    Hash resultHash = new Hash(new byte[] {1});
-    try {
-      MessageDigest md = MessageDigest.getInstance("sha-256");
-      byte[] ibytes = ByteBuffer.allocate(Integer.BYTES).putInt(blk.getNum()).array();
-      byte[] amtbytes = ByteBuffer.allocate(Integer.BYTES)
-                        .putInt(blk.getTransaction().getAmount()).array();
-      byte[] sourcebytes = blk.getTransaction().getSource().getBytes();
-      byte[] targetbytes = blk.getTransaction().getTarget().getBytes();
-      byte[] prevbytes = blk.prevHash.getBytes();
-      byte[] noncebytes = ByteBuffer.allocate(Long.BYTES).putLong(blk.getNonce()).array();
-
-      md.update(ibytes);
-      md.update(sourcebytes);
-      md.update(targetbytes);
-      md.update(amtbytes);
-      if (blk.getNum() != 0) {
-        md.update(prevbytes);
-      } // if
-      md.update(noncebytes);
-      resultHash = new Hash(md.digest());
-
-      /*compute the full hash for the block with everything before plus the new validated hash */
-      md.update(ibytes);
-      md.update(sourcebytes);
-      md.update(targetbytes);
-      md.update(amtbytes);
-      if (blk.getNum() != 0) {
-        md.update(prevbytes);
+    return blk.recomputeHash();
+  } // computeHash(Block blk)
+
+  /**
+   * Prune every block that is more than pruneDepth blocks from the end
+   * of the chain, folding its transaction into the checkpoint. Blocks
+   * are never changed; the node gets a new block holding only the
+   * header, so that anyone still holding the old block can read it.
+   */
+  void prune() {
+    if (this.pruneDepth == 0) {
+      return;
+    } // if
+    while (this.checkpoint.getCount() < this.size - this.pruneDepth) {
+      this.checkpoint.cover(this.frontier);
+      Block blk = this.frontier.getBlock();
+      this.frontier.block = new Block(blk.getNum(), blk.getPrevHash(), blk.getNonce(),
+          blk.getHash());
+      this.frontier = this.frontier.getNext();
+    } // while
+  } // prune()
+
+  /**
+   * Create a node for a block, recording the transfer it applies so
+   * that it can be undone.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return the new node.
+   */
+  Node record(Block blk) {
+    Node node = new Node(blk);
+    Transaction t = blk.getTransaction();
+    node.undoSource = this.accounts.intern(t.getSource());
+    node.undoTarget = this.accounts.intern(t.getTarget());
+    node.undoAmount = t.getAmount();
+    node.transactionId = t.getId();
+    return node;
+  } // record(Block)
+
+  /**
+   * Record the balances of the source and target of the block at the
+   * end of the chain, once its transfer has been applied to the ledger.
+   *
+   * @param node
+   *   The node holding the block.
+   * @param height
+   *   The position of the block in the chain.
+   */
+  void recordHistory(Node node, int height) {
+    this.history.record(node.undoSource, height, this.ledger.balance(node.undoSource));
+    this.history.record(node.undoTarget, height, this.ledger.balance(node.undoTarget));
+  } // recordHistory(Node, int)
+
+  /**
+   * Put an account back in the ranking with its current balance, if it
+   * is still a user.
+   *
+   * @param id
+   *   The ID of the account.
+   */
+  void rerank(int id) {
+    if (this.users.contains(id)) {
+      this.ranking.insert(id, this.ledger.balance(id));
+    } // if
+  } // rerank(int)
+
+  /**
+   * Forget the inclusion of a transaction in the last block.
+   *
+   * @param id
+   *   The ID of the transaction.
+   */
+  void unindex(Hash id) {
+    IntList heights = this.transactionIds.get(id);
+    if (heights != null) {
+      heights.removeLast();
+      if (heights.isEmpty()) {
+        this.transactionIds.remove(id);
       } // if
-      md.update(noncebytes);
-      md.update(resultHash.getBytes());
-      // resultHash = new Hash(md.digest());
-    } catch (Exception e) {
-      // catch exception in hash finding process
+    } // if
+  } // unindex(Hash)
+
+  /**
+   * Find which transactions are in the chain before a position. The
+   * caller must hold a lock for as long as the result is used.
+   *
+   * @param height
+   *   The position.
+   *
+   * @return whether a transaction ID is in a block before that position.
+   */
+  Predicate<Hash> indexedBefore(int height) {
+    return (id) -> {
+      IntList heights = this.transactionIds.get(id);
+      return heights != null && heights.get(0) < height;
+    };
+  } // indexedBefore(int)
+
+  /**
+   * Get the names of some accounts.
+   *
+   * @param ids
+   *   The IDs of the accounts.
+   *
+   * @return their names, in the same order.
+   */
+  List<String> namesOf(IntList ids) {
+    ArrayList<String> names = new ArrayList<String>(ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      names.add(this.accounts.nameOf(ids.get(i)));
+    } // for
+    return names;
+  } // namesOf(IntList)
+
+  /**
+   * Record how many blocks at the start of the chain are known to be
+   * correct, along with the balances as of the last of them.
+   *
+   * @param count
+   *   The number of blocks known to be correct.
+   * @param running
+   *   The balances as of the last of those blocks.
+   */
+  void setWatermark(int count, Ledger running) {
+    if (count < 1 || count < this.checkpoint.getCount()) {
+      this.verifiedNode = null;
+      this.verifiedCount = 0;
+      this.verifiedHash = null;
+      this.verifiedLedger = new Ledger(this.accounts);
+      return;
+    } // if
+    Node node = this.index[count - 1];
+    this.verifiedNode = node;
+    this.verifiedCount = count;
+    this.verifiedHash = node.getBlock().getHash();
+    this.verifiedLedger = running;
+  } // setWatermark(int, Ledger)
+
+  /**
+   * Check the whole chain, updating what is known to be correct. The
+   * caller must hold the read lock and the checker.
+   *
+   * @throws InvalidBlockException
+   *   If things are wrong at any block, describing the first such block.
+   */
+  void checkAll() throws InvalidBlockException {
+    Ledger running = new Ledger(this.checkpoint.balances);
+    try {
+      this.validator.validate(this.firstBlock, this.checkpoint, running,
+          this.indexedBefore(this.checkpoint.getCount()));
+      this.setWatermark(this.size, running);
+    } catch (InvalidBlockException e) {
+      this.setWatermark(e.getBlockNum(), running);
+      throw e;
     } // try/catch
-    return resultHash;
-  } // computeHash(Block blk)
+  } // checkAll()
+
+  /**
+   * Get the nodes array and the number of blocks at one moment, reading
+   * optimistically if possible.
+   *
+   * @return the array and the number of blocks.
+   */
+  Snapshot snapshot() {
+    // Mark the array as shared before reading it, so that no writer can
+    // reuse a slot of it without copying it first.
+    this.shared = true;
+    return this.readOptimistically(
+        () -> new Snapshot(this.index, this.size, this.checkpoint.getCount()));
+  } // snapshot()
+
+  /**
+   * Read some fields without locking, reading them again under the read
+   * lock if the chain changed in the meantime. The reader may see a
+   * half-changed chain the first time, so it must only read fields,
+   * never follow them into structures that might be mid-change.
+   *
+   * @param <T>
+   *   The type of the result.
+   * @param reader
+   *   Reads the fields.
+   *
+   * @return the result of a read that no change overlapped.
+   */
+  final <T> T readOptimistically(Supplier<T> reader) {
+    long stamp = this.lock.tryOptimisticRead();
+    T result = reader.get();
+    if (!this.lock.validate(stamp)) {
+      result = this.readLocked(reader);
+    } // if
+    return result;
+  } // readOptimistically(Supplier<T>)
+
+  /**
+   * Read from the chain under the read lock.
+   *
+   * @param <T>
+   *   The type of the result.
+   * @param reader
+   *   Reads from the chain.
+   *
+   * @return the result of the read.
+   */
+  final <T> T readLocked(Supplier<T> reader) {
+    long stamp = this.lock.readLock();
+    try {
+      return reader.get();
+    } finally {
+      this.lock.unlockRead(stamp);
+    } // try/finally
+  } // readLocked(Supplier<T>)
 
   // +---------+-----------------------------------------------------
   // | Methods |
@@ -107,7 +382,9 @@ public class BlockChain implements Iterable<Transaction> {
    * @return a new block with correct number, hashes, and such.
    */
   public Block mine(Transaction t) {
-    return new Block(this.size, t, tailBlock.getBlock().getHash(), this.check);
+    Snapshot snap = this.snapshot();
+    return new Block(snap.count, t, snap.nodes[snap.count - 1].getBlock().getHash(),
+        this.check);
   } // mine(Transaction)
 
   /**
@@ -116,7 +393,7 @@ public class BlockChain implements Iterable<Transaction> {
    * @return the number of blocks in the chain, including the initial block.
    */
   public int getSize() {
-    return this.size;
+    return this.readOptimistically(() -> this.size);
   } // getSize()
 
   /**
@@ -126,53 +403,381 @@ public class BlockChain implements Iterable<Transaction> {
    *   The block to add to the end of the chain.
    *
    * @throws IllegalArgumentException if (a) the hash is not valid, (b)
-   *   the hash is not appropriate for the contents, or (c) the previous
-   *   hash is incorrect.
+   *   the hash is not appropriate for the contents, (c) the previous
+   *   hash is incorrect, (d) signatures are required and the
+   *   transaction is not properly signed, (e) the transaction is
+   *   signed and already in the chain, or (f) the block is pruned.
    */
   public void append(Block blk) {
+    if (blk.isPruned()) {
+      throw new IllegalArgumentException("Cannot append pruned block " + blk.getNum());
+    } // if
+    // Check the hash and the signature before locking, since they are
+    // the slow part; the signature check inside the lock is then a
+    // lookup of the transaction ID.
+    Hash newHash = blk.recomputeHash();
+    this.isAuthentic(blk.getTransaction());
+    long stamp = this.lock.writeLock();
+    try {
+      this.appendLocked(blk, newHash);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/finally
+  } // append(Block)
+
+  /**
+   * Put a batch of blocks in an array after a place for the block they
+   * follow.
+   *
+   * @param blocks
+   *   The blocks, in order.
+   *
+   * @return the array, whose first element is left empty.
+   *
+   * @throws IllegalArgumentException if a block is pruned.
+   */
+  static Block[] toBatch(List<Block> blocks) {
+    Block[] batch = new Block[blocks.size() + 1];
+    for (int i = 1; i < batch.length; i++) {
+      batch[i] = blocks.get(i - 1);
+      if (batch[i].isPruned()) {
+        throw new IllegalArgumentException("Cannot append pruned block " + batch[i].getNum());
+      } // if
+    } // for
+    return batch;
+  } // toBatch(List<Block>)
+
+  /**
+   * Check a batch of blocks before adding it, applying its transactions
+   * to the running balances. The caller must hold the write lock.
+   *
+   * @param batch
+   *   The block the batch follows, then the blocks of the batch.
+   * @param end
+   *   The index of the first block whose header is incorrect (or the
+   *   length of the batch, if none is).
+   * @param running
+   *   The balances as of batch[0].
+   *
+   * @throws InvalidBlockException if a block is incorrect, describing
+   *   the first such block.
+   */
+  void checkBatch(Block[] batch, int end, Ledger running) throws InvalidBlockException {
+    int base = batch[0].getNum();
+    if (end < batch.length) {
+      throw this.validator.checkHeader(batch[end], base + end, batch[end - 1]);
+    } // if
+    int unsigned = this.validator.firstBadSignature(batch, 1, batch.length);
+    if (unsigned < batch.length) {
+      throw new InvalidBlockException(base + unsigned,
+          "Incorrect Signature for Block: " + (base + unsigned));
+    } // if
+    ChainValidator.checkFunds(batch, base, 1, batch.length, running,
+        this.indexedBefore(base + 1));
+  } // checkBatch(Block[], int, Ledger)
+
+  /**
+   * Add a batch of blocks to the end of the chain, either all of them or
+   * none. The numbers, links, hashes, and signatures of the blocks are
+   * checked in parallel before locking, without changing the blocks;
+   * then, under the write lock, the transactions are checked in order
+   * against the current balances, and the blocks are added only if every
+   * one is correct.
+   *
+   * @param blocks
+   *   The blocks, in order.
+   *
+   * @throws IllegalArgumentException if a block is pruned or incorrect,
+   *   or a transaction has a negative amount or overdraws its source (in
+   *   which case the chain is unchanged).
+   */
+  public void appendAll(List<Block> blocks) {
+    Block[] batch = toBatch(blocks);
+    batch[0] = this.readOptimistically(() -> this.tailBlock.getBlock());
+    int end = this.validator.firstBadHeader(batch, batch[0].getNum(), 1);
+    this.validator.firstBadSignature(batch, 1, end);
 
-    Hash original = blk.getHash();
-    blk.computeHash();
-    Hash newHash = blk.getHash();
+    long stamp = this.lock.writeLock();
+    try {
+      if (batch[0] != this.tailBlock.getBlock()) {
+        // Another block was added or removed meanwhile.
+        batch[0] = this.tailBlock.getBlock();
+        end = this.validator.firstBadHeader(batch, batch[0].getNum(), 1);
+      } // if
+      this.checkBatch(batch, end, new LedgerOverlay(this.ledger));
+      for (int i = 1; i < batch.length; i++) {
+        this.appendLocked(batch[i], batch[i].getHash());
+      } // for
+    } catch (InvalidBlockException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/catch/finally
+  } // appendAll(List<Block>)
+
+  /**
+   * Replace every block after the first few with a batch of blocks,
+   * either all of them or none. The batch is checked as in appendAll,
+   * against the chain as it was after the blocks that are kept, before
+   * any block is removed.
+   *
+   * @param keep
+   *   The number of blocks to keep.
+   * @param blocks
+   *   The blocks to add after them, in order.
+   *
+   * @throws IllegalArgumentException if fewer than keep blocks are in
+   *   the chain, a block to be removed has been pruned, or a block in
+   *   the batch is pruned or incorrect (in which case the chain is
+   *   unchanged).
+   */
+  public void replaceAfter(int keep, List<Block> blocks) {
+    Block[] batch = toBatch(blocks);
+    long stamp = this.lock.writeLock();
+    try {
+      if (keep < 1 || keep > this.size) {
+        throw new IllegalArgumentException("No block " + (keep - 1));
+      } else if (keep < this.checkpoint.getCount()) {
+        throw new IllegalArgumentException("Cannot remove pruned block " + keep);
+      } // if/else
+      batch[0] = this.index[keep - 1].getBlock();
+      Ledger running = new LedgerOverlay(this.ledger);
+      for (int i = this.size - 1; i >= keep; i--) {
+        running.revert(this.index[i]);
+      } // for
+      this.checkBatch(batch, this.validator.firstBadHeader(batch, keep - 1, 1), running);
+      while (this.size > keep) {
+        this.removeLastLocked();
+      } // while
+      for (int i = 1; i < batch.length; i++) {
+        this.appendLocked(batch[i], batch[i].getHash());
+      } // for
+    } catch (InvalidBlockException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/catch/finally
+  } // replaceAfter(int, List<Block>)
 
-    if (!original.equals(newHash)) {
-      throw new IllegalArgumentException();
+  /**
+   * Check that a block can follow the end of the chain, apart from the
+   * funds of its source. The caller must hold the write lock.
+   *
+   * @param blk
+   *   The block.
+   * @param newHash
+   *   The hash that the block should have.
+   *
+   * @throws IllegalArgumentException if the block cannot be added, as
+   *   in append.
+   */
+  void checkFollows(Block blk, Hash newHash) {
+    if (!blk.getHash().equals(newHash)) {
+      throw new IllegalArgumentException("Incorrect Hash for Block: " + blk.getNum());
     } else if (!this.check.isValid(newHash)) {
-      throw new IllegalArgumentException();
+      throw new IllegalArgumentException("Invalid Hash for Block: " + blk.getNum());
     } else if (!blk.getPrevHash().equals(tailBlock.getBlock().getHash())) {
-      throw new IllegalArgumentException();
+      throw new IllegalArgumentException("Block Does Not Follow Chain: " + blk.getNum());
+    } else if (this.signatures != null && !this.signatures.verify(blk.getTransaction())) {
+      throw new IllegalArgumentException("Incorrect signature: " + blk.getTransaction());
+    } else if (blk.getTransaction().isSigned()
+        && this.transactionIds.containsKey(blk.getTransaction().getId())) {
+      // A signature vouches for the transfer, not for how often it runs.
+      throw new IllegalArgumentException("Repeated Transaction for Block: " + blk.getNum());
     } // if/else
+  } // checkFollows(Block, Hash)
 
+  /**
+   * Add a block to the end of the chain. The caller must hold the write
+   * lock.
+   *
+   * @param blk
+   *   The block to add to the end of the chain.
+   * @param newHash
+   *   The hash that the block should have.
+   *
+   * @throws IllegalArgumentException if the block cannot be added, as
+   *   in append.
+   */
+  void appendLocked(Block blk, Hash newHash) {
+    this.checkFollows(blk, newHash);
     blk.prevHash = this.tailBlock.getBlock().getHash();
-    Node newNode = new Node(blk);
+    Node newNode = this.record(blk);
+    this.ranking.remove(newNode.undoSource);
+    this.ranking.remove(newNode.undoTarget);
+    this.ledger.apply(newNode);
+    this.users.add(newNode.undoSource, newNode.undoTarget);
+    this.recordHistory(newNode, this.size);
+    this.rerank(newNode.undoSource);
+    this.rerank(newNode.undoTarget);
+    this.transactionIds.computeIfAbsent(newNode.transactionId, (id) -> new IntList())
+        .add(this.size);
+    this.blockHeights.put(blk.getHash(), this.size);
     this.tailBlock.add(newNode);
     this.tailBlock = newNode;
+    if (this.size == this.index.length) {
+      this.index = Arrays.copyOf(this.index, this.size * 2);
+      this.shared = false;
+    } else if (this.shared && this.index[this.size] != null) {
+      // A snapshot taken before the last removal may still see this slot.
+      this.index = Arrays.copyOf(this.index, this.index.length);
+      this.shared = false;
+    } // if/else
+    this.index[this.size] = newNode;
+    if (this.frontier == null) {
+      this.frontier = newNode;
+    } // if
     this.size++;
-  } // append()
+    this.prune();
+  } // appendLocked(Block, Hash)
+
+  /**
+   * Add blocks to the end of the chain under one write lock, stopping at
+   * the first that cannot be added. The blocks must have been built from
+   * their contents, so that their hashes need not be computed again, and
+   * their signatures should already have been checked. Their funds are
+   * checked first, in one pass over the batch.
+   *
+   * @param blocks
+   *   The blocks, in order.
+   *
+   * @throws InvalidBlockException if a block cannot be added, describing
+   *   why (in which case the blocks before it have been added).
+   * @throws IllegalArgumentException if a block is pruned (in which case
+   *   the chain is unchanged).
+   */
+  void appendVerified(List<Block> blocks) throws InvalidBlockException {
+    Block[] batch = toBatch(blocks);
+    long stamp = this.lock.writeLock();
+    try {
+      batch[0] = this.tailBlock.getBlock();
+      int base = batch[0].getNum();
+      InvalidBlockException overdrawn = null;
+      try {
+        ChainValidator.checkFunds(batch, base, 1, batch.length,
+            new LedgerOverlay(this.ledger), this.indexedBefore(base + 1));
+      } catch (InvalidBlockException e) {
+        overdrawn = e;
+      } // try/catch
+      for (int i = 1; i < batch.length; i++) {
+        Block blk = batch[i];
+        try {
+          if (overdrawn != null && base + i == overdrawn.getBlockNum()) {
+            // Any other problem with the block comes first.
+            this.checkFollows(blk, blk.getHash());
+            throw overdrawn;
+          } // if
+          this.appendLocked(blk, blk.getHash());
+        } catch (IllegalArgumentException e) {
+          InvalidBlockException problem = new InvalidBlockException(blk.getNum(),
+              e.getMessage());
+          problem.initCause(e);
+          throw problem;
+        } // try/catch
+      } // for
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/finally
+  } // appendVerified(List<Block>)
 
   /**
    * Attempt to remove the last block from the chain.
    *
-   * @return false if the chain has only one block (in which case it's
-   *   not removed) or true otherwise (in which case the last block
-   *   is removed).
+   * @return false if the chain has only one block or the last block
+   *   has been pruned (in which case it's not removed) or true otherwise
+   *   (in which case the last block is removed).
    */
   public boolean removeLast() {
-    if (this.tailBlock.getBlock().equals(this.firstBlock.getBlock())) {
+    long stamp = this.lock.writeLock();
+    try {
+      return this.removeLastLocked();
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/finally
+  } // removeLast()
+
+  /**
+   * Attempt to remove the last block from the chain. The caller must
+   * hold the write lock.
+   *
+   * @return true if the last block was removed and false otherwise, as
+   *   in removeLast.
+   */
+  boolean removeLastLocked() {
+    if (this.tailBlock.getBlock().equals(this.firstBlock.getBlock())
+        || this.tailBlock.getBlock().isPruned()) {
       return false;
     } else {
-      Node prevNode = this.firstBlock;
-      Node node = this.firstBlock.getNext();
-      while (node.hasNext()) {
-        prevNode = node;
-        node = node.getNext();
-      } // while
+      Node node = this.index[this.size - 1];
+      Node prevNode = this.index[this.size - 2];
+      this.blockHeights.remove(node.getBlock().getHash());
       prevNode.removeNext();
+      this.ranking.remove(node.undoSource);
+      this.ranking.remove(node.undoTarget);
+      this.ledger.revert(node);
+      this.users.remove(node.undoSource, node.undoTarget);
+      this.history.forget(node.undoSource, this.size - 1);
+      this.history.forget(node.undoTarget, this.size - 1);
+      this.rerank(node.undoSource);
+      this.rerank(node.undoTarget);
+      this.unindex(node.transactionId);
+      if (this.verifiedNode == node) {
+        this.verifiedLedger.revert(node);
+        this.verifiedNode = prevNode;
+        this.verifiedCount--;
+        this.verifiedHash = prevNode.getBlock().getHash();
+      } // if
       this.tailBlock = prevNode;
+      if (this.frontier == node) {
+        this.frontier = null;
+      } // if
       this.size--;
       return true;
     } // if/else
-  } // removeLast()
+  } // removeLastLocked()
+
+  /**
+   * Require every transfer in the chain to be signed by its source,
+   * checking signatures with a verifier. Since the blocks already in
+   * the chain may not be signed, the next check covers the whole chain.
+   *
+   * @param verifier
+   *   The verifier that holds the keys of the users (or null, to stop
+   *   requiring signatures).
+   */
+  public void requireSignatures(SignatureVerifier verifier) {
+    long stamp = this.lock.writeLock();
+    try {
+      this.signatures = verifier;
+      this.validator.signatures = verifier;
+      this.setWatermark(0, null);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/finally
+  } // requireSignatures(SignatureVerifier)
+
+  /**
+   * Get the verifier used to check signatures.
+   *
+   * @return the verifier (or null, if signatures are not required).
+   */
+  public SignatureVerifier getSignatureVerifier() {
+    return this.readOptimistically(() -> this.signatures);
+  } // getSignatureVerifier()
+
+  /**
+   * Determine if a transaction is signed well enough to go in the chain.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return true if signatures are not required or the transaction is
+   *   properly signed, and false otherwise.
+   */
+  public boolean isAuthentic(Transaction t) {
+    SignatureVerifier verifier = this.getSignatureVerifier();
+    return (verifier == null) || verifier.verify(t);
+  } // isAuthentic(Transaction)
 
   /**
    * Get the hash of the last block in the chain.
@@ -180,7 +785,7 @@ public class BlockChain implements Iterable<Transaction> {
    * @return the hash of the last sblock in the chain.
    */
   public Hash getHash() {
-    return this.tailBlock.getBlock().getHash();
+    return this.readOptimistically(() -> this.tailBlock.getBlock().getHash());
   } // getHash()
 
   /**
@@ -192,28 +797,12 @@ public class BlockChain implements Iterable<Transaction> {
    * @return true if the blockchain is correct and false otherwise.
    */
   public boolean isCorrect() {
-    Node newNode = this.firstBlock;
-
-    while (newNode != null) {
-      Hash original = newNode.getBlock().getHash();
-      newNode.getBlock().computeHash();
-      Hash newHash = newNode.getBlock().getHash();
-      if (balance(newNode.getBlock().transaction.getSource()) < 0
-          && !newNode.getBlock().getTransaction().getSource().equals("")) {
-        return false;
-      } else if (newNode.getBlock().getTransaction().getAmount() < 0) {
-        return false;
-      } else if (newNode.hasNext() && !newNode.next.getBlock().getPrevHash()
-                 .equals(newNode.getBlock().getHash())) {
-        return false;
-      } else if (!this.check.isValid(newNode.getBlock().getHash())) {
-        return false;
-      } else if (!original.equals(newHash)) {
-        return false;
-      } // if/else
-      newNode = newNode.next;
-    } // while
-    return true;
+    try {
+      this.check();
+      return true;
+    } catch (InvalidBlockException e) {
+      return false;
+    } // try/catch
   } // isCorrect()
 
   /**
@@ -222,88 +811,95 @@ public class BlockChain implements Iterable<Transaction> {
    * previous hash field, (c) that every block has a hash that is correct
    * for its contents, and (d) that every block has a valid hash.
    *
-   * @throws Exception
-   *   If things are wrong at any block.
-   */
-  public void check() throws Exception {
-    Node newNode = this.firstBlock;
-
-    while (newNode != null) {
-      Hash original = newNode.getBlock().getHash();
-      newNode.getBlock().computeHash();
-      Hash newHash = newNode.getBlock().getHash();
-
-      if (balance(newNode.getBlock().transaction.getSource()) < 0
-          && !newNode.getBlock().transaction.getSource().equals("")) {
-        throw new Exception("Incorrect Amounts for User: "
-                            + newNode.getBlock().transaction.getSource());
-      } else if (newNode.getBlock().getTransaction().getAmount() < 0) {
-        throw new Exception("Negative Amount for Block: " + newNode.getBlock().getNum());
-      } else if (newNode.hasNext()
-                 && !newNode.next.getBlock().getPrevHash().equals(newNode.getBlock().getHash())) {
-        throw new Exception("Incorrect Previous Hash for Block: " + newNode.getBlock().getNum());
-      } else if (!this.check.isValid(newNode.getBlock().getHash())) {
-        throw new Exception("Incorrect Hash for Block: " + newNode.getBlock().getNum());
-      } else if (!original.equals(newHash)) {
-        throw new Exception("Incorrect Hash for Block: " + newNode.getBlock().getNum());
-      } // else/if
-      newNode = newNode.next;
-    } // while
+   * @throws InvalidBlockException
+   *   If things are wrong at any block, describing the first such block.
+   */
+  public void check() throws InvalidBlockException {
+    long stamp = this.lock.readLock();
+    this.checker.lock();
+    try {
+      this.checkAll();
+    } finally {
+      this.checker.unlock();
+      this.lock.unlockRead(stamp);
+    } // try/finally
   } // check()
 
-   /**
+  /**
+   * Determine if the blocks added since the chain was last checked are
+   * correct, in the same sense as isCorrect. Blocks that were found to
+   * be correct by an earlier check are not checked again.
+   *
+   * @return true if the blockchain is correct and false otherwise.
+   */
+  public boolean isCorrectIncremental() {
+    try {
+      this.checkIncremental();
+      return true;
+    } catch (InvalidBlockException e) {
+      return false;
+    } // try/catch
+  } // isCorrectIncremental()
+
+  /**
+   * Check the blocks added since the chain was last checked, in the same
+   * sense as check. Blocks that were found to be correct by an earlier
+   * check are not checked again, so this takes time proportional to the
+   * number of new blocks. If the last block known to be correct has
+   * changed, or some new blocks have been pruned, the whole chain is
+   * checked instead.
+   *
+   * @throws InvalidBlockException
+   *   If things are wrong at any new block, describing the first such
+   *   block.
+   */
+  public void checkIncremental() throws InvalidBlockException {
+    long stamp = this.lock.readLock();
+    this.checker.lock();
+    try {
+      if (this.verifiedNode == null || this.verifiedCount < this.checkpoint.getCount()
+          || !this.verifiedNode.getBlock().getHash().equals(this.verifiedHash)) {
+        this.checkAll();
+        return;
+      } // if
+      Ledger running = this.verifiedLedger;
+      try {
+        this.validator.validate(ChainValidator.toArray(this.verifiedNode),
+            this.verifiedCount - 1, 1, running, this.indexedBefore(this.verifiedCount));
+        this.setWatermark(this.size, running);
+      } catch (InvalidBlockException e) {
+        this.setWatermark(e.getBlockNum(), running);
+        throw e;
+      } // try/catch
+    } finally {
+      this.checker.unlock();
+      this.lock.unlockRead(stamp);
+    } // try/finally
+  } // checkIncremental()
+
+  /**
    * Return an iterator of all the people who participated in the
    * system.
    *
    * @return an iterator of all the people in the system.
    */
   public Iterator<String> users() {
-    String[] all = new String[BlockChain.this.size - 1];
-    int userCount = all.length;
-    Node nextNode = BlockChain.this.firstBlock.getNext();
-    for (int i = 0; i < all.length; i++) {
-      String trgt = nextNode.getBlock().getTransaction().getTarget();
-      if (i == 0) {
-        all[i] = trgt;
-      } // if
-      boolean isin = false;
-      for (int j = 0; j < i; j++) {
-        if (all[j] != null) {
-          if (all[j].equals(trgt)) {
-            isin = true;
-            userCount--;
-          } // if
-        } // if
-      } // for
-      if (!isin) {
-        all[i] = trgt;
-      } else {
-        all[i] = null;
-      } // if/else
-      nextNode = nextNode.getNext();
-    } // for
-    String[] users = new String[userCount];
-    int index = 0;
-    for (int i = 0; i < all.length; i++) {
-      if (all[i] != null) {
-        users[index] = all[i];
-        index++;
-      } // if
-    } // for
-    return new Iterator<String>() {
-      int userIndex = 0;
-      public boolean hasNext() {
-        return userIndex != users.length;
-      } // hasNext()
-
-      public String next() {
-        String trgt = users[userIndex];
-        userIndex++;
-        return trgt;
-      } // next()
-    };
+    return this.readLocked(() -> {
+      ArrayList<String> names = new ArrayList<String>(this.users.size());
+      this.users.iterator().forEachRemaining(names::add);
+      return names;
+    }).iterator();
   } // users()
 
+  /**
+   * Get the number of people who participated in the system.
+   *
+   * @return the number of people in the system.
+   */
+  public int userCount() {
+    return this.readLocked(() -> this.users.size());
+  } // userCount()
+
   /**
    * Find one user's balance.
    *
@@ -313,65 +909,326 @@ public class BlockChain implements Iterable<Transaction> {
    * @return that user's balance (or 0, if the user is not in the system).
    */
   public int balance(String user) {
-    Node currentNode = this.firstBlock;
-    int balance = 0;
-    for (int i = 0; i < this.size; i++) {
-      if (currentNode.getBlock().getTransaction().getSource().equals(user)) {
-        balance -= currentNode.getBlock().getTransaction().getAmount();
-      } // if
-      if (currentNode.getBlock().getTransaction().getTarget().equals(user)) {
-        balance += currentNode.getBlock().getTransaction().getAmount();
-      } // if
-      currentNode = currentNode.getNext();
-      if (balance < 0) {
-        return balance;
-      } // if
-    } // while
-    return balance;
+    return this.readLocked(() -> this.ledger.balance(user));
   } // balance()
 
   /**
-   * Get an interator for all the blocks in the chain.
+   * Find one user's balance as it was after a particular block.
+   *
+   * @param user
+   *   The user whose balance we want to find.
+   * @param height
+   *   The number of the block. Numbers past the end of the chain give
+   *   the current balance.
+   *
+   * @return that user's balance after that block (or 0, if the user
+   *   had not yet appeared).
+   *
+   * @throws IllegalArgumentException if height is negative.
+   */
+  public int balanceAt(String user, int height) {
+    if (height < 0) {
+      throw new IllegalArgumentException("Negative height: " + height);
+    } // if
+    return this.readLocked(() -> this.history.balanceAt(this.accounts.lookup(user), height));
+  } // balanceAt(String, int)
+
+  /**
+   * Get all of one user's transactions that have not been pruned.
+   *
+   * @param user
+   *   The user whose transactions we want.
+   *
+   * @return the transactions in which the user is the source or target,
+   *   in order (none, for the empty name that deposits come from).
+   */
+  public List<Transaction> transactionsOf(String user) {
+    return this.transactionsOf(user, 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE);
+  } // transactionsOf(String)
+
+  /**
+   * Get one page of a user's transactions in a range of blocks. Pruned
+   * transactions are never included.
+   *
+   * @param user
+   *   The user whose transactions we want.
+   * @param from
+   *   The number of the first block in the range.
+   * @param to
+   *   The number of the block after the last block in the range.
+   * @param offset
+   *   The number of the user's transactions in the range to skip.
+   * @param limit
+   *   The largest number of transactions to return.
+   *
+   * @return the transactions in which the user is the source or target,
+   *   in order.
+   *
+   * @throws IllegalArgumentException if offset or limit is negative.
+   */
+  public List<Transaction> transactionsOf(String user, int from, int to, int offset,
+      int limit) {
+    if (offset < 0 || limit < 0) {
+      throw new IllegalArgumentException("Negative offset or limit");
+    } // if
+    long stamp = this.lock.readLock();
+    try {
+      return this.transactionsOfLocked(user, from, to, offset, limit);
+    } finally {
+      this.lock.unlockRead(stamp);
+    } // try/finally
+  } // transactionsOf(String, int, int, int, int)
+
+  /**
+   * Get one page of a user's transactions in a range of blocks. The
+   * caller must hold the read lock.
+   *
+   * @param user
+   *   The user whose transactions we want.
+   * @param from
+   *   The number of the first block in the range.
+   * @param to
+   *   The number of the block after the last block in the range.
+   * @param offset
+   *   The number of the user's transactions in the range to skip.
+   * @param limit
+   *   The largest number of transactions to return.
+   *
+   * @return the transactions, as in transactionsOf.
+   */
+  List<Transaction> transactionsOfLocked(String user, int from, int to, int offset,
+      int limit) {
+    ArrayList<Transaction> result = new ArrayList<Transaction>();
+    IntList heights = this.history.heightsOf(this.accounts.lookup(user));
+    if (heights == null) {
+      return result;
+    } // if
+    int start = Math.max(from, this.checkpoint.getCount());
+    int end = Math.min(to, this.size);
+    int first = heights.floorIndex(start - 1) + 1;
+    if (offset >= heights.size() - first) {
+      return result;
+    } // if
+    for (int i = first + offset;
+         i < heights.size() && heights.get(i) < end && result.size() < limit; i++) {
+      result.add(this.index[heights.get(i)].getBlock().getTransaction());
+    } // for
+    return result;
+  } // transactionsOfLocked(String, int, int, int, int)
+
+  /**
+   * Get the users with the largest balances. Users with the same balance
+   * are listed in the order in which they first appeared.
+   *
+   * @param n
+   *   The largest number of users to get.
+   *
+   * @return those users, from largest balance to smallest.
+   */
+  public List<String> topAccounts(int n) {
+    return this.readLocked(() -> this.namesOf(this.ranking.top(n)));
+  } // topAccounts(int)
+
+  /**
+   * Get the users whose balances are in a range.
+   *
+   * @param lo
+   *   The smallest balance in the range.
+   * @param hi
+   *   The largest balance in the range.
+   *
+   * @return those users, from largest balance to smallest.
+   */
+  public List<String> accountsWithBalanceBetween(int lo, int hi) {
+    return this.readLocked(() -> this.namesOf(this.ranking.between(lo, hi)));
+  } // accountsWithBalanceBetween(int, int)
+
+  /**
+   * Find a user's rank by balance, where the user with the largest
+   * balance has rank 1.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return that user's rank (or 0, if the user is not in the system).
+   */
+  public int rank(String user) {
+    return this.readLocked(() -> this.ranking.rank(this.accounts.lookup(user)));
+  } // rank(String)
+
+  /**
+   * Get the block at a height.
+   *
+   * @param height
+   *   The number of the block.
+   *
+   * @return the block (or null, if there is no such block).
+   */
+  public Block blockAt(int height) {
+    Snapshot snap = this.snapshot();
+    return (height >= 0 && height < snap.count) ? snap.nodes[height].getBlock() : null;
+  } // blockAt(int)
+
+  /**
+   * Find the number of a block in the chain.
+   *
+   * @param hash
+   *   The hash of the block.
+   *
+   * @return the number of the block (or -1, if it is not in the chain).
+   */
+  public int heightOf(Hash hash) {
+    return this.readLocked(() -> this.blockHeights.getOrDefault(hash, -1));
+  } // heightOf(Hash)
+
+  /**
+   * Find the most recent block that holds a transaction.
+   *
+   * @param txid
+   *   The ID of the transaction.
+   *
+   * @return that block (or null, if no block holds the transaction or
+   *   the block has been pruned).
+   */
+  public Block findTransaction(Hash txid) {
+    return this.readLocked(() -> {
+      IntList heights = this.transactionIds.get(txid);
+      if (heights == null) {
+        return null;
+      } // if
+      Block blk = this.index[heights.get(heights.size() - 1)].getBlock();
+      return blk.isPruned() ? null : blk;
+    });
+  } // findTransaction(Hash)
+
+  /**
+   * Keep only the transactions of the most recent blocks, dropping the
+   * transactions of older blocks but keeping their headers. The balances
+   * as of the last pruned block are kept in a checkpoint, against which
+   * the remaining blocks are checked.
+   *
+   * @param depth
+   *   The number of most recent blocks whose transactions are kept.
+   *
+   * @throws IllegalArgumentException if depth is less than 1.
+   */
+  public void enablePruning(int depth) {
+    if (depth < 1) {
+      throw new IllegalArgumentException("Prune depth must be positive: " + depth);
+    } // if
+    long stamp = this.lock.writeLock();
+    try {
+      this.pruneDepth = depth;
+      this.prune();
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/finally
+  } // enablePruning(int)
+
+  /**
+   * Get the number of most recent blocks whose transactions are kept.
+   *
+   * @return that number (or 0, if pruning is not enabled).
+   */
+  public int getPruneDepth() {
+    return this.readOptimistically(() -> this.pruneDepth);
+  } // getPruneDepth()
+
+  /**
+   * Get the checkpoint that summarizes the pruned blocks.
+   *
+   * @return the checkpoint.
+   */
+  public Checkpoint getCheckpoint() {
+    return this.checkpoint;
+  } // getCheckpoint()
+
+  /**
+   * Get an interator for all the blocks in the chain, as of the moment
+   * the iterator is created. Blocks pruned since then are returned
+   * without their transactions.
    *
    * @return an iterator for all the blocks in the chain.
    */
   public Iterator<Block> blocks() {
+    Snapshot snap = this.snapshot();
     return new Iterator<Block>() {
 
-      Node nextBlock = BlockChain.this.firstBlock;
+      int i = 0;
 
       public boolean hasNext() {
-        return nextBlock != null;
+        return i < snap.count;
       } // hasNext()
 
       public Block next() {
-        Block block = nextBlock.getBlock();
-        nextBlock = nextBlock.getNext();
-        return block;
+        if (!this.hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        return snap.nodes[i++].getBlock();
       } // next()
     };
   } // blocks()
 
   /**
-   * Get an interator for all the transactions in the chain.
+   * Get an interator for all the transactions in the chain that have
+   * not been pruned, as of the moment the iterator is created.
+   * Transactions pruned since then are skipped.
    *
    * @return an iterator for all the blocks in the chain.
    */
   public Iterator<Transaction> iterator() {
+    Snapshot snap = this.snapshot();
     return new Iterator<Transaction>() {
 
-      Node nextBlock = BlockChain.this.firstBlock;
+      int i = snap.pruned;
 
       public boolean hasNext() {
-        return (nextBlock != null);
+        while (i < snap.count && snap.nodes[i].getBlock().isPruned()) {
+          i++;
+        } // while
+        return i < snap.count;
       } // hasNext()
 
       public Transaction next() {
-        Transaction transaction = nextBlock.getBlock().getTransaction();
-        nextBlock = nextBlock.getNext();
-        return transaction;
+        if (!this.hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        return snap.nodes[i++].getBlock().getTransaction();
       } // next()
     };
   } // iterator()
 
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The blocks of the chain at one moment.
+   */
+  static class Snapshot {
+    /** The nodes of the chain, of which only the first count are used. */
+    Node[] nodes;
+
+    /** The number of blocks. */
+    int count;
+
+    /** The number of pruned blocks. */
+    int pruned;
+
+    /**
+     * Record the blocks of the chain at one moment.
+     *
+     * @param iNodes
+     *   The nodes of the chain.
+     * @param iCount
+     *   The number of blocks.
+     * @param iPruned
+     *   The number of pruned blocks.
+     */
+    Snapshot(Node[] iNodes, int iCount, int iPruned) {
+      this.nodes = iNodes;
+      this.count = iCount;
+      this.pruned = iPruned;
+    } // Snapshot(Node[], int, int)
+  } // class Snapshot
 } // class BlockChain
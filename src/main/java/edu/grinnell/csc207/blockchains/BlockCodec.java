@@ -0,0 +1,245 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary form of blocks and transactions, for sending them between
+ * nodes and storing them. All numbers are big-endian, and every
+ * variable-length field is preceded by its length as a 4-byte int.
+ *
+ * <p>A header is the number of the block, the previous hash, the nonce
+ * (8 bytes), and the hash. A block is its header, followed by a 1 and
+ * the encoding of its transaction, or by a 0 if it has been pruned. A
+ * transaction is the length of its canonical encoding, followed by the
+ * encoding.</p>
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class BlockCodec {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The longest variable-length field we accept. */
+  static final int MAX_FIELD = 1 << 20;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Read a length-prefixed field.
+   *
+   * @param buf
+   *   The buffer to read from.
+   *
+   * @return the bytes of the field.
+   *
+   * @throws IllegalArgumentException if the length is negative, too
+   *   large, or longer than the rest of the buffer.
+   * @throws BufferUnderflowException if the buffer ends before the length.
+   */
+  static byte[] getField(ByteBuffer buf) {
+    int length = buf.getInt();
+    if (length < 0 || length > MAX_FIELD || length > buf.remaining()) {
+      throw new IllegalArgumentException("Bad field length: " + length);
+    } // if
+    byte[] bytes = new byte[length];
+    buf.get(bytes);
+    return bytes;
+  } // getField(ByteBuffer)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of bytes in the encoding of a transaction.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return that number.
+   */
+  public static int sizeOf(Transaction t) {
+    return Integer.BYTES + t.getEncoding().length;
+  } // sizeOf(Transaction)
+
+  /**
+   * Get the number of bytes in the encoding of the header of a block.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return that number.
+   */
+  public static int sizeOfHeader(Block blk) {
+    return 3 * Integer.BYTES + Long.BYTES + blk.getPrevHash().length() + blk.getHash().length();
+  } // sizeOfHeader(Block)
+
+  /**
+   * Get the number of bytes in the encoding of a block.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return that number.
+   */
+  public static int sizeOf(Block blk) {
+    return sizeOfHeader(blk) + 1 + (blk.isPruned() ? 0 : sizeOf(blk.getTransaction()));
+  } // sizeOf(Block)
+
+  /**
+   * Write a transaction.
+   *
+   * @param buf
+   *   The buffer to write to.
+   * @param t
+   *   The transaction.
+   */
+  public static void putTransaction(ByteBuffer buf, Transaction t) {
+    byte[] encoding = t.getEncoding();
+    buf.putInt(encoding.length).put(encoding);
+  } // putTransaction(ByteBuffer, Transaction)
+
+  /**
+   * Read a transaction.
+   *
+   * @param buf
+   *   The buffer to read from.
+   *
+   * @return the transaction.
+   *
+   * @throws IllegalArgumentException if the buffer does not hold a
+   *   transaction.
+   */
+  public static Transaction getTransaction(ByteBuffer buf) {
+    try {
+      return Transaction.decode(getField(buf));
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated transaction", e);
+    } // try/catch
+  } // getTransaction(ByteBuffer)
+
+  /**
+   * Write the header of a block.
+   *
+   * @param buf
+   *   The buffer to write to.
+   * @param blk
+   *   The block.
+   */
+  public static void putHeader(ByteBuffer buf, Block blk) {
+    byte[] prev = blk.getPrevHash().getBytes();
+    byte[] hash = blk.getHash().getBytes();
+    buf.putInt(blk.getNum())
+        .putInt(prev.length).put(prev)
+        .putLong(blk.getNonce())
+        .putInt(hash.length).put(hash);
+  } // putHeader(ByteBuffer, Block)
+
+  /**
+   * Read the header of a block.
+   *
+   * @param buf
+   *   The buffer to read from.
+   *
+   * @return a block with only that header, as if it had been pruned.
+   *
+   * @throws IllegalArgumentException if the buffer does not hold a
+   *   header.
+   */
+  public static Block getHeader(ByteBuffer buf) {
+    try {
+      int num = buf.getInt();
+      Hash prev = new Hash(getField(buf));
+      long nonce = buf.getLong();
+      Hash hash = new Hash(getField(buf));
+      return new Block(num, prev, nonce, hash);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated header", e);
+    } // try/catch
+  } // getHeader(ByteBuffer)
+
+  /**
+   * Write a block.
+   *
+   * @param buf
+   *   The buffer to write to.
+   * @param blk
+   *   The block.
+   */
+  public static void putBlock(ByteBuffer buf, Block blk) {
+    putHeader(buf, blk);
+    if (blk.isPruned()) {
+      buf.put((byte) 0);
+    } else {
+      buf.put((byte) 1);
+      putTransaction(buf, blk.getTransaction());
+    } // if/else
+  } // putBlock(ByteBuffer, Block)
+
+  /**
+   * Read a block.
+   *
+   * @param buf
+   *   The buffer to read from.
+   *
+   * @return the block.
+   *
+   * @throws IllegalArgumentException if the buffer does not hold a
+   *   block, or the hash does not match the contents of the block.
+   */
+  public static Block getBlock(ByteBuffer buf) {
+    Block header = getHeader(buf);
+    try {
+      if (buf.get() == 0) {
+        return header;
+      } // if
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated block", e);
+    } // try/catch
+    Block blk = new Block(header.getNum(), getTransaction(buf), header.getPrevHash(),
+        header.getNonce());
+    if (!blk.getHash().equals(header.getHash())) {
+      throw new IllegalArgumentException("Hash does not match block " + header.getNum());
+    } // if
+    return blk;
+  } // getBlock(ByteBuffer)
+
+  /**
+   * Encode a block.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return the encoding.
+   */
+  public static byte[] encode(Block blk) {
+    ByteBuffer buf = ByteBuffer.allocate(sizeOf(blk));
+    putBlock(buf, blk);
+    return buf.array();
+  } // encode(Block)
+
+  /**
+   * Decode a block.
+   *
+   * @param bytes
+   *   The encoding of the block.
+   *
+   * @return the block.
+   *
+   * @throws IllegalArgumentException if the bytes are not exactly the
+   *   encoding of a block.
+   */
+  public static Block decode(byte[] bytes) {
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    Block blk = getBlock(buf);
+    if (buf.hasRemaining()) {
+      throw new IllegalArgumentException("Extra bytes after block");
+    } // if
+    return blk;
+  } // decode(byte[])
+} // class BlockCodec
@@ -0,0 +1,339 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An on-disk copy of a chain, kept as encoded blocks so that ranges of
+ * it can be sent to other nodes straight from the file, without decoding
+ * or encoding anything.
+ *
+ * <p>The file is a log of records, each the length of an encoded block
+ * (4 bytes) followed by the block, as written by BlockCodec. Records are
+ * only ever added to the end. When the chain loses blocks, the index
+ * forgets them and the blocks that replace them are added after them,
+ * so bytes that are being sent from the file never change. On opening,
+ * the log is replayed: a record for block n replaces the records for
+ * block n and every later block, and a torn record at the end of the
+ * file is cut off. The index holds only the position and length of each
+ * record.</p>
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class BlockStore implements Closeable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of bytes before the encoding of each block. */
+  static final int PREFIX = Integer.BYTES;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The file. */
+  FileChannel file;
+
+  /** The position of the record of each block, by number. */
+  long[] positions;
+
+  /** The length of the record of each block, by number. */
+  int[] lengths;
+
+  /** The number of blocks stored. */
+  int size;
+
+  /** The position at which the next record goes. */
+  long end;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open a store, creating its file if it does not exist.
+   *
+   * @param path
+   *   The path of the file.
+   *
+   * @throws IOException if the file cannot be opened or read.
+   */
+  public BlockStore(Path path) throws IOException {
+    this.file = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.positions = new long[16];
+    this.lengths = new int[16];
+    this.recover();
+  } // BlockStore(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Rebuild the index by replaying the log, cutting off any torn record
+   * at the end.
+   *
+   * @throws IOException if the file cannot be read.
+   */
+  void recover() throws IOException {
+    long length = this.file.size();
+    ByteBuffer prefix = ByteBuffer.allocate(PREFIX + Integer.BYTES);
+    long pos = 0;
+    while (pos < length) {
+      prefix.clear();
+      int read = 0;
+      while (prefix.hasRemaining() && read >= 0) {
+        read = this.file.read(prefix, pos + prefix.position());
+      } // while
+      if (prefix.hasRemaining()) {
+        break;
+      } // if
+      int bytes = prefix.getInt(0);
+      int num = prefix.getInt(PREFIX);
+      if (bytes < Integer.BYTES || pos + PREFIX + bytes > length || num < 0
+          || num > this.size) {
+        break;
+      } // if
+      this.size = num;
+      this.add(pos, PREFIX + bytes);
+      pos += PREFIX + bytes;
+    } // while
+    if (pos < length) {
+      this.file.truncate(pos);
+    } // if
+    this.end = pos;
+  } // recover()
+
+  /**
+   * Add a record to the end of the index.
+   *
+   * @param position
+   *   The position of the record.
+   * @param length
+   *   The length of the record.
+   */
+  void add(long position, int length) {
+    if (this.size == this.positions.length) {
+      this.positions = Arrays.copyOf(this.positions, this.size * 2);
+      this.lengths = Arrays.copyOf(this.lengths, this.size * 2);
+    } // if
+    this.positions[this.size] = position;
+    this.lengths[this.size] = length;
+    this.size++;
+  } // add(long, int)
+
+  /**
+   * Read the record of a block.
+   *
+   * @param num
+   *   The number of the block, which must be stored.
+   *
+   * @return the encoding of the block, ready to be read.
+   *
+   * @throws IOException if the file cannot be read.
+   */
+  ByteBuffer record(int num) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(this.lengths[num] - PREFIX);
+    long pos = this.positions[num] + PREFIX;
+    while (buf.hasRemaining()) {
+      if (this.file.read(buf, pos + buf.position()) < 0) {
+        throw new IOException("Store ends inside block " + num);
+      } // if
+    } // while
+    return buf.flip();
+  } // record(int)
+
+  /**
+   * Find the records for a range of blocks, merging records that are
+   * next to each other in the file.
+   *
+   * @param from
+   *   The number of the first block.
+   * @param count
+   *   The most blocks to include.
+   * @param limit
+   *   The most bytes to include (though the first block is always
+   *   included).
+   * @param regions
+   *   The list to which the regions of the file are added, in order.
+   *
+   * @return the number of blocks included.
+   */
+  synchronized int regions(int from, int count, long limit, List<Region> regions) {
+    int last = (int) Math.min(this.size, (long) from + count);
+    long total = 0;
+    int num = from;
+    Region run = null;
+    while (num < last && (num == from || total + this.lengths[num] <= limit)) {
+      long pos = this.positions[num];
+      if (run != null && run.end == pos) {
+        run.end += this.lengths[num];
+      } else {
+        run = new Region(this.file, pos, pos + this.lengths[num]);
+        regions.add(run);
+      } // if/else
+      total += this.lengths[num];
+      num++;
+    } // while
+    return Math.max(0, num - from);
+  } // regions(int, int, long, List<Region>)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of blocks stored.
+   *
+   * @return that number.
+   */
+  public synchronized int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Read a stored block.
+   *
+   * @param num
+   *   The number of the block.
+   *
+   * @return the block (or null, if it is not stored).
+   *
+   * @throws IOException if the file cannot be read or the record is
+   *   damaged.
+   */
+  public synchronized Block read(int num) throws IOException {
+    if (num < 0 || num >= this.size) {
+      return null;
+    } // if
+    try {
+      return BlockCodec.decode(this.record(num).array());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Damaged record for block " + num, e);
+    } // try/catch
+  } // read(int)
+
+  /**
+   * Make the store match a chain: forget the stored blocks the chain no
+   * longer has, then store the blocks it has beyond them.
+   *
+   * @param chain
+   *   The chain.
+   *
+   * @return the number of blocks stored.
+   *
+   * @throws IOException if the file cannot be read or written.
+   */
+  public synchronized int catchUp(BlockChain chain) throws IOException {
+    BlockChain.Snapshot snap = chain.snapshot();
+    int keep = Math.min(this.size, snap.count);
+    while (keep > 0 && !BlockCodec.getHeader(this.record(keep - 1)).getHash()
+        .equals(snap.nodes[keep - 1].getBlock().getHash())) {
+      keep--;
+    } // while
+    this.size = keep;
+    if (keep == snap.count) {
+      return 0;
+    } // if
+    for (int i = keep; i < snap.count; i++) {
+      Block blk = snap.nodes[i].getBlock();
+      int length = BlockCodec.sizeOf(blk);
+      ByteBuffer buf = ByteBuffer.allocate(PREFIX + length);
+      buf.putInt(length);
+      BlockCodec.putBlock(buf, blk);
+      buf.flip();
+      while (buf.hasRemaining()) {
+        this.file.write(buf, this.end + buf.position());
+      } // while
+      this.add(this.end, PREFIX + length);
+      this.end += PREFIX + length;
+    } // for
+    this.file.force(false);
+    return snap.count - keep;
+  } // catchUp(BlockChain)
+
+  /**
+   * Close the file.
+   *
+   * @throws IOException if the file cannot be closed.
+   */
+  public synchronized void close() throws IOException {
+    this.file.close();
+  } // close()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A run of bytes of the file, to be sent to a channel.
+   */
+  static class Region {
+    /** The file. */
+    FileChannel file;
+
+    /** The position of the next byte to send. */
+    long position;
+
+    /** The position just past the last byte to send. */
+    long end;
+
+    /**
+     * Create a region.
+     *
+     * @param iFile
+     *   The file.
+     * @param iPosition
+     *   The position of the first byte.
+     * @param iEnd
+     *   The position just past the last byte.
+     */
+    Region(FileChannel iFile, long iPosition, long iEnd) {
+      this.file = iFile;
+      this.position = iPosition;
+      this.end = iEnd;
+    } // Region(FileChannel, long, long)
+
+    /**
+     * Get the number of bytes left to send.
+     *
+     * @return that number.
+     */
+    long remaining() {
+      return this.end - this.position;
+    } // remaining()
+
+    /**
+     * Send as much of the region as the channel takes, letting the
+     * operating system copy the bytes from the file to the channel.
+     *
+     * @param channel
+     *   The channel.
+     *
+     * @return true if the whole region has been sent and false otherwise.
+     *
+     * @throws IOException if the file cannot be read or the channel
+     *   cannot be written.
+     */
+    boolean writeTo(WritableByteChannel channel) throws IOException {
+      while (this.position < this.end) {
+        long sent = this.file.transferTo(this.position, this.end - this.position, channel);
+        if (sent <= 0) {
+          return false;
+        } // if
+        this.position += sent;
+      } // while
+      return true;
+    } // writeTo(WritableByteChannel)
+  } // class Region
+} // class BlockStore
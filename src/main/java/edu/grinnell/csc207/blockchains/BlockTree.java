@@ -0,0 +1,419 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Every block we have heard of, arranged as a tree by previous hash, with
+ * the heaviest branch kept in a blockchain. A block that extends a branch
+ * other than the one in the chain is kept rather than rejected, and if
+ * its branch becomes heavier than the chain, the chain is reorganized to
+ * follow it: the blocks of the new branch are checked against the chain
+ * as it was at the fork, and only if all of them are correct are the
+ * blocks after the fork removed from the end of the chain, each one
+ * undone with the undo record the chain kept when it was added, and the
+ * new ones appended. A reorganization therefore takes time proportional
+ * to the depth of the fork, not the length of the chain. A block that
+ * turns out to be incorrect is marked invalid, along with everything
+ * after it, so that it is never tried again. Blocks whose previous block
+ * has not arrived yet are held until it does, up to a limit in all and
+ * for each missing block, beyond which the oldest are dropped.
+ *
+ * <p>Once a chain is in a tree, blocks should only be added through the
+ * tree.</p>
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class BlockTree {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The largest number of blocks held while waiting for their previous block. */
+  static final int MAX_ORPHANS = 1024;
+
+  /** The largest number of blocks held while waiting for the same previous block. */
+  static final int MAX_ORPHANS_PER_PARENT = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain that holds the heaviest branch. */
+  BlockChain chain;
+
+  /** Every block in the tree, by hash. */
+  HashMap<Hash, Entry> entries;
+
+  /** The blocks whose previous block has not arrived, by previous hash. */
+  HashMap<Hash, ArrayList<Block>> orphans;
+
+  /** The blocks whose previous block has not arrived, by hash, oldest first. */
+  LinkedHashMap<Hash, Block> orphanOrder;
+
+  /** The end of the branch held in the chain. */
+  Entry best;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a tree whose heaviest branch is an existing chain.
+   *
+   * @param iChain
+   *   The chain.
+   */
+  public BlockTree(BlockChain iChain) {
+    this.chain = iChain;
+    this.entries = new HashMap<Hash, Entry>();
+    this.orphans = new HashMap<Hash, ArrayList<Block>>();
+    this.orphanOrder = new LinkedHashMap<Hash, Block>();
+    Entry parent = null;
+    Iterator<Block> blocks = iChain.blocks();
+    while (blocks.hasNext()) {
+      Block blk = blocks.next();
+      parent = new Entry(blk, parent);
+      this.entries.put(blk.getHash(), parent);
+    } // while
+    this.best = parent;
+  } // BlockTree(BlockChain)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Put a block in the tree under its parent, along with any orphans
+   * waiting for it.
+   *
+   * @param blk
+   *   The block.
+   * @param parent
+   *   The entry of its previous block.
+   *
+   * @return the heaviest of the new entries that is not invalid (or the
+   *   entry of the block, if all of them are).
+   */
+  Entry attach(Block blk, Entry parent) {
+    Entry entry = new Entry(blk, parent);
+    this.entries.put(blk.getHash(), entry);
+    Entry heaviest = entry;
+    ArrayDeque<Entry> pending = new ArrayDeque<Entry>();
+    pending.push(entry);
+    while (!pending.isEmpty()) {
+      Entry next = pending.pop();
+      if (!next.invalid && (heaviest.invalid || next.work > heaviest.work)) {
+        heaviest = next;
+      } // if
+      ArrayList<Block> waiting = this.orphans.remove(next.block.getHash());
+      if (waiting != null) {
+        for (Block child : waiting) {
+          this.orphanOrder.remove(child.getHash());
+          if (child.getNum() == next.height + 1 && !this.entries.containsKey(child.getHash())) {
+            Entry candidate = new Entry(child, next);
+            this.entries.put(child.getHash(), candidate);
+            pending.push(candidate);
+          } // if
+        } // for
+      } // if
+    } // while
+    return heaviest;
+  } // attach(Block, Entry)
+
+  /**
+   * Hold a block until its previous block arrives, dropping the oldest
+   * held block if there are too many in all or for that previous block.
+   *
+   * @param blk
+   *   The block.
+   */
+  void hold(Block blk) {
+    if (this.orphanOrder.containsKey(blk.getHash())) {
+      return;
+    } // if
+    ArrayList<Block> siblings = this.orphans.get(blk.getPrevHash());
+    if (siblings != null && siblings.size() >= MAX_ORPHANS_PER_PARENT) {
+      this.release(siblings.get(0));
+    } else if (this.orphanOrder.size() >= MAX_ORPHANS) {
+      this.release(this.orphanOrder.values().iterator().next());
+    } // if/else
+    this.orphans.computeIfAbsent(blk.getPrevHash(), (h) -> new ArrayList<Block>()).add(blk);
+    this.orphanOrder.put(blk.getHash(), blk);
+  } // hold(Block)
+
+  /**
+   * Stop holding a block that is waiting for its previous block.
+   *
+   * @param blk
+   *   The block.
+   */
+  void release(Block blk) {
+    this.orphanOrder.remove(blk.getHash());
+    ArrayList<Block> siblings = this.orphans.get(blk.getPrevHash());
+    siblings.remove(blk);
+    if (siblings.isEmpty()) {
+      this.orphans.remove(blk.getPrevHash());
+    } // if
+  } // release(Block)
+
+  /**
+   * Mark the entries of a branch invalid, from its end back to a given
+   * height.
+   *
+   * @param end
+   *   The end of the branch.
+   * @param height
+   *   The height of the first incorrect block.
+   */
+  void invalidate(Entry end, int height) {
+    for (Entry e = end; e != null && e.height >= height && !e.invalid; e = e.parent) {
+      e.invalid = true;
+    } // for
+  } // invalidate(Entry, int)
+
+  /**
+   * Mark the entries of a branch that a chain refused invalid.
+   *
+   * @param end
+   *   The end of the branch.
+   * @param e
+   *   The exception the chain threw.
+   */
+  void invalidate(Entry end, IllegalArgumentException e) {
+    if (e.getCause() instanceof InvalidBlockException) {
+      this.invalidate(end, ((InvalidBlockException) e.getCause()).getBlockNum());
+    } else {
+      this.invalidate(end, end.height);
+    } // if/else
+  } // invalidate(Entry, IllegalArgumentException)
+
+  /**
+   * Move the chain from the current branch to another one.
+   *
+   * @param target
+   *   The end of the other branch.
+   *
+   * @return true if the chain now follows the other branch and false if
+   *   the fork is too far back (it is before a pruned block) or a block
+   *   in the other branch is incorrect, in which case the chain still
+   *   follows the current branch.
+   */
+  boolean reorganize(Entry target) {
+    Entry fork = target;
+    Entry old = this.best;
+    while (fork != old) {
+      if (fork.height >= old.height) {
+        fork = fork.parent;
+      } else {
+        old = old.parent;
+      } // if/else
+    } // while
+    if (fork.height + 1 < this.chain.getCheckpoint().getCount()) {
+      return false;
+    } // if
+
+    ArrayList<Block> added = new ArrayList<Block>();
+    for (Entry e = target; e != fork; e = e.parent) {
+      if (e.invalid) {
+        this.invalidate(target, e.height);
+        return false;
+      } // if
+      added.add(e.block);
+    } // for
+    Collections.reverse(added);
+    try {
+      this.chain.replaceAfter(fork.height + 1, added);
+    } catch (IllegalArgumentException e) {
+      this.invalidate(target, e);
+      return false;
+    } // try/catch
+    this.best = target;
+    return true;
+  } // reorganize(Entry)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add a block to the tree, reorganizing the chain if the block makes
+   * another branch heavier than the chain. Every block counts as one
+   * unit of work, so the heaviest branch is the longest; of two branches
+   * with the same work, the chain keeps the one it already has.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return true if the chain changed and false otherwise (including
+   *   when the block, or the branch it completes, is incorrect).
+   *
+   * @throws IllegalArgumentException if the hash of the block is not
+   *   valid or not appropriate for its contents, or its number does not
+   *   follow its previous block.
+   */
+  public synchronized boolean add(Block blk) {
+    if (!blk.getHash().equals(blk.recomputeHash()) || !this.chain.check.isValid(blk.getHash())) {
+      throw new IllegalArgumentException("Incorrect hash: " + blk);
+    } else if (this.entries.containsKey(blk.getHash())) {
+      return false;
+    } // if/else
+    Entry parent = this.entries.get(blk.getPrevHash());
+    if (parent == null) {
+      this.hold(blk);
+      return false;
+    } else if (blk.getNum() != parent.height + 1) {
+      throw new IllegalArgumentException("Incorrect number: " + blk);
+    } // if/else
+
+    Entry heaviest = this.attach(blk, parent);
+    if (heaviest.invalid || heaviest.work <= this.best.work) {
+      return false;
+    } else if (parent == this.best && heaviest.block == blk) {
+      try {
+        this.chain.appendAll(Collections.singletonList(blk));
+      } catch (IllegalArgumentException e) {
+        heaviest.invalid = true;
+        return false;
+      } // try/catch
+      this.best = heaviest;
+      return true;
+    } // if/else
+    return this.reorganize(heaviest);
+  } // add(Block)
+
+  /**
+   * Determine if a block is in the tree.
+   *
+   * @param hash
+   *   The hash of the block.
+   *
+   * @return true if the block is in the tree and false otherwise.
+   */
+  public synchronized boolean contains(Hash hash) {
+    return this.entries.containsKey(hash);
+  } // contains(Hash)
+
+  /**
+   * Determine if a block is in the tree and not known to be incorrect.
+   * Only such blocks should be passed on to other nodes.
+   *
+   * @param hash
+   *   The hash of the block.
+   *
+   * @return true if the block is in the tree and neither it nor a block
+   *   before it has been found incorrect, and false otherwise.
+   */
+  public synchronized boolean isValid(Hash hash) {
+    Entry entry = this.entries.get(hash);
+    return entry != null && !entry.invalid;
+  } // isValid(Hash)
+
+  /**
+   * Find a block in the tree.
+   *
+   * @param hash
+   *   The hash of the block.
+   *
+   * @return the block (or null, if it is not in the tree).
+   */
+  public synchronized Block get(Hash hash) {
+    Entry entry = this.entries.get(hash);
+    return (entry == null) ? null : entry.block;
+  } // get(Hash)
+
+  /**
+   * Get the total work of the branch that ends with a block.
+   *
+   * @param hash
+   *   The hash of the block.
+   *
+   * @return the work (or -1, if the block is not in the tree).
+   */
+  public synchronized long getWork(Hash hash) {
+    Entry entry = this.entries.get(hash);
+    return (entry == null) ? -1 : entry.work;
+  } // getWork(Hash)
+
+  /**
+   * Get the hash of the end of the branch held in the chain.
+   *
+   * @return that hash.
+   */
+  public synchronized Hash getBestHash() {
+    return this.best.block.getHash();
+  } // getBestHash()
+
+  /**
+   * Get the number of blocks in the tree, not counting orphans.
+   *
+   * @return that number.
+   */
+  public synchronized int size() {
+    return this.entries.size();
+  } // size()
+
+  /**
+   * Get the number of blocks waiting for their previous block.
+   *
+   * @return that number.
+   */
+  public synchronized int orphanCount() {
+    return this.orphanOrder.size();
+  } // orphanCount()
+
+  /**
+   * Get the chain that holds the heaviest branch.
+   *
+   * @return the chain.
+   */
+  public BlockChain getChain() {
+    return this.chain;
+  } // getChain()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * One block in the tree.
+   */
+  static class Entry {
+    /** The block. */
+    Block block;
+
+    /** The entry of the previous block (or null, for the initial block). */
+    Entry parent;
+
+    /** The position of the block in its branch. */
+    int height;
+
+    /** The total work of the branch that ends with this block. */
+    long work;
+
+    /** Whether this block, or a block before it, is known to be incorrect. */
+    boolean invalid;
+
+    /**
+     * Create a new entry.
+     *
+     * @param iBlock
+     *   The block.
+     * @param iParent
+     *   The entry of the previous block (or null, for the initial
+     *   block).
+     */
+    Entry(Block iBlock, Entry iParent) {
+      this.block = iBlock;
+      this.parent = iParent;
+      this.height = (iParent == null) ? 0 : iParent.height + 1;
+      this.work = (iParent == null) ? 1 : iParent.work + 1;
+      this.invalid = (iParent != null) && iParent.invalid;
+    } // Entry(Block, Entry)
+  } // class Entry
+} // class BlockTree
@@ -0,0 +1,418 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Adds the blocks of a file in the binary form of ChainExporter (or of a
+ * BlockStore) to the end of a chain, as a pipeline. One thread reads
+ * batches of records; a group of threads decodes them; another group
+ * rebuilds each block from its contents, checking that its hash matches
+ * the recorded hash and is valid, and checking its signature; and the
+ * calling thread puts the batches back in order and appends each under
+ * a single write lock, without hashing the blocks again. The stages are
+ * joined by bounded queues, and only a fixed number of batches may be
+ * between the reader and the chain at once, so a slow stage holds back
+ * the reader instead of filling memory.
+ *
+ * <p>Records for blocks the chain already has (such as the initial
+ * block) are skipped, as long as they match the chain. As with append,
+ * balances are not checked; check the chain afterwards.</p>
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class BulkImporter {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of records in a batch. */
+  static final int BATCH = 256;
+
+  /** The longest record we accept. */
+  static final int MAX_RECORD = 2 * BlockCodec.MAX_FIELD;
+
+  /** The marker that follows the last batch on each queue. */
+  static final Batch END = new Batch(-1, null);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain. */
+  BlockChain chain;
+
+  /** The number of threads in each of the decoding and hashing stages. */
+  int threads;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Prepare to import blocks into a chain, using every processor.
+   *
+   * @param iChain
+   *   The chain.
+   */
+  public BulkImporter(BlockChain iChain) {
+    this(iChain, Runtime.getRuntime().availableProcessors());
+  } // BulkImporter(BlockChain)
+
+  /**
+   * Prepare to import blocks into a chain.
+   *
+   * @param iChain
+   *   The chain.
+   * @param iThreads
+   *   The number of threads in each of the decoding and hashing stages.
+   *
+   * @throws IllegalArgumentException if iThreads is less than 1.
+   */
+  public BulkImporter(BlockChain iChain, int iThreads) {
+    if (iThreads < 1) {
+      throw new IllegalArgumentException("Need at least one thread");
+    } // if
+    this.chain = iChain;
+    this.threads = iThreads;
+  } // BulkImporter(BlockChain, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Read one record.
+   *
+   * @param data
+   *   The input.
+   *
+   * @return the record (or null, if the input has ended).
+   *
+   * @throws IOException if the input fails or ends inside a record.
+   */
+  static byte[] readRecord(DataInputStream data) throws IOException {
+    byte[] prefix = new byte[BlockStore.PREFIX];
+    int n = data.readNBytes(prefix, 0, prefix.length);
+    if (n == 0) {
+      return null;
+    } else if (n < prefix.length) {
+      throw new IOException("Input ends inside a record");
+    } // if/else
+    int length = ByteBuffer.wrap(prefix).getInt();
+    if (length < 0 || length > MAX_RECORD) {
+      throw new IOException("Bad record length: " + length);
+    } // if
+    byte[] rec = new byte[length];
+    if (data.readNBytes(rec, 0, length) < length) {
+      throw new IOException("Input ends inside a record");
+    } // if
+    return rec;
+  } // readRecord(DataInputStream)
+
+  /**
+   * Read batches of records until the input ends or fails. If it fails,
+   * the last batch holds the records read before the failure, and the
+   * failure.
+   *
+   * @param in
+   *   The input.
+   * @param out
+   *   The queue of batches to decode.
+   * @param window
+   *   The permits for batches between the reader and the chain.
+   *
+   * @throws InterruptedException if the import is cancelled.
+   */
+  static void read(InputStream in, BlockingQueue<Batch> out, Semaphore window)
+      throws InterruptedException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    long seq = 0;
+    ArrayList<byte[]> records = new ArrayList<byte[]>(BATCH);
+    IOException error = null;
+    boolean more = true;
+    while (more) {
+      try {
+        byte[] rec = readRecord(data);
+        more = rec != null;
+        if (more) {
+          records.add(rec);
+        } // if
+      } catch (IOException e) {
+        error = e;
+        more = false;
+      } // try/catch
+      if ((!more || records.size() == BATCH) && (!records.isEmpty() || error != null)) {
+        Batch b = new Batch(seq++, records);
+        b.error = error;
+        window.acquire();
+        out.put(b);
+        records = new ArrayList<byte[]>(BATCH);
+      } // if
+    } // while
+    out.put(END);
+  } // read(InputStream, BlockingQueue<Batch>, Semaphore)
+
+  /**
+   * Run one stage of the pipeline on the current thread until its input
+   * ends. The last thread of the stage to finish passes the end on.
+   *
+   * @param in
+   *   The input of the stage.
+   * @param out
+   *   The output of the stage.
+   * @param live
+   *   The number of threads of the stage still running.
+   * @param step
+   *   The work done to each batch.
+   */
+  static void work(BlockingQueue<Batch> in, BlockingQueue<Batch> out, AtomicInteger live,
+      Consumer<Batch> step) {
+    try {
+      for (Batch b = in.take(); b != END; b = in.take()) {
+        step.accept(b);
+        out.put(b);
+      } // for
+      in.put(END);
+      if (live.decrementAndGet() == 0) {
+        out.put(END);
+      } // if
+    } catch (InterruptedException e) {
+      // The import was cancelled.
+    } // try/catch
+  } // work(BlockingQueue<Batch>, BlockingQueue<Batch>, AtomicInteger, Consumer<Batch>)
+
+  /**
+   * Decode the records of a batch, up to the first that is malformed.
+   * A problem found here comes before any problem the reader found.
+   *
+   * @param b
+   *   The batch.
+   */
+  static void decode(Batch b) {
+    int count = b.records.size();
+    b.headers = new Block[count];
+    b.transactions = new Transaction[count];
+    for (int i = 0; i < count; i++) {
+      ByteBuffer buf = ByteBuffer.wrap(b.records.get(i));
+      try {
+        Block header = BlockCodec.getHeader(buf);
+        if (buf.get() == 0) {
+          b.stop(i, new InvalidBlockException(header.getNum(),
+              "Pruned Block Cannot Be Imported: " + header.getNum()));
+          return;
+        } // if
+        b.headers[i] = header;
+        b.transactions[i] = BlockCodec.getTransaction(buf);
+        if (buf.hasRemaining()) {
+          throw new IllegalArgumentException("Extra bytes after block");
+        } // if
+      } catch (IllegalArgumentException | BufferUnderflowException e) {
+        b.stop(i, new IOException("Malformed record " + (b.seq * BATCH + i), e));
+        return;
+      } // try/catch
+    } // for
+    b.good = count;
+  } // decode(Batch)
+
+  /**
+   * Rebuild the decoded blocks of a batch, up to the first whose hash or
+   * signature is incorrect.
+   *
+   * @param b
+   *   The batch.
+   */
+  void verify(Batch b) {
+    b.blocks = new Block[b.good];
+    for (int i = 0; i < b.blocks.length; i++) {
+      Block header = b.headers[i];
+      int num = header.getNum();
+      Block blk = new Block(num, b.transactions[i], header.getPrevHash(), header.getNonce());
+      if (!blk.getHash().equals(header.getHash()) || !this.chain.check.isValid(blk.getHash())) {
+        b.stop(i, new InvalidBlockException(num, "Incorrect Hash for Block: " + num));
+        return;
+      } else if (!this.chain.isAuthentic(blk.getTransaction())) {
+        b.stop(i, new InvalidBlockException(num, "Incorrect Signature for Block: " + num));
+        return;
+      } // if/else
+      b.blocks[i] = blk;
+    } // for
+  } // verify(Batch)
+
+  /**
+   * Append the verified blocks of a batch to the chain, then report the
+   * first problem with the batch, if any.
+   *
+   * @param b
+   *   The batch.
+   *
+   * @return the number of blocks appended.
+   *
+   * @throws IOException if the input failed or a record is malformed.
+   * @throws InvalidBlockException if a block is incorrect or does not
+   *   follow the chain.
+   */
+  int apply(Batch b) throws IOException, InvalidBlockException {
+    ArrayList<Block> fresh = new ArrayList<Block>(b.good);
+    Exception problem = b.error;
+    int size = this.chain.getSize();
+    for (int i = 0; i < b.good; i++) {
+      Block blk = b.blocks[i];
+      int num = blk.getNum();
+      if (fresh.isEmpty() && num < size) {
+        Block have = this.chain.blockAt(num);
+        if (have == null || !have.getHash().equals(blk.getHash())) {
+          problem = new InvalidBlockException(num, "Block Does Not Match Chain: " + num);
+          break;
+        } // if
+      } else if (num != size + fresh.size()) {
+        problem = new InvalidBlockException(num, "Incorrect Number for Block: " + num);
+        break;
+      } else {
+        fresh.add(blk);
+      } // if/else
+    } // for
+    this.chain.appendVerified(fresh);
+    if (problem instanceof IOException) {
+      throw (IOException) problem;
+    } else if (problem != null) {
+      throw (InvalidBlockException) problem;
+    } // if/else
+    return fresh.size();
+  } // apply(Batch)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Import the blocks of a file.
+   *
+   * @param in
+   *   The channel to read the file from. It may be closed if the import
+   *   fails.
+   *
+   * @return the number of blocks appended.
+   *
+   * @throws IOException if the file cannot be read or a record is
+   *   malformed.
+   * @throws InvalidBlockException if a block is incorrect or does not
+   *   follow the blocks before it (in which case the blocks before it
+   *   have been appended).
+   */
+  public int run(ReadableByteChannel in) throws IOException, InvalidBlockException {
+    int capacity = 2 * this.threads;
+    Semaphore window = new Semaphore(4 * this.threads);
+    BlockingQueue<Batch> raw = new ArrayBlockingQueue<Batch>(capacity);
+    BlockingQueue<Batch> decoded = new ArrayBlockingQueue<Batch>(capacity);
+    BlockingQueue<Batch> verified = new ArrayBlockingQueue<Batch>(capacity);
+    AtomicInteger decoders = new AtomicInteger(this.threads);
+    AtomicInteger verifiers = new AtomicInteger(this.threads);
+    ExecutorService pool = Executors.newFixedThreadPool(1 + 2 * this.threads);
+    pool.execute(() -> {
+      try {
+        read(Channels.newInputStream(in), raw, window);
+      } catch (InterruptedException e) {
+        // The import was cancelled.
+      } // try/catch
+    });
+    for (int i = 0; i < this.threads; i++) {
+      pool.execute(() -> work(raw, decoded, decoders, BulkImporter::decode));
+      pool.execute(() -> work(decoded, verified, verifiers, this::verify));
+    } // for
+
+    HashMap<Long, Batch> waiting = new HashMap<Long, Batch>();
+    long next = 0;
+    int appended = 0;
+    try {
+      for (Batch b = verified.take(); b != END; b = verified.take()) {
+        waiting.put(b.seq, b);
+        for (Batch ready = waiting.remove(next); ready != null; ready = waiting.remove(next)) {
+          next++;
+          appended += this.apply(ready);
+          window.release();
+        } // for
+      } // for
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while importing", e);
+    } finally {
+      pool.shutdownNow();
+    } // try/catch/finally
+    return appended;
+  } // run(ReadableByteChannel)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A batch of records on its way through the pipeline.
+   */
+  static class Batch {
+    /** The position of the batch in the input. */
+    long seq;
+
+    /** The records. */
+    List<byte[]> records;
+
+    /** The decoded headers. */
+    Block[] headers;
+
+    /** The decoded transactions. */
+    Transaction[] transactions;
+
+    /** The rebuilt blocks. */
+    Block[] blocks;
+
+    /** The number of records, from the first, that are correct so far. */
+    int good;
+
+    /** The problem with the first incorrect record (or null, if none). */
+    Exception error;
+
+    /**
+     * Create a batch.
+     *
+     * @param iSeq
+     *   The position of the batch in the input.
+     * @param iRecords
+     *   The records.
+     */
+    Batch(long iSeq, List<byte[]> iRecords) {
+      this.seq = iSeq;
+      this.records = iRecords;
+    } // Batch(long, List<byte[]>)
+
+    /**
+     * Note that a record is incorrect, so that it and the records after
+     * it are left out.
+     *
+     * @param i
+     *   The index of the record.
+     * @param problem
+     *   What is wrong with it.
+     */
+    void stop(int i, Exception problem) {
+      this.good = i;
+      this.error = problem;
+    } // stop(int, Exception)
+  } // class Batch
+} // class BulkImporter
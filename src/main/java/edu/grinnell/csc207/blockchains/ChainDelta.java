@@ -0,0 +1,212 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes that make one chain match another: the number of blocks to
+ * remove from the end of the first chain, and the blocks of the second
+ * chain to append after them. The last block the chains share is found
+ * by comparing hashes. Since each hash covers the previous hash, two
+ * chains that agree at some height agree at every lower height, so the
+ * search steps back from the shorter end at exponentially growing
+ * distances until the chains agree, then narrows in with binary search.
+ * Chains that share nearly all their history are compared at a
+ * logarithmic number of heights.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class ChainDelta {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The height of the last shared block (or -1, if none is shared). */
+  int ancestor;
+
+  /** The number of blocks to remove from the end of the target. */
+  int removals;
+
+  /** The blocks to append to the target, in order. */
+  List<Block> additions;
+
+  /** The number of heights at which hashes were compared. */
+  int comparisons;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a delta.
+   *
+   * @param iAncestor
+   *   The height of the last shared block.
+   * @param iRemovals
+   *   The number of blocks to remove.
+   * @param iAdditions
+   *   The blocks to append.
+   * @param iComparisons
+   *   The number of hash comparisons made.
+   */
+  ChainDelta(int iAncestor, int iRemovals, List<Block> iAdditions, int iComparisons) {
+    this.ancestor = iAncestor;
+    this.removals = iRemovals;
+    this.additions = Collections.unmodifiableList(iAdditions);
+    this.comparisons = iComparisons;
+  } // ChainDelta(int, int, List<Block>, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Determine if two chains have the same block at a height.
+   *
+   * @param a
+   *   The first chain.
+   * @param b
+   *   The second chain.
+   * @param height
+   *   The height, which must be in both chains.
+   *
+   * @return true if the blocks have the same hash and false otherwise.
+   */
+  static boolean agree(BlockChain.Snapshot a, BlockChain.Snapshot b, int height) {
+    return a.nodes[height].getBlock().getHash().equals(b.nodes[height].getBlock().getHash());
+  } // agree(Snapshot, Snapshot, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Find the changes that make one chain match another, as of now.
+   *
+   * @param target
+   *   The chain to change.
+   * @param source
+   *   The chain to match.
+   *
+   * @return the changes.
+   */
+  public static ChainDelta between(BlockChain target, BlockChain source) {
+    BlockChain.Snapshot t = target.snapshot();
+    BlockChain.Snapshot s = source.snapshot();
+    int comparisons = 0;
+    int top = Math.min(t.count, s.count) - 1;
+
+    // Step back until the chains agree, keeping the lowest height at
+    // which they are known to differ.
+    int hi = top + 1;
+    int lo = -1;
+    int step = 1;
+    int h = top;
+    while (h >= 0) {
+      comparisons++;
+      if (agree(t, s, h)) {
+        lo = h;
+        break;
+      } // if
+      hi = h;
+      h = (h == 0) ? -1 : Math.max(0, h - step);
+      step *= 2;
+    } // while
+
+    // The chains agree at lo and differ at hi; narrow in between them.
+    while (hi - lo > 1) {
+      int mid = (lo + hi) >>> 1;
+      comparisons++;
+      if (agree(t, s, mid)) {
+        lo = mid;
+      } else {
+        hi = mid;
+      } // if/else
+    } // while
+
+    ArrayList<Block> additions = new ArrayList<Block>(s.count - lo - 1);
+    for (int i = lo + 1; i < s.count; i++) {
+      additions.add(s.nodes[i].getBlock());
+    } // for
+    return new ChainDelta(lo, t.count - lo - 1, additions, comparisons);
+  } // between(BlockChain, BlockChain)
+
+  /**
+   * Make a chain match, by removing blocks from its end and appending
+   * the new blocks, either all of the changes or none. The new blocks
+   * are checked against the chain as it was at the last shared block
+   * before any block is removed.
+   *
+   * @param target
+   *   The chain the delta was found for, unchanged since.
+   *
+   * @throws IllegalStateException if the target has changed since, or
+   *   the delta would remove the initial block or a pruned block, or
+   *   append a pruned block (in which case the target is unchanged).
+   * @throws IllegalArgumentException if a block cannot be appended (in
+   *   which case the target is unchanged).
+   */
+  public void applyTo(BlockChain target) {
+    if (this.ancestor < 0) {
+      throw new IllegalStateException("Chains share no blocks");
+    } else if (target.getSize() != this.ancestor + 1 + this.removals) {
+      throw new IllegalStateException("Chain has changed: " + target.getSize() + " blocks");
+    } else if (this.removals > 0 && this.ancestor + 1 < target.getCheckpoint().getCount()) {
+      throw new IllegalStateException("Cannot remove pruned block " + (this.ancestor + 1));
+    } // if/else
+    for (Block blk : this.additions) {
+      if (blk.isPruned()) {
+        throw new IllegalStateException("Cannot append pruned block " + blk.getNum());
+      } // if
+    } // for
+    target.replaceAfter(this.ancestor + 1, this.additions);
+  } // applyTo(BlockChain)
+
+  /**
+   * Get the height of the last block the chains share.
+   *
+   * @return that height (or -1, if they share no blocks).
+   */
+  public int getAncestor() {
+    return this.ancestor;
+  } // getAncestor()
+
+  /**
+   * Get the number of blocks to remove from the end of the target.
+   *
+   * @return that number.
+   */
+  public int getRemovals() {
+    return this.removals;
+  } // getRemovals()
+
+  /**
+   * Get the blocks to append to the target.
+   *
+   * @return the blocks, in order.
+   */
+  public List<Block> getAdditions() {
+    return this.additions;
+  } // getAdditions()
+
+  /**
+   * Get the number of heights at which hashes were compared to find the
+   * last shared block.
+   *
+   * @return that number.
+   */
+  public int getComparisons() {
+    return this.comparisons;
+  } // getComparisons()
+
+  /**
+   * Determine if the chains already match.
+   *
+   * @return true if there is nothing to remove or append.
+   */
+  public boolean isEmpty() {
+    return this.removals == 0 && this.additions.isEmpty();
+  } // isEmpty()
+} // class ChainDelta
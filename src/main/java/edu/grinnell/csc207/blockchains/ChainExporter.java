@@ -0,0 +1,314 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Writes the blocks of a chain to a channel as CSV, as JSON Lines, or in
+ * binary. The blocks are encoded a chunk at a time, and each chunk is
+ * written as soon as it is encoded, so the memory used does not grow
+ * with the length of the chain. Chunks may be encoded in parallel, a few
+ * at a time; they are still written in order, so the output is the same
+ * either way.
+ *
+ * <p>CSV has a header line and then one line per block: its number,
+ * source, target, amount, signature (in hex), nonce, previous hash, and
+ * hash. The transaction fields of a pruned block are empty. JSON Lines
+ * has one object per block, with the same fields (and "pruned": true in
+ * place of the transaction of a pruned block). The binary form is the
+ * form of a BlockStore: each block is the length of its encoding (4
+ * bytes), followed by its encoding as written by BlockCodec.</p>
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class ChainExporter {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of blocks encoded at once. */
+  static final int CHUNK = 1024;
+
+  /** The header line of CSV output. */
+  static final String CSV_HEADER =
+      "num,source,target,amount,signature,nonce,prevHash,hash\n";
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain. */
+  BlockChain chain;
+
+  /** The form of the output. */
+  Format format;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Prepare to export a chain.
+   *
+   * @param iChain
+   *   The chain.
+   * @param iFormat
+   *   The form of the output.
+   */
+  public ChainExporter(BlockChain iChain, Format iFormat) {
+    this.chain = iChain;
+    this.format = iFormat;
+  } // ChainExporter(BlockChain, Format)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Turn a string into a JSON string literal.
+   *
+   * @param str
+   *   The string.
+   *
+   * @return the literal, with quotes.
+   */
+  public static String quoteJson(String str) {
+    StringBuilder result = new StringBuilder(str.length() + 2).append('"');
+    for (int i = 0; i < str.length(); i++) {
+      char ch = str.charAt(i);
+      if (ch == '"' || ch == '\\') {
+        result.append('\\').append(ch);
+      } else if (ch < 0x20) {
+        result.append(String.format("\\u%04x", (int) ch));
+      } else {
+        result.append(ch);
+      } // if/else
+    } // for
+    return result.append('"').toString();
+  } // quoteJson(String)
+
+  /**
+   * Quote a CSV field, if it needs quoting.
+   *
+   * @param str
+   *   The field.
+   *
+   * @return the field, quoted if it holds a comma, a quote, or a line
+   *   break.
+   */
+  static String quoteCsv(String str) {
+    if (str.indexOf(',') < 0 && str.indexOf('"') < 0 && str.indexOf('\n') < 0
+        && str.indexOf('\r') < 0) {
+      return str;
+    } // if
+    return "\"" + str.replace("\"", "\"\"") + "\"";
+  } // quoteCsv(String)
+
+  /**
+   * Get the signature of a transaction in hex.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return the signature (or the empty string, if it is unsigned).
+   */
+  static String signatureOf(Transaction t) {
+    return t.isSigned() ? new Hash(t.getSignature()).toString() : "";
+  } // signatureOf(Transaction)
+
+  /**
+   * Append a block to CSV output.
+   *
+   * @param out
+   *   The output.
+   * @param blk
+   *   The block.
+   */
+  static void appendCsv(StringBuilder out, Block blk) {
+    Transaction t = blk.getTransaction();
+    out.append(blk.getNum()).append(',');
+    if (t == null) {
+      out.append(",,,,");
+    } else {
+      out.append(quoteCsv(t.getSource())).append(',')
+          .append(quoteCsv(t.getTarget())).append(',')
+          .append(t.getAmount()).append(',')
+          .append(signatureOf(t)).append(',');
+    } // if/else
+    out.append(blk.getNonce()).append(',')
+        .append(blk.getPrevHash()).append(',')
+        .append(blk.getHash()).append('\n');
+  } // appendCsv(StringBuilder, Block)
+
+  /**
+   * Encode the blocks of a chunk.
+   *
+   * @param snap
+   *   The chain.
+   * @param lo
+   *   The number of the first block.
+   * @param hi
+   *   The number just past the last block.
+   *
+   * @return the encoding, ready to be written.
+   */
+  ByteBuffer encode(BlockChain.Snapshot snap, int lo, int hi) {
+    if (this.format == Format.BINARY) {
+      int size = 0;
+      for (int i = lo; i < hi; i++) {
+        size += BlockStore.PREFIX + BlockCodec.sizeOf(snap.nodes[i].getBlock());
+      } // for
+      ByteBuffer buf = ByteBuffer.allocate(size);
+      for (int i = lo; i < hi; i++) {
+        Block blk = snap.nodes[i].getBlock();
+        BlockCodec.putBlock(buf.putInt(BlockCodec.sizeOf(blk)), blk);
+      } // for
+      return buf.flip();
+    } // if
+    StringBuilder out = new StringBuilder(160 * (hi - lo));
+    for (int i = lo; i < hi; i++) {
+      Block blk = snap.nodes[i].getBlock();
+      if (this.format == Format.CSV) {
+        appendCsv(out, blk);
+      } else {
+        out.append(toJson(blk)).append('\n');
+      } // if/else
+    } // for
+    return ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.UTF_8));
+  } // encode(Snapshot, int, int)
+
+  /**
+   * Write all of a buffer to a channel.
+   *
+   * @param out
+   *   The channel.
+   * @param buf
+   *   The buffer.
+   *
+   * @throws IOException if the channel cannot be written.
+   */
+  static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      out.write(buf);
+    } // while
+  } // writeFully(WritableByteChannel, ByteBuffer)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Describe a block as a JSON object.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return the description, on one line.
+   */
+  public static String toJson(Block blk) {
+    StringBuilder result = new StringBuilder("{\"num\":").append(blk.getNum());
+    Transaction t = blk.getTransaction();
+    if (t == null) {
+      result.append(",\"pruned\":true");
+    } else {
+      result.append(",\"source\":").append(quoteJson(t.getSource()))
+          .append(",\"target\":").append(quoteJson(t.getTarget()))
+          .append(",\"amount\":").append(t.getAmount())
+          .append(",\"id\":").append(quoteJson(t.getId().toString()));
+      if (t.isSigned()) {
+        result.append(",\"signature\":").append(quoteJson(signatureOf(t)));
+      } // if
+    } // if/else
+    return result.append(",\"nonce\":").append(blk.getNonce())
+        .append(",\"prevHash\":").append(quoteJson(blk.getPrevHash().toString()))
+        .append(",\"hash\":").append(quoteJson(blk.getHash().toString()))
+        .append('}').toString();
+  } // toJson(Block)
+
+  /**
+   * Write the whole chain, as it is now, to a channel.
+   *
+   * @param out
+   *   The channel.
+   *
+   * @return the number of blocks written.
+   *
+   * @throws IOException if the channel cannot be written.
+   */
+  public int export(WritableByteChannel out) throws IOException {
+    return this.export(out, 0, Integer.MAX_VALUE, 1);
+  } // export(WritableByteChannel)
+
+  /**
+   * Write a range of the chain, as it is now, to a channel. Blocks past
+   * the end of the chain are left out.
+   *
+   * @param out
+   *   The channel.
+   * @param from
+   *   The number of the first block.
+   * @param to
+   *   The number just past the last block.
+   * @param parallelism
+   *   The number of chunks to encode at once.
+   *
+   * @return the number of blocks written.
+   *
+   * @throws IllegalArgumentException if from is negative, to is less
+   *   than from, or parallelism is less than 1.
+   * @throws IOException if the channel cannot be written.
+   */
+  public int export(WritableByteChannel out, int from, int to, int parallelism)
+      throws IOException {
+    if (from < 0 || to < from || parallelism < 1) {
+      throw new IllegalArgumentException("Bad range or parallelism");
+    } // if
+    BlockChain.Snapshot snap = this.chain.snapshot();
+    int end = Math.max(from, Math.min(to, snap.count));
+    if (this.format == Format.CSV) {
+      writeFully(out, ByteBuffer.wrap(CSV_HEADER.getBytes(StandardCharsets.UTF_8)));
+    } // if
+    ArrayDeque<CompletableFuture<ByteBuffer>> window =
+        new ArrayDeque<CompletableFuture<ByteBuffer>>(parallelism);
+    int next = from;
+    while (next < end || !window.isEmpty()) {
+      while (next < end && window.size() < parallelism) {
+        int lo = next;
+        int hi = (int) Math.min(end, (long) lo + CHUNK);
+        window.add((parallelism == 1) ? CompletableFuture.completedFuture(this.encode(snap, lo, hi))
+            : CompletableFuture.supplyAsync(() -> this.encode(snap, lo, hi)));
+        next = hi;
+      } // while
+      try {
+        writeFully(out, window.poll().join());
+      } catch (CompletionException e) {
+        throw new IOException("Cannot encode blocks", e.getCause());
+      } // try/catch
+    } // while
+    return end - from;
+  } // export(WritableByteChannel, int, int, int)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The forms of output.
+   */
+  public enum Format {
+    /** Comma-separated values, with a header line. */
+    CSV,
+
+    /** One JSON object per line. */
+    JSON_LINES,
+
+    /** Length-prefixed BlockCodec encodings, as in a BlockStore. */
+    BINARY
+  } // enum Format
+} // class ChainExporter
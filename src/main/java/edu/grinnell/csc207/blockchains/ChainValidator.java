@@ -0,0 +1,424 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * Checks blockchains without changing them. The hashes of the blocks
+ * and the links between them are independent of each other, so they
+ * are checked in parallel chunks; the balances are then checked in a
+ * single pass from the initial block, keeping a running ledger so that
+ * every transaction is checked against the balances as of its own block.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class ChainValidator {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The largest number of blocks whose hashes are checked by one task. */
+  static final int CHUNK_SIZE = 256;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The validator for the hashes of the blocks. */
+  HashValidator check;
+
+  /** The pool used to check hashes in parallel. */
+  ForkJoinPool pool;
+
+  /** The checker for signatures (or null, if signatures are not required). */
+  SignatureVerifier signatures;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new chain validator that checks hashes on the common
+   * fork-join pool.
+   *
+   * @param iCheck
+   *   The validator for the hashes of the blocks.
+   */
+  public ChainValidator(HashValidator iCheck) {
+    this(iCheck, ForkJoinPool.commonPool());
+  } // ChainValidator(HashValidator)
+
+  /**
+   * Create a new chain validator.
+   *
+   * @param iCheck
+   *   The validator for the hashes of the blocks.
+   * @param iPool
+   *   The pool used to check hashes in parallel.
+   */
+  public ChainValidator(HashValidator iCheck, ForkJoinPool iPool) {
+    this.check = iCheck;
+    this.pool = iPool;
+  } // ChainValidator(HashValidator, ForkJoinPool)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Check that a block is correct on its own and follows the previous
+   * block: its number must match its position, its hash must be correct
+   * for its contents (unless it has been pruned), its previous hash must
+   * match, and its hash must be valid.
+   *
+   * @param blk
+   *   The block to check.
+   * @param pos
+   *   The position of the block in the chain.
+   * @param prev
+   *   The previous block (or null, for the initial block).
+   *
+   * @return an exception describing the problem (or null, if the block
+   *   is correct).
+   */
+  InvalidBlockException checkHeader(Block blk, int pos, Block prev) {
+    if (blk.getNum() != pos) {
+      return new InvalidBlockException(pos, "Incorrect Number for Block: " + pos);
+    } else if (!blk.getHash().equals(blk.recomputeHash())) {
+      return new InvalidBlockException(pos, "Incorrect Hash for Block: " + pos);
+    } else if (prev != null && !blk.getPrevHash().equals(prev.getHash())) {
+      return new InvalidBlockException(pos, "Incorrect Previous Hash for Block: " + pos);
+    } else if (!this.check.isValid(blk.getHash())) {
+      return new InvalidBlockException(pos, "Incorrect Hash for Block: " + pos);
+    } // if/else
+    return null;
+  } // checkHeader(Block, int, Block)
+
+  /**
+   * Find the first block in a range whose header is incorrect, checking
+   * the blocks one at a time.
+   *
+   * @param blocks
+   *   Consecutive blocks from the chain.
+   * @param base
+   *   The position in the chain of blocks[0].
+   * @param lo
+   *   The index of the first block to check.
+   * @param hi
+   *   The index after the last block to check.
+   *
+   * @return the index of the first incorrect block in the range (or hi,
+   *   if they are all correct).
+   */
+  int scanHeaders(Block[] blocks, int base, int lo, int hi) {
+    for (int i = lo; i < hi; i++) {
+      if (checkHeader(blocks[i], base + i, (base + i == 0) ? null : blocks[i - 1]) != null) {
+        return i;
+      } // if
+    } // for
+    return hi;
+  } // scanHeaders(Block[], int, int, int)
+
+  /**
+   * Find the first block in a range whose header is incorrect, checking
+   * chunks of the range in parallel.
+   *
+   * @param blocks
+   *   Consecutive blocks from the chain.
+   * @param base
+   *   The position in the chain of blocks[0].
+   * @param lo
+   *   The index of the first block to check.
+   * @param hi
+   *   The index after the last block to check.
+   *
+   * @return the index of the first incorrect block in the range (or hi,
+   *   if they are all correct).
+   */
+  int firstBadHeader(Block[] blocks, int base, int lo, int hi) {
+    if (hi - lo <= CHUNK_SIZE) {
+      return scanHeaders(blocks, base, lo, hi);
+    } // if
+    return this.pool.invoke(new HeaderTask(blocks, base, lo, hi));
+  } // firstBadHeader(Block[], int, int, int)
+
+  /**
+   * Find the first block whose header is incorrect, checking chunks of
+   * the blocks in parallel.
+   *
+   * @param blocks
+   *   Consecutive blocks from the chain.
+   * @param base
+   *   The position in the chain of blocks[0].
+   * @param from
+   *   The index of the first block to check.
+   *
+   * @return the index of the first incorrect block (or the number of
+   *   blocks, if they are all correct).
+   */
+  int firstBadHeader(Block[] blocks, int base, int from) {
+    return firstBadHeader(blocks, base, from, blocks.length);
+  } // firstBadHeader(Block[], int, int)
+
+  /**
+   * Find the first block in a range whose transaction is not properly
+   * signed, checking chunks of the range in parallel.
+   *
+   * @param blocks
+   *   Consecutive blocks from the chain, none of them pruned.
+   * @param lo
+   *   The index of the first block to check.
+   * @param hi
+   *   The index after the last block to check.
+   *
+   * @return the index of the first incorrect block in the range (or hi,
+   *   if they are all correct or signatures are not required).
+   */
+  int firstBadSignature(Block[] blocks, int lo, int hi) {
+    if (this.signatures == null || lo >= hi) {
+      return hi;
+    } // if
+    Transaction[] transactions = new Transaction[hi - lo];
+    for (int i = lo; i < hi; i++) {
+      transactions[i - lo] = blocks[i].getTransaction();
+    } // for
+    return lo + this.signatures.firstUnverified(transactions);
+  } // firstBadSignature(Block[], int, int)
+
+  /**
+   * Collect the blocks from a node to the end of the chain.
+   *
+   * @param first
+   *   The node holding the first block.
+   *
+   * @return the blocks, in order.
+   */
+  static Block[] toArray(Node first) {
+    ArrayList<Block> list = new ArrayList<Block>();
+    for (Node node = first; node != null; node = node.getNext()) {
+      list.add(node.getBlock());
+    } // for
+    return list.toArray(new Block[list.size()]);
+  } // toArray(Node)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Check every block from a node to the end of the chain. Every block
+   * must have a valid hash that follows the previous block, and every
+   * block that has not been pruned must also have a hash that is correct
+   * for its contents, a non-negative amount, a source with enough
+   * funds at that point in the chain, a signed transaction that is not
+   * already in the chain, and (if signatures are required) a signature
+   * from its source. The last pruned block must match the checkpoint.
+   *
+   * @param first
+   *   The node holding the initial block.
+   * @param checkpoint
+   *   The checkpoint that summarizes the pruned blocks.
+   * @param running
+   *   A copy of the balances in the checkpoint. When this returns (or
+   *   throws), it holds the balances as of the last correct block.
+   * @param known
+   *   Whether a transaction ID is in one of the pruned blocks.
+   *
+   * @throws InvalidBlockException
+   *   If any block is incorrect, describing the first such block.
+   */
+  public void validate(Node first, Checkpoint checkpoint, Ledger running,
+      Predicate<Hash> known) throws InvalidBlockException {
+    Block[] blocks = toArray(first);
+    int pruned = 0;
+    while (pruned < blocks.length && blocks[pruned].isPruned()) {
+      pruned++;
+    } // while
+    if (pruned > 0) {
+      int end = firstBadHeader(blocks, 0, 0, pruned);
+      if (end < pruned) {
+        throw checkHeader(blocks[end], end, (end == 0) ? null : blocks[end - 1]);
+      } else if (!blocks[pruned - 1].getHash().equals(checkpoint.getHash())) {
+        throw new InvalidBlockException(pruned - 1, "Pruned Blocks Do Not Match Checkpoint");
+      } // if/else
+    } // if
+    validate(blocks, 0, pruned, running, known);
+  } // validate(Node, Checkpoint, Ledger, Predicate<Hash>)
+
+  /**
+   * Check that no transaction in a range of blocks has a negative amount,
+   * leaves its source with a negative balance, or repeats a signed
+   * transaction, applying each to the running balances. Unsigned
+   * transactions carry nothing that a replay could misuse, so identical
+   * deposits may appear more than once.
+   *
+   * @param blocks
+   *   Consecutive blocks from the chain, none of them pruned.
+   * @param base
+   *   The position in the chain of blocks[0].
+   * @param lo
+   *   The index of the first block to check.
+   * @param hi
+   *   The index after the last block to check.
+   * @param running
+   *   The balances as of the block before blocks[lo]. When this returns
+   *   (or throws), it holds the balances as of the last correct block,
+   *   for every name that already has an ID.
+   * @param known
+   *   Whether a transaction ID is in the chain before blocks[lo].
+   *
+   * @throws InvalidBlockException
+   *   If any transaction is incorrect, describing the first such block.
+   */
+  static void checkFunds(Block[] blocks, int base, int lo, int hi, Ledger running,
+      Predicate<Hash> known) throws InvalidBlockException {
+    // The dictionary may be shared with readers, so names that have no
+    // ID yet get scratch IDs past its end, which are cleared at the end.
+    HashMap<String, Integer> unseen = new HashMap<String, Integer>();
+    HashSet<Hash> seen = new HashSet<Hash>();
+    try {
+      for (int i = lo; i < hi; i++) {
+        Transaction t = blocks[i].getTransaction();
+        if (t.getAmount() < 0) {
+          throw new InvalidBlockException(base + i, "Negative Amount for Block: " + (base + i));
+        } else if (t.isSigned() && (known.test(t.getId()) || !seen.add(t.getId()))) {
+          throw new InvalidBlockException(base + i,
+              "Repeated Transaction for Block: " + (base + i));
+        } // if/else
+        int source = idOf(t.getSource(), running.accounts, unseen);
+        int target = idOf(t.getTarget(), running.accounts, unseen);
+        running.apply(source, target, t.getAmount());
+        if (source != AccountDictionary.DEPOSIT && running.balance(source) < 0) {
+          running.revert(source, target, t.getAmount());
+          throw new InvalidBlockException(base + i,
+              "Incorrect Amounts for User: " + t.getSource());
+        } // if
+      } // for
+    } finally {
+      for (int id : unseen.values()) {
+        running.add(id, -running.balance(id));
+      } // for
+    } // try/finally
+  } // checkFunds(Block[], int, int, int, Ledger, Predicate<Hash>)
+
+  /**
+   * Find the ID of a name without adding it to the dictionary.
+   *
+   * @param name
+   *   The name.
+   * @param accounts
+   *   The IDs of the names already in the chain.
+   * @param unseen
+   *   The scratch IDs given so far to names that are not in accounts.
+   *
+   * @return the ID of the name.
+   */
+  static int idOf(String name, AccountDictionary accounts, HashMap<String, Integer> unseen) {
+    int id = accounts.lookup(name);
+    if (id < 0) {
+      id = unseen.computeIfAbsent(name, (n) -> accounts.size() + unseen.size());
+    } // if
+    return id;
+  } // idOf(String, AccountDictionary, HashMap<String, Integer>)
+
+  /**
+   * Check a run of consecutive blocks that have not been pruned, given
+   * that the blocks before them are correct.
+   *
+   * @param blocks
+   *   Consecutive blocks from the chain.
+   * @param base
+   *   The position in the chain of blocks[0].
+   * @param from
+   *   The index of the first block to check. Any earlier blocks in the
+   *   array are known to be correct.
+   * @param running
+   *   The balances as of the block before blocks[from]. When this
+   *   returns (or throws), it holds the balances as of the last correct
+   *   block.
+   * @param known
+   *   Whether a transaction ID is in the chain before blocks[from].
+   *
+   * @throws InvalidBlockException
+   *   If any block is incorrect, describing the first such block.
+   */
+  public void validate(Block[] blocks, int base, int from, Ledger running,
+      Predicate<Hash> known) throws InvalidBlockException {
+    int end = firstBadHeader(blocks, base, from);
+    int unsigned = firstBadSignature(blocks, from, end);
+    checkFunds(blocks, base, from, unsigned, running, known);
+    if (unsigned < end) {
+      throw new InvalidBlockException(base + unsigned,
+          "Incorrect Signature for Block: " + (base + unsigned));
+    } else if (end < blocks.length) {
+      throw checkHeader(blocks[end], base + end, (base + end == 0) ? null : blocks[end - 1]);
+    } // if/else
+  } // validate(Block[], int, int, Ledger, Predicate<Hash>)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A task that checks the headers of a range of blocks, splitting the
+   * range in half until it is small enough.
+   */
+  class HeaderTask extends RecursiveTask<Integer> {
+    /** The version of the serialized form. */
+    private static final long serialVersionUID = 1L;
+
+    /** Consecutive blocks from the chain. */
+    Block[] blocks;
+
+    /** The position in the chain of blocks[0]. */
+    int base;
+
+    /** The index of the first block to check. */
+    int lo;
+
+    /** The index after the last block to check. */
+    int hi;
+
+    /**
+     * Create a task to check a range of blocks.
+     *
+     * @param iBlocks
+     *   Consecutive blocks from the chain.
+     * @param iBase
+     *   The position in the chain of iBlocks[0].
+     * @param iLo
+     *   The index of the first block to check.
+     * @param iHi
+     *   The index after the last block to check.
+     */
+    HeaderTask(Block[] iBlocks, int iBase, int iLo, int iHi) {
+      this.blocks = iBlocks;
+      this.base = iBase;
+      this.lo = iLo;
+      this.hi = iHi;
+    } // HeaderTask(Block[], int, int, int)
+
+    /**
+     * Check the range.
+     *
+     * @return the index of the first incorrect block in the range (or
+     *   hi, if they are all correct).
+     */
+    protected Integer compute() {
+      if (this.hi - this.lo <= CHUNK_SIZE) {
+        return scanHeaders(this.blocks, this.base, this.lo, this.hi);
+      } // if
+      int mid = (this.lo + this.hi) >>> 1;
+      HeaderTask right = new HeaderTask(this.blocks, this.base, mid, this.hi);
+      right.fork();
+      int left = new HeaderTask(this.blocks, this.base, this.lo, mid).compute();
+      int rest = right.join();
+      return (left < mid) ? left : rest;
+    } // compute()
+  } // class HeaderTask
+} // class ChainValidator
@@ -0,0 +1,86 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * A trusted summary of the state of a blockchain at some height, used
+ * to validate the blocks whose transactions have been pruned.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class Checkpoint {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The number of blocks covered by the checkpoint. */
+  int count;
+
+  /** The hash of the last block covered by the checkpoint. */
+  Hash hash;
+
+  /** The balances of every user after the last covered block. */
+  Ledger balances;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty checkpoint that covers no blocks.
+   *
+   * @param accounts
+   *   The IDs of the accounts in the chain.
+   */
+  Checkpoint(AccountDictionary accounts) {
+    this.count = 0;
+    this.hash = null;
+    this.balances = new Ledger(accounts);
+  } // Checkpoint(AccountDictionary)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Extend the checkpoint to cover one more block.
+   *
+   * @param node
+   *   The node that follows the last covered node. Its transaction
+   *   must not yet have been pruned.
+   */
+  void cover(Node node) {
+    this.balances.apply(node);
+    this.hash = node.getBlock().getHash();
+    this.count++;
+  } // cover(Node)
+
+  /**
+   * Get the number of blocks covered by the checkpoint.
+   *
+   * @return the number of covered blocks.
+   */
+  public int getCount() {
+    return this.count;
+  } // getCount()
+
+  /**
+   * Get the hash of the last block covered by the checkpoint.
+   *
+   * @return that hash (or null, if the checkpoint covers no blocks).
+   */
+  public Hash getHash() {
+    return this.hash;
+  } // getHash()
+
+  /**
+   * Find one user's balance as of the checkpoint.
+   *
+   * @param user
+   *   The user whose balance we want to find.
+   *
+   * @return that user's balance (or 0, if the user does not appear).
+   */
+  public int balance(String user) {
+    return this.balances.balance(user);
+  } // balance(String)
+} // class Checkpoint
@@ -0,0 +1,433 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Brings a chain up to date with other nodes, headers first. The headers
+ * of the missing blocks are downloaded from one node, and their numbers,
+ * links, and hashes are checked in parallel before any transaction is
+ * fetched. The transactions are then fetched in batches from every node
+ * at once, and each block is rebuilt and checked against its header as
+ * its batch arrives. A batch that a node cannot supply, or supplies
+ * with transactions that do not match the headers, is asked of the
+ * next node instead. The blocks are appended in order as soon as the
+ * batches before them are in.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class FastSync {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of headers or bodies asked for at once. */
+  static final int BATCH = 512;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain to bring up to date. */
+  BlockChain chain;
+
+  /** The ports of the nodes to download from. */
+  int[] ports;
+
+  /** The validator used to check the headers. */
+  ChainValidator validator;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Prepare to bring a chain up to date with some nodes on the local
+   * machine. The headers come from the first node.
+   *
+   * @param iChain
+   *   The chain.
+   * @param iPorts
+   *   The ports of the nodes.
+   *
+   * @throws IllegalArgumentException if there are no ports.
+   */
+  public FastSync(BlockChain iChain, int... iPorts) {
+    if (iPorts.length == 0) {
+      throw new IllegalArgumentException("No nodes to sync from");
+    } // if
+    this.chain = iChain;
+    this.ports = iPorts.clone();
+    this.validator = new ChainValidator(iChain.check);
+  } // FastSync(BlockChain, int...)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Connect to a node on the local machine.
+   *
+   * @param port
+   *   The port of the node.
+   *
+   * @return the channel, in blocking mode.
+   *
+   * @throws IOException if the connection fails.
+   */
+  static SocketChannel connect(int port) throws IOException {
+    return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  } // connect(int)
+
+  /**
+   * Read a number of bytes from a channel.
+   *
+   * @param channel
+   *   The channel.
+   * @param n
+   *   The number of bytes.
+   *
+   * @return the bytes, ready to be read.
+   *
+   * @throws IOException if the channel closes first.
+   */
+  static ByteBuffer readFully(SocketChannel channel, int n) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(n);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf) < 0) {
+        throw new EOFException("Node closed the connection");
+      } // if
+    } // while
+    return buf.flip();
+  } // readFully(SocketChannel, int)
+
+  /**
+   * Ask a node for a range of headers, bodies, or blocks, and wait for
+   * the reply, skipping any other messages the node sends in the
+   * meantime.
+   *
+   * @param channel
+   *   The connection to the node.
+   * @param type
+   *   GET_HEADERS, GET_BODIES, or GET_RANGE.
+   * @param from
+   *   The number of the first block.
+   * @param count
+   *   The number of blocks.
+   *
+   * @return the payload of the reply.
+   *
+   * @throws IOException if the connection fails.
+   */
+  static ByteBuffer request(SocketChannel channel, byte type, int from, int count)
+      throws IOException {
+    ByteBuffer frame = PeerNode.frame(type,
+        ByteBuffer.allocate(2 * Integer.BYTES).putInt(from).putInt(count).flip());
+    while (frame.hasRemaining()) {
+      channel.write(frame);
+    } // while
+    byte reply = (byte) (type + 1);
+    while (true) {
+      int length = readFully(channel, Integer.BYTES).getInt();
+      if (length < 1 || length > PeerNode.MAX_FRAME) {
+        throw new IOException("Bad frame length: " + length);
+      } // if
+      ByteBuffer body = readFully(channel, length);
+      if (body.get() == reply) {
+        return body;
+      } // if
+    } // while
+  } // request(SocketChannel, byte, int, int)
+
+  /**
+   * Download the headers of the blocks after the end of the chain.
+   *
+   * @param channel
+   *   The connection to the node.
+   * @param from
+   *   The number of the first missing block.
+   *
+   * @return the headers, as blocks without transactions.
+   *
+   * @throws IOException if the connection fails or a header is malformed.
+   */
+  static List<Block> fetchHeaders(SocketChannel channel, int from) throws IOException {
+    ArrayList<Block> headers = new ArrayList<Block>();
+    while (true) {
+      ByteBuffer reply = request(channel, PeerNode.GET_HEADERS, from + headers.size(), BATCH);
+      int n = reply.getInt();
+      try {
+        for (int i = 0; i < n; i++) {
+          headers.add(BlockCodec.getHeader(reply));
+        } // for
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Malformed header", e);
+      } // try/catch
+      if (n == 0) {
+        return headers;
+      } // if
+    } // while
+  } // fetchHeaders(SocketChannel, int)
+
+  /**
+   * Download the transactions of a range of blocks.
+   *
+   * @param channel
+   *   The connection to the node.
+   * @param from
+   *   The number of the first block.
+   * @param count
+   *   The number of blocks.
+   *
+   * @return the transactions, in order.
+   *
+   * @throws IOException if the connection fails, or the node does not
+   *   have all the transactions.
+   */
+  static Transaction[] fetchBodies(SocketChannel channel, int from, int count)
+      throws IOException {
+    ByteBuffer reply = request(channel, PeerNode.GET_BODIES, from, count);
+    if (reply.getInt() != from || reply.getInt() != count) {
+      throw new IOException("Node does not have blocks " + from + " to " + (from + count));
+    } // if
+    Transaction[] result = new Transaction[count];
+    try {
+      for (int i = 0; i < count; i++) {
+        if (reply.get() == 0) {
+          throw new IOException("Node has pruned block " + (from + i));
+        } // if
+        result[i] = BlockCodec.getTransaction(reply);
+      } // for
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Malformed transaction", e);
+    } // try/catch
+    return result;
+  } // fetchBodies(SocketChannel, int, int)
+
+  /**
+   * Download the whole blocks of a range.
+   *
+   * @param channel
+   *   The connection to the node.
+   * @param from
+   *   The number of the first block.
+   * @param count
+   *   The number of blocks.
+   *
+   * @return the blocks the node sent, in order, which may be fewer than
+   *   asked for.
+   *
+   * @throws IOException if the connection fails or a block is malformed.
+   */
+  static List<Block> fetchBlocks(SocketChannel channel, int from, int count)
+      throws IOException {
+    ByteBuffer reply = request(channel, PeerNode.GET_RANGE, from, count);
+    if (reply.getInt() != from) {
+      throw new IOException("Node sent the wrong range");
+    } // if
+    int n = reply.getInt();
+    ArrayList<Block> result = new ArrayList<Block>(n);
+    try {
+      for (int i = 0; i < n; i++) {
+        result.add(BlockCodec.decode(BlockCodec.getField(reply)));
+      } // for
+    } catch (IllegalArgumentException | BufferUnderflowException e) {
+      throw new IOException("Malformed block", e);
+    } // try/catch
+    return result;
+  } // fetchBlocks(SocketChannel, int, int)
+
+  /**
+   * Download the transactions of a segment of the headers and rebuild
+   * its blocks.
+   *
+   * @param channel
+   *   The connection to the node.
+   * @param headers
+   *   The headers of the segment.
+   *
+   * @return the blocks, in order.
+   *
+   * @throws IOException if the connection fails, or the node does not
+   *   have all the transactions.
+   * @throws InvalidBlockException if a transaction does not match its
+   *   header, describing the first such block.
+   */
+  static List<Block> fetchSegment(SocketChannel channel, List<Block> headers)
+      throws IOException, InvalidBlockException {
+    Transaction[] transactions = fetchBodies(channel, headers.get(0).getNum(), headers.size());
+    ArrayList<Block> blocks = new ArrayList<Block>(headers.size());
+    for (int i = 0; i < transactions.length; i++) {
+      Block header = headers.get(i);
+      Block blk = new Block(header.getNum(), transactions[i], header.getPrevHash(),
+          header.getNonce());
+      if (!blk.getHash().equals(header.getHash())) {
+        throw new InvalidBlockException(header.getNum(),
+            "Transaction Does Not Match Header for Block: " + header.getNum());
+      } // if
+      blocks.add(blk);
+    } // for
+    return blocks;
+  } // fetchSegment(SocketChannel, List<Block>)
+
+  /**
+   * Close a connection, ignoring any problem.
+   *
+   * @param channel
+   *   The connection (or null, if there is none).
+   */
+  static void close(SocketChannel channel) {
+    try {
+      if (channel != null) {
+        channel.close();
+      } // if
+    } catch (IOException e) {
+      // The connection is no longer used either way.
+    } // try/catch
+  } // close(SocketChannel)
+
+  /**
+   * Download segments until none are left, starting with one node and
+   * moving on to the next whenever a node fails to supply a segment or
+   * supplies one that does not match its headers. A segment that no
+   * node supplies fails with the last problem found.
+   *
+   * @param first
+   *   The index of the node to start with.
+   * @param headers
+   *   The headers of every missing block.
+   * @param next
+   *   The number of the next segment no worker has taken.
+   * @param bodies
+   *   The blocks of each segment, to be completed.
+   */
+  void work(int first, List<Block> headers, AtomicInteger next,
+      List<CompletableFuture<List<Block>>> bodies) {
+    int current = first;
+    SocketChannel channel = null;
+    try {
+      for (int seg = next.getAndIncrement(); seg < bodies.size(); seg = next.getAndIncrement()) {
+        List<Block> segment = headers.subList(seg * BATCH,
+            Math.min((seg + 1) * BATCH, headers.size()));
+        Exception problem = null;
+        for (int tries = 0; tries < this.ports.length && !bodies.get(seg).isDone(); tries++) {
+          try {
+            if (channel == null) {
+              channel = connect(this.ports[current]);
+            } // if
+            bodies.get(seg).complete(fetchSegment(channel, segment));
+          } catch (IOException | InvalidBlockException e) {
+            problem = e;
+            close(channel);
+            channel = null;
+            current = (current + 1) % this.ports.length;
+          } // try/catch
+        } // for
+        if (!bodies.get(seg).isDone()) {
+          bodies.get(seg).completeExceptionally(problem);
+        } // if
+      } // for
+    } catch (RuntimeException e) {
+      for (CompletableFuture<List<Block>> body : bodies) {
+        body.completeExceptionally(e);
+      } // for
+    } finally {
+      close(channel);
+    } // try/catch/finally
+  } // work(int, List<Block>, AtomicInteger, List<CompletableFuture<List<Block>>>)
+
+  /**
+   * Check that headers follow the end of the chain and each other and
+   * have valid hashes, checking chunks of them in parallel.
+   *
+   * @param last
+   *   The last block of the chain.
+   * @param headers
+   *   The headers.
+   *
+   * @throws InvalidBlockException
+   *   If a header is incorrect, describing the first such header.
+   */
+  void verifyHeaders(Block last, List<Block> headers) throws InvalidBlockException {
+    Block[] blocks = new Block[headers.size() + 1];
+    blocks[0] = last;
+    for (int i = 0; i < headers.size(); i++) {
+      blocks[i + 1] = headers.get(i);
+    } // for
+    int base = last.getNum();
+    int bad = this.validator.firstBadHeader(blocks, base, 1);
+    if (bad < blocks.length) {
+      throw this.validator.checkHeader(blocks[bad], base + bad, blocks[bad - 1]);
+    } // if
+  } // verifyHeaders(Block, List<Block>)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Bring the chain up to date.
+   *
+   * @return the number of blocks appended.
+   *
+   * @throws IOException if the first node cannot be reached, or no node
+   *   can supply the transactions of some block.
+   * @throws InvalidBlockException if a header is incorrect, no node
+   *   supplies transactions that match some header, or a block cannot
+   *   be appended (in which case the blocks before it have been
+   *   appended).
+   */
+  public int run() throws IOException, InvalidBlockException {
+    int start = this.chain.getSize();
+    Block last = this.chain.snapshot().nodes[start - 1].getBlock();
+    List<Block> headers;
+    try (SocketChannel channel = connect(this.ports[0])) {
+      headers = fetchHeaders(channel, start);
+    } // try
+    this.verifyHeaders(last, headers);
+
+    int segments = (headers.size() + BATCH - 1) / BATCH;
+    ArrayList<CompletableFuture<List<Block>>> bodies =
+        new ArrayList<CompletableFuture<List<Block>>>(segments);
+    for (int i = 0; i < segments; i++) {
+      bodies.add(new CompletableFuture<List<Block>>());
+    } // for
+    AtomicInteger next = new AtomicInteger();
+    ExecutorService workers = Executors.newFixedThreadPool(this.ports.length);
+    for (int i = 0; i < this.ports.length; i++) {
+      int first = i;
+      workers.execute(() -> this.work(first, headers, next, bodies));
+    } // for
+    workers.shutdown();
+
+    try {
+      for (int seg = 0; seg < segments; seg++) {
+        this.chain.appendVerified(bodies.get(seg).get());
+      } // for
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof InvalidBlockException) {
+        throw (InvalidBlockException) e.getCause();
+      } // if
+      throw new IOException("Cannot fetch transactions", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while syncing", e);
+    } finally {
+      workers.shutdownNow();
+    } // try/catch/finally
+    return this.chain.getSize() - start;
+  } // run()
+} // class FastSync
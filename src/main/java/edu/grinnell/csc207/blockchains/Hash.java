@@ -31,6 +31,33 @@ public class Hash {
     this.size = data.length;
   } // Hash(byte[])
 
+  /**
+   * Read a hash from a hex string, as written by toString.
+   *
+   * @param hex
+   *   The hex string.
+   *
+   * @return the hash.
+   *
+   * @throws IllegalArgumentException if the string is not an even
+   *   number of hex digits.
+   */
+  public static Hash fromString(String hex) {
+    if (hex.length() % 2 != 0) {
+      throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+    } // if
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      int hi = Character.digit(hex.charAt(2 * i), 16);
+      int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+      if (hi < 0 || lo < 0) {
+        throw new IllegalArgumentException("Not a hex string: " + hex);
+      } // if
+      bytes[i] = (byte) ((hi << 4) | lo);
+    } // for
+    return new Hash(bytes);
+  } // fromString(String)
+
   // +---------+-----------------------------------------------------
   // | Methods |
   // +---------+
@@ -107,6 +134,6 @@ public class Hash {
    * @return the hash code.
    */
   public int hashCode() {
-    return this.toString().hashCode();
+    return Arrays.hashCode(this.dataBytes);
   } // hashCode()
 } // class Hash
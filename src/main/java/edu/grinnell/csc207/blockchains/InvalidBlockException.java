@@ -0,0 +1,37 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Exceptions thrown when a block in a blockchain is not correct.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class InvalidBlockException extends Exception {
+  /** The version of the serialized form. */
+  private static final long serialVersionUID = 1L;
+
+  /** The number of the first incorrect block. */
+  private int blockNum;
+
+  /**
+   * Create a new exception for an incorrect block.
+   *
+   * @param iBlockNum
+   *   The number of the incorrect block.
+   * @param message
+   *   A description of what is wrong with the block.
+   */
+  public InvalidBlockException(int iBlockNum, String message) {
+    super(message);
+    this.blockNum = iBlockNum;
+  } // InvalidBlockException(int, String)
+
+  /**
+   * Get the number of the incorrect block.
+   *
+   * @return the number of the block.
+   */
+  public int getBlockNum() {
+    return this.blockNum;
+  } // getBlockNum()
+} // class InvalidBlockException
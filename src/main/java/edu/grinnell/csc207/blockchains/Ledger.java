@@ -0,0 +1,160 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+
+/**
+ * The balances of the users of a blockchain, kept up to date as
+ * transactions are applied and reverted. Balances are stored in an
+ * array indexed by account ID.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class Ledger {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The IDs of the accounts. */
+  AccountDictionary accounts;
+
+  /** The balance of every account, indexed by ID. */
+  int[] balances;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new ledger in which everyone has a balance of 0.
+   *
+   * @param iAccounts
+   *   The IDs of the accounts.
+   */
+  public Ledger(AccountDictionary iAccounts) {
+    this.accounts = iAccounts;
+    this.balances = new int[iAccounts.size()];
+  } // Ledger(AccountDictionary)
+
+  /**
+   * Create a copy of another ledger.
+   *
+   * @param other
+   *   The ledger to copy.
+   */
+  public Ledger(Ledger other) {
+    this.accounts = other.accounts;
+    this.balances = other.balances.clone();
+  } // Ledger(Ledger)
+
+  /**
+   * Create a ledger that starts with the given balances.
+   *
+   * @param iAccounts
+   *   The IDs of the accounts.
+   * @param iBalances
+   *   The balance of every account, indexed by ID.
+   */
+  Ledger(AccountDictionary iAccounts, int[] iBalances) {
+    this.accounts = iAccounts;
+    this.balances = iBalances;
+  } // Ledger(AccountDictionary, int[])
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Add to the balance of an account.
+   *
+   * @param id
+   *   The ID of the account.
+   * @param amount
+   *   The amount to add.
+   */
+  void add(int id, int amount) {
+    if (id >= this.balances.length) {
+      this.balances = Arrays.copyOf(this.balances,
+          Math.max(id + 1, Math.max(this.accounts.size(), this.balances.length * 2)));
+    } // if
+    this.balances[id] += amount;
+  } // add(int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Move funds from one account to another.
+   *
+   * @param source
+   *   The ID of the account the funds come from.
+   * @param target
+   *   The ID of the account the funds go to.
+   * @param amount
+   *   The amount moved.
+   */
+  public void apply(int source, int target, int amount) {
+    this.add(source, -amount);
+    this.add(target, amount);
+  } // apply(int, int, int)
+
+  /**
+   * Undo a move of funds that was previously applied.
+   *
+   * @param source
+   *   The ID of the account the funds came from.
+   * @param target
+   *   The ID of the account the funds went to.
+   * @param amount
+   *   The amount moved.
+   */
+  public void revert(int source, int target, int amount) {
+    this.add(target, -amount);
+    this.add(source, amount);
+  } // revert(int, int, int)
+
+  /**
+   * Apply the transfer recorded for a block.
+   *
+   * @param node
+   *   The node holding the block.
+   */
+  void apply(Node node) {
+    this.apply(node.undoSource, node.undoTarget, node.undoAmount);
+  } // apply(Node)
+
+  /**
+   * Undo the transfer recorded for a block.
+   *
+   * @param node
+   *   The node holding the block.
+   */
+  void revert(Node node) {
+    this.revert(node.undoSource, node.undoTarget, node.undoAmount);
+  } // revert(Node)
+
+  /**
+   * Find the balance of an account.
+   *
+   * @param id
+   *   The ID of the account.
+   *
+   * @return the balance of that account.
+   */
+  public int balance(int id) {
+    return (id >= 0 && id < this.balances.length) ? this.balances[id] : 0;
+  } // balance(int)
+
+  /**
+   * Find one user's balance.
+   *
+   * @param user
+   *   The user whose balance we want to find.
+   *
+   * @return that user's balance (or 0, if the user has not appeared).
+   */
+  public int balance(String user) {
+    return this.balance(this.accounts.lookup(user));
+  } // balance(String)
+} // class Ledger
@@ -0,0 +1,73 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.HashMap;
+
+/**
+ * Changes to the balances in another ledger, kept apart from it so that
+ * the other ledger need not be copied or changed. Only the accounts that
+ * change take any space.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class LedgerOverlay extends Ledger {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The ledger the changes apply to. */
+  Ledger base;
+
+  /** The change to the balance of every account that has changed, by ID. */
+  HashMap<Integer, Integer> changes;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an overlay with no changes.
+   *
+   * @param iBase
+   *   The ledger the changes apply to.
+   */
+  public LedgerOverlay(Ledger iBase) {
+    super(iBase.accounts, new int[0]);
+    this.base = iBase;
+    this.changes = new HashMap<Integer, Integer>();
+  } // LedgerOverlay(Ledger)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Add to the balance of an account, without changing the base.
+   *
+   * @param id
+   *   The ID of the account.
+   * @param amount
+   *   The amount to add.
+   */
+  @Override
+  void add(int id, int amount) {
+    this.changes.merge(id, amount, Integer::sum);
+  } // add(int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Find the balance of an account, with the changes applied.
+   *
+   * @param id
+   *   The ID of the account.
+   *
+   * @return the balance of that account.
+   */
+  @Override
+  public int balance(int id) {
+    return this.base.balance(id) + this.changes.getOrDefault(id, 0);
+  } // balance(int)
+} // class LedgerOverlay
@@ -0,0 +1,306 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A pool of transactions waiting to be mined into a blockchain. Any
+ * number of threads may submit transactions at once; the pool rejects
+ * transactions that are already waiting, being mined, or in the chain,
+ * and transfers that would overdraw their source once the
+ * pending transfers from that source are counted, holds at most a
+ * fixed number of transactions, and hands them to the miner in the
+ * order in which they were accepted.
+ *
+ * <p>Submissions do not share a lock: the pending set and the pending
+ * spends are concurrent maps (so two submissions only wait for each
+ * other if they spend from the same source), the queue is lock-free,
+ * and capacity is tracked with a semaphore.</p>
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class Mempool {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain the transactions are mined into. */
+  BlockChain chain;
+
+  /** The transactions waiting to be mined, in order of acceptance. */
+  ConcurrentLinkedQueue<Transaction> queue;
+
+  /** The transactions waiting to be mined or being mined, for finding duplicates. */
+  ConcurrentHashMap<Transaction, Boolean> pending;
+
+  /** The total amount of the accepted transfers from each source that have not been mined. */
+  ConcurrentHashMap<String, Integer> spends;
+
+  /** The free space in the pool. */
+  Semaphore space;
+
+  /** The number of transactions the pool can hold. */
+  int capacity;
+
+  /** The lock held while mining, so that only one thread mines at a time. */
+  ReentrantLock miner;
+
+  /** Where mined blocks go, which tells whether each one was added to the end of the chain. */
+  volatile Predicate<Block> sink;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty, pool.
+   *
+   * @param iChain
+   *   The chain the transactions are mined into.
+   * @param iCapacity
+   *   The number of transactions the pool can hold.
+   */
+  public Mempool(BlockChain iChain, int iCapacity) {
+    if (iCapacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive: " + iCapacity);
+    } // if
+    this.chain = iChain;
+    this.capacity = iCapacity;
+    this.queue = new ConcurrentLinkedQueue<Transaction>();
+    this.pending = new ConcurrentHashMap<Transaction, Boolean>();
+    this.spends = new ConcurrentHashMap<String, Integer>();
+    this.space = new Semaphore(iCapacity);
+    this.miner = new ReentrantLock();
+    this.sink = (blk) -> {
+      try {
+        this.chain.appendAll(Collections.singletonList(blk));
+        return true;
+      } catch (IllegalArgumentException e) {
+        return false;
+      } // try/catch
+    };
+  } // Mempool(BlockChain, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Accept a transaction, once space for it has been reserved.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @throws IllegalArgumentException if the transaction is already
+   *   waiting or in the chain, has a negative amount, is not properly
+   *   signed, or would overdraw its source (in which case the reserved space is released).
+   */
+  void accept(Transaction t) {
+    if (t.getAmount() < 0) {
+      this.space.release();
+      throw new IllegalArgumentException("Negative amount: " + t);
+    } else if (!this.chain.isAuthentic(t)) {
+      this.space.release();
+      throw new IllegalArgumentException("Incorrect signature: " + t);
+    } else if (this.chain.findTransaction(t.getId()) != null) {
+      this.space.release();
+      throw new IllegalArgumentException("Already in the chain: " + t);
+    } else if (this.pending.putIfAbsent(t, Boolean.TRUE) != null) {
+      this.space.release();
+      throw new IllegalArgumentException("Already waiting: " + t);
+    } // if/else
+    if (!t.getSource().equals("")) {
+      boolean[] funded = {false};
+      this.spends.compute(t.getSource(), (source, spent) -> {
+        int total = (spent == null) ? 0 : spent;
+        if (this.chain.balance(source) - total < t.getAmount()) {
+          return spent;
+        } // if
+        funded[0] = true;
+        return total + t.getAmount();
+      });
+      if (!funded[0]) {
+        this.pending.remove(t);
+        this.space.release();
+        throw new IllegalArgumentException("Insufficient funds: " + t);
+      } // if
+    } // if
+    this.queue.add(t);
+  } // accept(Transaction)
+
+  /**
+   * Forget a transaction that has left the pool and its pending spend,
+   * once it has been mined or refused.
+   *
+   * @param t
+   *   The transaction.
+   */
+  void settle(Transaction t) {
+    if (!t.getSource().equals("")) {
+      this.spends.computeIfPresent(t.getSource(),
+          (source, spent) -> (spent == t.getAmount()) ? null : spent - t.getAmount());
+    } // if
+    this.pending.remove(t);
+  } // settle(Transaction)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Submit a transaction if there is room for it.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return true if the transaction was accepted and false if the pool
+   *   is full.
+   *
+   * @throws IllegalArgumentException if the transaction is already
+   *   waiting or in the chain, has a negative amount, is not properly
+   *   signed, or would overdraw its source.
+   */
+  public boolean offer(Transaction t) {
+    if (!this.space.tryAcquire()) {
+      return false;
+    } // if
+    this.accept(t);
+    return true;
+  } // offer(Transaction)
+
+  /**
+   * Submit a transaction, waiting for room if the pool is full.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @throws InterruptedException
+   *   If the thread is interrupted while waiting.
+   * @throws IllegalArgumentException if the transaction is already
+   *   waiting or in the chain, has a negative amount, is not properly
+   *   signed, or would overdraw its source.
+   */
+  public void put(Transaction t) throws InterruptedException {
+    this.space.acquire();
+    this.accept(t);
+  } // put(Transaction)
+
+  /**
+   * Remove the oldest transactions from the pool without mining them.
+   * Until they are settled, their pending spends still count and they
+   * are still duplicates, so they cannot be submitted again while they
+   * are being mined.
+   *
+   * @param max
+   *   The largest number of transactions to remove.
+   *
+   * @return the transactions, in order of acceptance.
+   */
+  List<Transaction> drain(int max) {
+    ArrayList<Transaction> batch = new ArrayList<Transaction>();
+    Transaction t;
+    while (batch.size() < max && (t = this.queue.poll()) != null) {
+      batch.add(t);
+    } // while
+    this.space.release(batch.size());
+    return batch;
+  } // drain(int)
+
+  /**
+   * Mine a transaction into the chain, mining it again if another block
+   * is added to the chain meanwhile.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return true if the transaction was mined and false if the chain
+   *   refused it (for example, because its source spent the funds
+   *   directly in the chain after the transaction was accepted).
+   */
+  boolean mineOne(Transaction t) {
+    while (true) {
+      Block blk = this.chain.mine(t);
+      if (this.sink.test(blk)) {
+        return true;
+      } else if (blk.getPrevHash().equals(this.chain.getHash())) {
+        return false;
+      } // if/else
+    } // while
+  } // mineOne(Transaction)
+
+  /**
+   * Mine the oldest transactions in the pool into the chain, one block
+   * per transaction, in order of acceptance. A transaction that the
+   * chain refuses is dropped without stopping the rest, and every
+   * transaction taken from the pool has its pending spend settled.
+   *
+   * @param max
+   *   The largest number of transactions to mine.
+   *
+   * @return the number of transactions mined.
+   */
+  public int mine(int max) {
+    this.miner.lock();
+    try {
+      List<Transaction> batch = this.drain(max);
+      int mined = 0;
+      for (int i = 0; i < batch.size(); i++) {
+        try {
+          if (this.mineOne(batch.get(i))) {
+            mined++;
+          } // if
+        } catch (RuntimeException e) {
+          for (int j = i + 1; j < batch.size(); j++) {
+            this.settle(batch.get(j));
+          } // for
+          throw e;
+        } finally {
+          this.settle(batch.get(i));
+        } // try/catch/finally
+      } // for
+      return mined;
+    } finally {
+      this.miner.unlock();
+    } // try/finally
+  } // mine(int)
+
+  /**
+   * Send mined blocks somewhere other than straight to the chain, such
+   * as to a node that records and announces them.
+   *
+   * @param iSink
+   *   Where mined blocks go. It must add each block to the end of the
+   *   chain, returning true, or refuse it, returning false.
+   */
+  public void setSink(Predicate<Block> iSink) {
+    this.sink = iSink;
+  } // setSink(Predicate<Block>)
+
+  /**
+   * Get the number of transactions waiting in the pool.
+   *
+   * @return the number of transactions.
+   */
+  public int size() {
+    return this.capacity - this.space.availablePermits();
+  } // size()
+
+  /**
+   * Find the total amount of the waiting transfers from a user.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return the amount the user has pending.
+   */
+  public int pendingSpend(String user) {
+    return this.spends.getOrDefault(user, 0);
+  } // pendingSpend(String)
+} // class Mempool
@@ -10,8 +10,20 @@ public class Node {
   /** Next node in linked list. */
   Node next;
 
-  /** Current block in node sequence. */
-  Block block;
+  /** Current block in node sequence, replaced by its header when it is pruned. */
+  volatile Block block;
+
+  /** The ID of the source of the transfer applied for this block, used to undo it. */
+  int undoSource;
+
+  /** The ID of the target of the transfer applied for this block. */
+  int undoTarget;
+
+  /** The amount of the transfer applied for this block. */
+  int undoAmount;
+
+  /** The ID of the transaction in this block, as of when it was added. */
+  Hash transactionId;
 
   /**
    * Creates a new Node in the linked list storing a block.
@@ -0,0 +1,838 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A node that shares a blockchain with other nodes over TCP on the local
+ * machine. One thread runs an event loop on a selector that serves every
+ * connection; other threads hand it work through a queue.
+ *
+ * <p>Each message is a frame: its length (4 bytes, counting the type),
+ * its type (1 byte), and its payload. A node announces the hash of each
+ * block it adds, and asks for the blocks it is told of but does not
+ * have. Received blocks go into a block tree, which appends them to the
+ * chain (or reorganizes the chain, if they make another branch
+ * heavier). A block whose previous block is missing is held, and the
+ * previous block is asked for, so a node that has fallen behind walks
+ * back to the blocks it has. A node also serves the headers and the
+ * transactions of ranges of its chain, for FastSync, and whole blocks
+ * of ranges of its chain. If the node has a block store, whole blocks
+ * are sent straight from the file of the store to the connection, in
+ * the form they are stored in, without being decoded or encoded.</p>
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class PeerNode implements Closeable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** A message announcing a block; the payload is its hash. */
+  static final byte ANNOUNCE = 1;
+
+  /** A message asking for a block; the payload is its hash. */
+  static final byte GET_BLOCK = 2;
+
+  /** A message holding a block; the payload is the block. */
+  static final byte BLOCK = 3;
+
+  /** A message holding a transaction; the payload is the transaction. */
+  static final byte TRANSACTION = 4;
+
+  /**
+   * A message asking for the headers of a range of blocks; the payload
+   * is the number of the first block and the number of blocks.
+   */
+  static final byte GET_HEADERS = 5;
+
+  /** A message holding headers; the payload is their number, then the headers. */
+  static final byte HEADERS = 6;
+
+  /**
+   * A message asking for the transactions of a range of blocks; the
+   * payload is the number of the first block and the number of blocks.
+   */
+  static final byte GET_BODIES = 7;
+
+  /**
+   * A message holding transactions; the payload is the number of the
+   * first block, the number of blocks, and then, for each block, a 1 and
+   * its transaction (or a 0, if it has been pruned).
+   */
+  static final byte BODIES = 8;
+
+  /**
+   * A message asking for the blocks of a range; the payload is the
+   * number of the first block and the number of blocks.
+   */
+  static final byte GET_RANGE = 9;
+
+  /**
+   * A message holding blocks; the payload is the number of the first
+   * block, the number of blocks, and then, for each block, the length of
+   * its encoding and the encoding.
+   */
+  static final byte RANGE = 10;
+
+  /** The most headers or bodies sent in one message. */
+  static final int MAX_BATCH = 1024;
+
+  /** The longest frame we accept. */
+  static final int MAX_FRAME = 1 << 22;
+
+  /** The size of the buffer each connection starts reading into. */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** Every block this node has heard of. */
+  BlockTree tree;
+
+  /** The pool that receives transactions (or null, to ignore them). */
+  volatile Mempool mempool;
+
+  /** The store that ranges of blocks are sent from (or null, if none). */
+  volatile BlockStore store;
+
+  /** The selector for every channel. */
+  Selector selector;
+
+  /** The channel on which other nodes connect. */
+  ServerSocketChannel server;
+
+  /** The connections to other nodes, used only by the event loop. */
+  ArrayList<Peer> peers;
+
+  /** The work other threads have handed to the event loop. */
+  ConcurrentLinkedQueue<Runnable> tasks;
+
+  /** The thread running the event loop (or null, if not started). */
+  Thread loop;
+
+  /** Whether the event loop should keep running. */
+  volatile boolean running;
+
+  /** The number of open connections. */
+  volatile int connections;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a node for a chain that listens on a port of the local
+   * machine.
+   *
+   * @param chain
+   *   The chain.
+   * @param port
+   *   The port (or 0, to pick any free port).
+   *
+   * @throws IOException if the node cannot listen on the port.
+   */
+  public PeerNode(BlockChain chain, int port) throws IOException {
+    this.tree = new BlockTree(chain);
+    this.peers = new ArrayList<Peer>();
+    this.tasks = new ConcurrentLinkedQueue<Runnable>();
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    this.server.configureBlocking(false);
+    this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+  } // PeerNode(BlockChain, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Build a frame.
+   *
+   * @param type
+   *   The type of the message.
+   * @param payload
+   *   The payload, from its position to its limit.
+   *
+   * @return the frame, ready to be written.
+   */
+  static ByteBuffer frame(byte type, ByteBuffer payload) {
+    ByteBuffer result = ByteBuffer.allocate(Integer.BYTES + 1 + payload.remaining());
+    result.putInt(1 + payload.remaining()).put(type).put(payload);
+    return result.flip();
+  } // frame(byte, ByteBuffer)
+
+  /**
+   * Build a frame whose payload is a hash.
+   *
+   * @param type
+   *   The type of the message.
+   * @param hash
+   *   The hash.
+   *
+   * @return the frame.
+   */
+  static ByteBuffer hashFrame(byte type, Hash hash) {
+    byte[] bytes = hash.getBytes();
+    return frame(type, ByteBuffer.allocate(Integer.BYTES + bytes.length)
+        .putInt(bytes.length).put(bytes).flip());
+  } // hashFrame(byte, Hash)
+
+  /**
+   * Build a frame holding a block.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return the frame.
+   */
+  static ByteBuffer blockFrame(Block blk) {
+    return frame(BLOCK, ByteBuffer.wrap(BlockCodec.encode(blk)));
+  } // blockFrame(Block)
+
+  /**
+   * Run some work on the event loop.
+   *
+   * @param task
+   *   The work.
+   */
+  void later(Runnable task) {
+    this.tasks.add(task);
+    this.selector.wakeup();
+  } // later(Runnable)
+
+  /**
+   * Start serving a new connection. Called on the event loop.
+   *
+   * @param channel
+   *   The channel of the connection.
+   *
+   * @throws IOException if the channel cannot be registered.
+   */
+  void open(SocketChannel channel) throws IOException {
+    channel.configureBlocking(false);
+    Peer peer = new Peer(channel);
+    peer.key = channel.register(this.selector, SelectionKey.OP_READ, peer);
+    this.peers.add(peer);
+    this.connections = this.peers.size();
+    this.send(peer, hashFrame(ANNOUNCE, this.tree.getBestHash()));
+  } // open(SocketChannel)
+
+  /**
+   * Stop serving a connection. Called on the event loop.
+   *
+   * @param peer
+   *   The connection.
+   */
+  void drop(Peer peer) {
+    peer.key.cancel();
+    try {
+      peer.channel.close();
+    } catch (IOException e) {
+      // Already closed, as far as we care.
+    } // try/catch
+    this.peers.remove(peer);
+    this.connections = this.peers.size();
+  } // drop(Peer)
+
+  /**
+   * Send a frame to one connection. Called on the event loop.
+   *
+   * @param peer
+   *   The connection.
+   * @param frame
+   *   The frame.
+   */
+  void send(Peer peer, ByteBuffer frame) {
+    peer.out.add(new Pending(frame));
+    this.write(peer);
+  } // send(Peer, ByteBuffer)
+
+  /**
+   * Send the blocks of a range to one connection, from the store if
+   * there is one, after bringing the store up to date with the chain.
+   * Called on the event loop.
+   *
+   * @param peer
+   *   The connection.
+   * @param from
+   *   The number of the first block.
+   * @param count
+   *   The number of blocks (of which at most MAX_BATCH are sent).
+   *
+   * @throws IllegalArgumentException if from or count is negative.
+   */
+  void sendRange(Peer peer, int from, int count) {
+    BlockStore archive = this.store;
+    if (from < 0 || count < 0) {
+      throw new IllegalArgumentException("Negative range");
+    } else if (archive != null) {
+      try {
+        archive.catchUp(this.tree.getChain());
+        ArrayList<BlockStore.Region> regions = new ArrayList<BlockStore.Region>();
+        int n = archive.regions(from, Math.min(count, MAX_BATCH),
+            MAX_FRAME - 1 - 2 * Integer.BYTES, regions);
+        long bytes = 0;
+        for (BlockStore.Region region : regions) {
+          bytes += region.remaining();
+        } // for
+        peer.out.add(new Pending(ByteBuffer.allocate(3 * Integer.BYTES + 1)
+            .putInt((int) (1 + 2 * Integer.BYTES + bytes)).put(RANGE)
+            .putInt(from).putInt(n).flip()));
+        for (BlockStore.Region region : regions) {
+          peer.out.add(new Pending(region));
+        } // for
+        this.write(peer);
+        return;
+      } catch (IOException e) {
+        // Encode the blocks from the chain instead.
+      } // try/catch
+    } // if/else
+    this.send(peer, this.serve(GET_RANGE, from, count));
+  } // sendRange(Peer, int, int)
+
+  /**
+   * Send a frame to every connection but one. Called on the event loop.
+   *
+   * @param except
+   *   The connection to skip (or null, to skip none).
+   * @param frame
+   *   The frame.
+   */
+  void sendAll(Peer except, ByteBuffer frame) {
+    for (Peer peer : new ArrayList<Peer>(this.peers)) {
+      if (peer != except) {
+        this.send(peer, frame.duplicate());
+      } // if
+    } // for
+  } // sendAll(Peer, ByteBuffer)
+
+  /**
+   * Write as much of the waiting output of a connection as the channel
+   * takes, waiting to write the rest when the channel is ready.
+   *
+   * @param peer
+   *   The connection.
+   */
+  void write(Peer peer) {
+    try {
+      while (!peer.out.isEmpty()) {
+        if (!peer.out.peek().writeTo(peer.channel)) {
+          peer.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        } // if
+        peer.out.poll();
+      } // while
+      peer.key.interestOps(SelectionKey.OP_READ);
+    } catch (IOException e) {
+      this.drop(peer);
+    } // try/catch
+  } // write(Peer)
+
+  /**
+   * Read what a connection has sent and handle every whole frame.
+   *
+   * @param peer
+   *   The connection.
+   */
+  void read(Peer peer) {
+    try {
+      if (peer.channel.read(peer.in) < 0) {
+        this.drop(peer);
+        return;
+      } // if
+    } catch (IOException e) {
+      this.drop(peer);
+      return;
+    } // try/catch
+    peer.in.flip();
+    while (peer.in.remaining() >= Integer.BYTES) {
+      int length = peer.in.getInt(peer.in.position());
+      if (length < 1 || length > MAX_FRAME) {
+        this.drop(peer);
+        return;
+      } else if (peer.in.remaining() < Integer.BYTES + length) {
+        if (peer.in.capacity() < Integer.BYTES + length) {
+          ByteBuffer bigger = ByteBuffer.allocate(Integer.BYTES + length);
+          bigger.put(peer.in);
+          peer.in = bigger;
+          return;
+        } // if
+        break;
+      } // if/else
+      peer.in.getInt();
+      byte type = peer.in.get();
+      ByteBuffer payload = peer.in.slice(peer.in.position(), length - 1);
+      peer.in.position(peer.in.position() + length - 1);
+      try {
+        this.handle(peer, type, payload);
+      } catch (IllegalArgumentException | BufferUnderflowException e) {
+        // A malformed message; ignore it.
+      } catch (RuntimeException e) {
+        // Something went wrong with this connection; give up on it
+        // rather than on every other one.
+        this.drop(peer);
+        return;
+      } // try/catch
+    } // while
+    peer.in.compact();
+  } // read(Peer)
+
+  /**
+   * Handle one message. Called on the event loop.
+   *
+   * @param from
+   *   The connection that sent the message.
+   * @param type
+   *   The type of the message.
+   * @param payload
+   *   The payload.
+   *
+   * @throws IllegalArgumentException if the payload is malformed.
+   */
+  void handle(Peer from, byte type, ByteBuffer payload) {
+    if (type == ANNOUNCE) {
+      Hash hash = new Hash(BlockCodec.getField(payload));
+      if (!this.tree.contains(hash)) {
+        this.send(from, hashFrame(GET_BLOCK, hash));
+      } // if
+    } else if (type == GET_BLOCK) {
+      Hash hash = new Hash(BlockCodec.getField(payload));
+      Block blk = this.tree.isValid(hash) ? this.tree.get(hash) : null;
+      if (blk != null && !blk.isPruned()) {
+        this.send(from, blockFrame(blk));
+      } // if
+    } else if (type == BLOCK) {
+      Block blk = BlockCodec.getBlock(payload);
+      if (!blk.isPruned()) {
+        this.receive(from, blk);
+      } // if
+    } else if (type == GET_HEADERS || type == GET_BODIES) {
+      this.send(from, this.serve(type, payload.getInt(), payload.getInt()));
+    } else if (type == GET_RANGE) {
+      this.sendRange(from, payload.getInt(), payload.getInt());
+    } else if (type == TRANSACTION) {
+      Transaction t = BlockCodec.getTransaction(payload);
+      Mempool pool = this.mempool;
+      if (pool != null && pool.offer(t)) {
+        this.sendAll(from, transactionFrame(t));
+      } // if
+    } // if/else
+  } // handle(Peer, byte, ByteBuffer)
+
+  /**
+   * Build the reply to a request for the headers, bodies, or blocks of a
+   * range of blocks. Blocks past the end of the chain are left out.
+   *
+   * @param type
+   *   GET_HEADERS, GET_BODIES, or GET_RANGE.
+   * @param from
+   *   The number of the first block.
+   * @param count
+   *   The number of blocks (of which at most MAX_BATCH are sent).
+   *
+   * @return the reply.
+   *
+   * @throws IllegalArgumentException if from or count is negative.
+   */
+  ByteBuffer serve(byte type, int from, int count) {
+    if (from < 0 || count < 0) {
+      throw new IllegalArgumentException("Negative range");
+    } // if
+    BlockChain.Snapshot snap = this.tree.getChain().snapshot();
+    int end = Math.max(from, (int) Math.min(snap.count, (long) from + Math.min(count, MAX_BATCH)));
+    int size = 2 * Integer.BYTES;
+    for (int i = from; i < end; i++) {
+      Block blk = snap.nodes[i].getBlock();
+      if (type == GET_HEADERS) {
+        size += BlockCodec.sizeOfHeader(blk);
+      } else if (type == GET_RANGE) {
+        size += Integer.BYTES + BlockCodec.sizeOf(blk);
+      } else {
+        size += 1 + (blk.isPruned() ? 0 : BlockCodec.sizeOf(blk.getTransaction()));
+      } // if/else
+    } // for
+    ByteBuffer payload = ByteBuffer.allocate(size);
+    if (type != GET_HEADERS) {
+      payload.putInt(from);
+    } // if
+    payload.putInt(end - from);
+    for (int i = from; i < end; i++) {
+      Block blk = snap.nodes[i].getBlock();
+      Transaction t = blk.getTransaction();
+      if (type == GET_HEADERS) {
+        BlockCodec.putHeader(payload, blk);
+      } else if (type == GET_RANGE) {
+        BlockCodec.putBlock(payload.putInt(BlockCodec.sizeOf(blk)), blk);
+      } else if (t == null) {
+        payload.put((byte) 0);
+      } else {
+        BlockCodec.putTransaction(payload.put((byte) 1), t);
+      } // if/else
+    } // for
+    return frame((byte) (type + 1), payload.flip());
+  } // serve(byte, int, int)
+
+  /**
+   * Add a block that came from another node, passing it on if it is
+   * new and not known to be incorrect, and asking for its previous block
+   * if that is missing. Called on the event loop.
+   *
+   * @param from
+   *   The connection that sent the block.
+   * @param blk
+   *   The block.
+   */
+  void receive(Peer from, Block blk) {
+    Hash best = this.tree.getBestHash();
+    boolean known = this.tree.contains(blk.getHash());
+    this.tree.add(blk);
+    if (!this.tree.contains(blk.getHash())) {
+      if (!this.tree.contains(blk.getPrevHash())) {
+        this.send(from, hashFrame(GET_BLOCK, blk.getPrevHash()));
+      } // if
+    } else if (!known && this.tree.isValid(blk.getHash())) {
+      this.sendAll(from, hashFrame(ANNOUNCE, blk.getHash()));
+      Hash newBest = this.tree.getBestHash();
+      if (!newBest.equals(best) && !newBest.equals(blk.getHash())) {
+        this.sendAll(from, hashFrame(ANNOUNCE, newBest));
+      } // if
+    } // if/else
+  } // receive(Peer, Block)
+
+  /**
+   * Build a frame holding a transaction.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return the frame.
+   */
+  static ByteBuffer transactionFrame(Transaction t) {
+    ByteBuffer payload = ByteBuffer.allocate(BlockCodec.sizeOf(t));
+    BlockCodec.putTransaction(payload, t);
+    return frame(TRANSACTION, payload.flip());
+  } // transactionFrame(Transaction)
+
+  /**
+   * Run the event loop until the node is closed.
+   */
+  void run() {
+    while (this.running) {
+      try {
+        this.selector.select();
+      } catch (IOException e) {
+        break;
+      } // try/catch
+      for (Runnable task = this.tasks.poll(); task != null; task = this.tasks.poll()) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          // Only this task fails; the loop keeps serving the others.
+        } // try/catch
+      } // for
+      Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+      while (keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        if (!key.isValid()) {
+          continue;
+        } else if (key.isAcceptable()) {
+          try {
+            SocketChannel channel = this.server.accept();
+            if (channel != null) {
+              this.open(channel);
+            } // if
+          } catch (IOException e) {
+            // The other node gave up; keep serving the rest.
+          } // try/catch
+        } else {
+          Peer peer = (Peer) key.attachment();
+          if (key.isWritable()) {
+            this.write(peer);
+          } // if
+          if (key.isValid() && key.isReadable()) {
+            this.read(peer);
+          } // if
+        } // if/else
+      } // while
+    } // while
+    for (Peer peer : new ArrayList<Peer>(this.peers)) {
+      this.drop(peer);
+    } // for
+  } // run()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Start the event loop on a new thread.
+   */
+  public synchronized void start() {
+    if (this.loop == null) {
+      this.running = true;
+      this.loop = new Thread(this::run, "peer-" + this.getPort());
+      this.loop.setDaemon(true);
+      this.loop.start();
+    } // if
+  } // start()
+
+  /**
+   * Connect to another node on the local machine.
+   *
+   * @param port
+   *   The port the other node listens on.
+   *
+   * @throws IOException if the connection fails.
+   */
+  public void connect(int port) throws IOException {
+    SocketChannel channel =
+        SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    this.later(() -> {
+      try {
+        this.open(channel);
+      } catch (IOException e) {
+        try {
+          channel.close();
+        } catch (IOException ignored) {
+          // Nothing more to do.
+        } // try/catch
+      } // try/catch
+    });
+  } // connect(int)
+
+  /**
+   * Add a block to this node and, unless it is known to be incorrect,
+   * announce it to the other nodes.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return true if the chain changed and false otherwise.
+   *
+   * @throws IllegalArgumentException if the block is not valid, as in
+   *   BlockTree.add.
+   */
+  public boolean submit(Block blk) {
+    boolean changed = this.tree.add(blk);
+    if (this.tree.isValid(blk.getHash())) {
+      this.later(() -> this.sendAll(null, hashFrame(ANNOUNCE, blk.getHash())));
+    } // if
+    return changed;
+  } // submit(Block)
+
+  /**
+   * Mine a block for the end of the chain, add it, and announce it.
+   *
+   * @param t
+   *   The transaction for the block.
+   *
+   * @return the block.
+   */
+  public Block mine(Transaction t) {
+    Block blk = this.tree.getChain().mine(t);
+    this.submit(blk);
+    return blk;
+  } // mine(Transaction)
+
+  /**
+   * Send a transaction to every other node.
+   *
+   * @param t
+   *   The transaction.
+   */
+  public void broadcast(Transaction t) {
+    this.later(() -> this.sendAll(null, transactionFrame(t)));
+  } // broadcast(Transaction)
+
+  /**
+   * Pass the transactions received from other nodes to a pool, which
+   * passes on those it accepts. The pool mines through this node, as
+   * mine does, so that the blocks it mines are added to the tree and
+   * announced.
+   *
+   * @param pool
+   *   The pool (or null, to ignore transactions).
+   *
+   * @throws IllegalArgumentException if the pool mines into another
+   *   chain.
+   */
+  public void setMempool(Mempool pool) {
+    if (pool != null) {
+      if (pool.chain != this.tree.getChain()) {
+        throw new IllegalArgumentException("Pool mines into another chain");
+      } // if
+      pool.setSink(this::submit);
+    } // if
+    this.mempool = pool;
+  } // setMempool(Mempool)
+
+  /**
+   * Send requested ranges of blocks from a store, which this node keeps
+   * up to date with its chain.
+   *
+   * @param archive
+   *   The store (or null, to encode the blocks from the chain).
+   */
+  public void setStore(BlockStore archive) {
+    this.store = archive;
+  } // setStore(BlockStore)
+
+  /**
+   * Get the port this node listens on.
+   *
+   * @return the port.
+   */
+  public int getPort() {
+    return this.server.socket().getLocalPort();
+  } // getPort()
+
+  /**
+   * Get every block this node has heard of.
+   *
+   * @return the block tree.
+   */
+  public BlockTree getTree() {
+    return this.tree;
+  } // getTree()
+
+  /**
+   * Get the chain this node shares.
+   *
+   * @return the chain.
+   */
+  public BlockChain getChain() {
+    return this.tree.getChain();
+  } // getChain()
+
+  /**
+   * Get the number of open connections to other nodes.
+   *
+   * @return that number.
+   */
+  public int peerCount() {
+    return this.connections;
+  } // peerCount()
+
+  /**
+   * Stop the event loop and close every connection.
+   *
+   * @throws IOException if the channels cannot be closed.
+   */
+  public void close() throws IOException {
+    Thread thread;
+    synchronized (this) {
+      this.running = false;
+      thread = this.loop;
+    } // synchronized
+    this.selector.wakeup();
+    if (thread != null) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } // try/catch
+    } // if
+    this.server.close();
+    this.selector.close();
+  } // close()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A connection to another node.
+   */
+  static class Peer {
+    /** The channel of the connection. */
+    SocketChannel channel;
+
+    /** The key of the channel in the selector. */
+    SelectionKey key;
+
+    /** The bytes read but not yet handled. */
+    ByteBuffer in;
+
+    /** The output waiting to be written. */
+    ArrayDeque<Pending> out;
+
+    /**
+     * Create a new connection.
+     *
+     * @param iChannel
+     *   The channel of the connection.
+     */
+    Peer(SocketChannel iChannel) {
+      this.channel = iChannel;
+      this.in = ByteBuffer.allocate(BUFFER_SIZE);
+      this.out = new ArrayDeque<Pending>();
+    } // Peer(SocketChannel)
+  } // class Peer
+
+  /**
+   * Output waiting to be written: either bytes in memory or a region of
+   * a block store.
+   */
+  static class Pending {
+    /** The bytes (or null, if this is a region). */
+    ByteBuffer buffer;
+
+    /** The region (or null, if these are bytes). */
+    BlockStore.Region region;
+
+    /**
+     * Create output from bytes in memory.
+     *
+     * @param iBuffer
+     *   The bytes, from their position to their limit.
+     */
+    Pending(ByteBuffer iBuffer) {
+      this.buffer = iBuffer;
+    } // Pending(ByteBuffer)
+
+    /**
+     * Create output from a region of a store.
+     *
+     * @param iRegion
+     *   The region.
+     */
+    Pending(BlockStore.Region iRegion) {
+      this.region = iRegion;
+    } // Pending(BlockStore.Region)
+
+    /**
+     * Write as much of the output as a channel takes.
+     *
+     * @param channel
+     *   The channel.
+     *
+     * @return true if all of it has been written and false otherwise.
+     *
+     * @throws IOException if the channel cannot be written.
+     */
+    boolean writeTo(SocketChannel channel) throws IOException {
+      if (this.region != null) {
+        return this.region.writeTo(channel);
+      } // if
+      channel.write(this.buffer);
+      return !this.buffer.hasRemaining();
+    } // writeTo(SocketChannel)
+  } // class Pending
+} // class PeerNode
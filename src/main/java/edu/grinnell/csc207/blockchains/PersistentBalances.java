@@ -0,0 +1,245 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * The balances of the users of a chain, as a map that is never changed
+ * in place. The balances are kept in a trie indexed by four bits of the
+ * hash of each name at a time; changing a balance copies only the path
+ * to it, so the balances before and after a transaction share all but
+ * a few small arrays. Names whose hashes are equal share a list.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public final class PersistentBalances {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of bits of the hash used at each level of the trie. */
+  static final int BITS = 4;
+
+  /** The number of children of each node of the trie. */
+  static final int WIDTH = 1 << BITS;
+
+  /** The balances in which everyone has 0. */
+  public static final PersistentBalances EMPTY = new PersistentBalances(new Object[WIDTH], 0);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The root of the trie. Each child is null, another node, or an Entry. */
+  private final Object[] root;
+
+  /** The number of names with balances. */
+  private final int count;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create balances from a trie.
+   *
+   * @param iRoot
+   *   The root of the trie.
+   * @param iCount
+   *   The number of names in the trie.
+   */
+  private PersistentBalances(Object[] iRoot, int iCount) {
+    this.root = iRoot;
+    this.count = iCount;
+  } // PersistentBalances(Object[], int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the hash of a name, with the high bits mixed into the low ones.
+   *
+   * @param name
+   *   The name.
+   *
+   * @return the hash.
+   */
+  static int hashOf(String name) {
+    int h = name.hashCode();
+    return h ^ (h >>> 16);
+  } // hashOf(String)
+
+  /**
+   * Copy a node of the trie with one balance changed.
+   *
+   * @param node
+   *   The node.
+   * @param shift
+   *   The number of bits of the hash used above this node.
+   * @param name
+   *   The name whose balance changes.
+   * @param hash
+   *   The hash of the name.
+   * @param amount
+   *   The amount to add to the balance.
+   * @param added
+   *   Set to true if the name was not in the trie.
+   *
+   * @return the new node.
+   */
+  static Object[] with(Object[] node, int shift, String name, int hash, int amount,
+      boolean[] added) {
+    Object[] copy = node.clone();
+    int i = (hash >>> shift) & (WIDTH - 1);
+    Object child = node[i];
+    if (child instanceof Object[]) {
+      copy[i] = with((Object[]) child, shift + BITS, name, hash, amount, added);
+    } else if (child == null || ((Entry) child).hash == hash) {
+      copy[i] = Entry.with((Entry) child, name, hash, amount, added);
+    } else {
+      // Another hash is here; move it down a level to make room.
+      Object[] below = new Object[WIDTH];
+      below[(((Entry) child).hash >>> (shift + BITS)) & (WIDTH - 1)] = child;
+      copy[i] = with(below, shift + BITS, name, hash, amount, added);
+    } // if/else
+    return copy;
+  } // with(Object[], int, String, int, int, boolean[])
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Find one user's balance.
+   *
+   * @param name
+   *   The user.
+   *
+   * @return that user's balance (or 0, if the user has not appeared).
+   */
+  public int balance(String name) {
+    int hash = hashOf(name);
+    Object child = this.root[hash & (WIDTH - 1)];
+    for (int shift = BITS; child instanceof Object[]; shift += BITS) {
+      child = ((Object[]) child)[(hash >>> shift) & (WIDTH - 1)];
+    } // for
+    for (Entry e = (Entry) child; e != null; e = e.next) {
+      if (e.name.equals(name)) {
+        return e.balance;
+      } // if
+    } // for
+    return 0;
+  } // balance(String)
+
+  /**
+   * Get the balances with one of them changed. These balances are left
+   * as they are.
+   *
+   * @param name
+   *   The user whose balance changes.
+   * @param amount
+   *   The amount to add to the balance.
+   *
+   * @return the new balances.
+   */
+  public PersistentBalances add(String name, int amount) {
+    boolean[] added = {false};
+    Object[] newRoot = with(this.root, 0, name, hashOf(name), amount, added);
+    return new PersistentBalances(newRoot, this.count + (added[0] ? 1 : 0));
+  } // add(String, int)
+
+  /**
+   * Get the balances after a transaction. Deposits change only the
+   * balance of their target. These balances are left as they are.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return the new balances.
+   */
+  public PersistentBalances apply(Transaction t) {
+    PersistentBalances result = this;
+    if (!t.getSource().equals("")) {
+      result = result.add(t.getSource(), -t.getAmount());
+    } // if
+    if (!t.getTarget().equals("")) {
+      result = result.add(t.getTarget(), t.getAmount());
+    } // if
+    return result;
+  } // apply(Transaction)
+
+  /**
+   * Get the number of users with balances.
+   *
+   * @return that number.
+   */
+  public int size() {
+    return this.count;
+  } // size()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * One balance, in a list of the balances whose names have the same
+   * hash.
+   */
+  static final class Entry {
+    /** The name. */
+    final String name;
+
+    /** The hash of the name. */
+    final int hash;
+
+    /** The balance. */
+    final int balance;
+
+    /** The next balance with the same hash (or null, if there is none). */
+    final Entry next;
+
+    /**
+     * Create an entry.
+     *
+     * @param iName
+     *   The name.
+     * @param iHash
+     *   The hash of the name.
+     * @param iBalance
+     *   The balance.
+     * @param iNext
+     *   The next balance with the same hash.
+     */
+    Entry(String iName, int iHash, int iBalance, Entry iNext) {
+      this.name = iName;
+      this.hash = iHash;
+      this.balance = iBalance;
+      this.next = iNext;
+    } // Entry(String, int, int, Entry)
+
+    /**
+     * Copy a list with one balance changed.
+     *
+     * @param list
+     *   The list (or null, if it is empty).
+     * @param name
+     *   The name whose balance changes.
+     * @param hash
+     *   The hash of the name.
+     * @param amount
+     *   The amount to add to the balance.
+     * @param added
+     *   Set to true if the name was not in the list.
+     *
+     * @return the new list.
+     */
+    static Entry with(Entry list, String name, int hash, int amount, boolean[] added) {
+      if (list == null) {
+        added[0] = true;
+        return new Entry(name, hash, amount, null);
+      } else if (list.name.equals(name)) {
+        return new Entry(name, hash, list.balance + amount, list.next);
+      } // if/else
+      return new Entry(list.name, hash, list.balance, with(list.next, name, hash, amount, added));
+    } // with(Entry, String, int, int, boolean[])
+  } // class Entry
+} // class PersistentBalances
@@ -0,0 +1,405 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A blockchain that is never changed in place. Each block is held in an
+ * immutable link that points back to the link before it, so a chain is
+ * just its last link, and a longer chain shares every link of the
+ * shorter chain it extends. Appending builds one new link and publishes
+ * it with a single compare-and-set of the tip; removing the last block
+ * swings the tip back to the link before it. Readers need no locks:
+ * whoever holds a link holds a consistent chain that will never change.
+ *
+ * <p>Each link also holds the balances as of its block and an index of
+ * the blocks by number, both persistent tries that share all but a
+ * few paths with those of the link before, so balances and blocks can be
+ * read from any version without walking or copying the chain.</p>
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class PersistentChain {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The last link of the current chain. */
+  AtomicReference<Link> tip;
+
+  /** The validator for the hashes of the blocks. */
+  HashValidator check;
+
+  /** The validator used to check the whole chain. */
+  ChainValidator validator;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new chain holding only an initial block.
+   *
+   * @param iCheck
+   *   The validator used to check the hashes of the blocks.
+   */
+  public PersistentChain(HashValidator iCheck) {
+    this.check = iCheck;
+    this.validator = new ChainValidator(iCheck);
+    this.tip = new AtomicReference<Link>(new Link(
+        new Block(0, new Transaction("", "", 0), new Hash(new byte[] {}), iCheck), null));
+  } // PersistentChain(HashValidator)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the current chain. The result never changes, however the chain
+   * changes later.
+   *
+   * @return the last link of the current chain.
+   */
+  public Link snapshot() {
+    return this.tip.get();
+  } // snapshot()
+
+  /**
+   * Get the number of blocks currently in the chain.
+   *
+   * @return the number of blocks, including the initial block.
+   */
+  public int getSize() {
+    return this.tip.get().getHeight() + 1;
+  } // getSize()
+
+  /**
+   * Get the hash of the last block in the chain.
+   *
+   * @return that hash.
+   */
+  public Hash getHash() {
+    return this.tip.get().getBlock().getHash();
+  } // getHash()
+
+  /**
+   * Find one user's balance in the current chain.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return that user's balance (or 0, if the user has not appeared).
+   */
+  public int balance(String user) {
+    return this.tip.get().getBalances().balance(user);
+  } // balance(String)
+
+  /**
+   * Mine for a new valid block for the end of the current chain.
+   *
+   * @param t
+   *   The transaction that goes in the block.
+   *
+   * @return a new block with correct number, hashes, and such.
+   */
+  public Block mine(Transaction t) {
+    Link last = this.tip.get();
+    return new Block(last.getHeight() + 1, t, last.getBlock().getHash(), this.check);
+  } // mine(Transaction)
+
+  /**
+   * Add a block to the end of the chain. If another thread changes the
+   * chain first, the block is checked again against the new end.
+   *
+   * @param blk
+   *   The block to add.
+   *
+   * @throws IllegalArgumentException if (a) the hash is not valid, (b)
+   *   the hash is not appropriate for the contents, (c) the previous
+   *   hash does not match the last block, (d) the number does not
+   *   follow the last block, or (e) the block is pruned.
+   */
+  public void append(Block blk) {
+    if (blk.isPruned()) {
+      throw new IllegalArgumentException("Cannot append pruned block " + blk.getNum());
+    } // if
+    Hash newHash = blk.recomputeHash();
+    if (!blk.getHash().equals(newHash)) {
+      throw new IllegalArgumentException("Incorrect hash: " + blk);
+    } else if (!this.check.isValid(newHash)) {
+      throw new IllegalArgumentException("Invalid hash: " + blk);
+    } // if/else
+    Link last;
+    Link next;
+    do {
+      last = this.tip.get();
+      if (!blk.getPrevHash().equals(last.getBlock().getHash())) {
+        throw new IllegalArgumentException("Incorrect previous hash: " + blk);
+      } else if (blk.getNum() != last.getHeight() + 1) {
+        throw new IllegalArgumentException("Incorrect number: " + blk);
+      } // if/else
+      next = new Link(blk, last);
+    } while (!this.tip.compareAndSet(last, next));
+  } // append(Block)
+
+  /**
+   * Attempt to remove the last block from the chain.
+   *
+   * @return false if the chain has only the initial block (in which
+   *   case nothing is removed) or true otherwise.
+   */
+  public boolean removeLast() {
+    Link last;
+    do {
+      last = this.tip.get();
+      if (last.getPrevious() == null) {
+        return false;
+      } // if
+    } while (!this.tip.compareAndSet(last, last.getPrevious()));
+    return true;
+  } // removeLast()
+
+  /**
+   * Determine if the current chain is correct, in the same sense as
+   * BlockChain.isCorrect.
+   *
+   * @return true if the chain is correct and false otherwise.
+   */
+  public boolean isCorrect() {
+    try {
+      this.check();
+      return true;
+    } catch (InvalidBlockException e) {
+      return false;
+    } // try/catch
+  } // isCorrect()
+
+  /**
+   * Check the current chain, in the same sense as BlockChain.check.
+   *
+   * @throws InvalidBlockException
+   *   If things are wrong at any block, describing the first such block.
+   */
+  public void check() throws InvalidBlockException {
+    this.validator.validate(this.tip.get().toArray(), 0, 0,
+        new Ledger(new AccountDictionary()), (id) -> false);
+  } // check()
+
+  /**
+   * Get an iterator for all the blocks in the current chain.
+   *
+   * @return an iterator for the blocks, from the initial block on.
+   */
+  public Iterator<Block> blocks() {
+    return this.tip.get().blocks();
+  } // blocks()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * One block of a persistent chain, along with the chain before it.
+   */
+  public static final class Link {
+    /** The number of bits of a block number used at each level of the trie. */
+    static final int BITS = 5;
+
+    /** The number of children of each node of the trie. */
+    static final int WIDTH = 1 << BITS;
+
+    /** The block. */
+    private final Block block;
+
+    /** The link before this one (or null, for the initial block). */
+    private final Link previous;
+
+    /** The number of links before this one. */
+    private final int height;
+
+    /** The balances as of this block. */
+    private final PersistentBalances balances;
+
+    /** The root of the trie holding the blocks up to this one, by number. */
+    private final Object[] index;
+
+    /**
+     * Create a new link.
+     *
+     * @param iBlock
+     *   The block.
+     * @param iPrevious
+     *   The link before this one (or null, for the initial block).
+     */
+    Link(Block iBlock, Link iPrevious) {
+      this.block = iBlock;
+      this.previous = iPrevious;
+      if (iPrevious == null) {
+        this.height = 0;
+        this.balances = PersistentBalances.EMPTY.apply(iBlock.getTransaction());
+        this.index = with(new Object[WIDTH], 0, 0, iBlock);
+      } else {
+        this.height = iPrevious.height + 1;
+        this.balances = iPrevious.balances.apply(iBlock.getTransaction());
+        Object[] root = iPrevious.index;
+        if (shiftFor(this.height) > shiftFor(iPrevious.height)) {
+          // The trie is full; put it under a new root.
+          root = new Object[WIDTH];
+          root[0] = iPrevious.index;
+        } // if
+        this.index = with(root, shiftFor(this.height), this.height, iBlock);
+      } // if/else
+    } // Link(Block, Link)
+
+    /**
+     * Find the number of bits of a block number used below the root of
+     * the trie that holds the blocks up to it.
+     *
+     * @param last
+     *   The number of the last block in the trie.
+     *
+     * @return that number of bits.
+     */
+    static int shiftFor(int last) {
+      int shift = 0;
+      while ((last >>> shift) >= WIDTH) {
+        shift += BITS;
+      } // while
+      return shift;
+    } // shiftFor(int)
+
+    /**
+     * Copy the path to one block in the trie, adding the block.
+     *
+     * @param node
+     *   A node of the trie (or null, if the path ends here).
+     * @param shift
+     *   The number of bits of the block number used below this node.
+     * @param num
+     *   The number of the block.
+     * @param blk
+     *   The block.
+     *
+     * @return the new node.
+     */
+    static Object[] with(Object[] node, int shift, int num, Block blk) {
+      Object[] copy = (node == null) ? new Object[WIDTH] : node.clone();
+      int i = (num >>> shift) & (WIDTH - 1);
+      copy[i] = (shift == 0) ? blk : with((Object[]) copy[i], shift - BITS, num, blk);
+      return copy;
+    } // with(Object[], int, int, Block)
+
+    /**
+     * Find the leaf of the trie that holds a block.
+     *
+     * @param num
+     *   The number of the block.
+     *
+     * @return the leaf, indexed by the low bits of the number.
+     */
+    Object[] leafOf(int num) {
+      Object[] node = this.index;
+      for (int shift = shiftFor(this.height); shift > 0; shift -= BITS) {
+        node = (Object[]) node[(num >>> shift) & (WIDTH - 1)];
+      } // for
+      return node;
+    } // leafOf(int)
+
+    /**
+     * Get the block.
+     *
+     * @return the block.
+     */
+    public Block getBlock() {
+      return this.block;
+    } // getBlock()
+
+    /**
+     * Get the link before this one.
+     *
+     * @return that link (or null, for the initial block).
+     */
+    public Link getPrevious() {
+      return this.previous;
+    } // getPrevious()
+
+    /**
+     * Get the position of the block in the chain.
+     *
+     * @return the number of blocks before it.
+     */
+    public int getHeight() {
+      return this.height;
+    } // getHeight()
+
+    /**
+     * Get the balances as of this block.
+     *
+     * @return the balances.
+     */
+    public PersistentBalances getBalances() {
+      return this.balances;
+    } // getBalances()
+
+    /**
+     * Find a block of the chain that ends with this link.
+     *
+     * @param num
+     *   The number of the block.
+     *
+     * @return the block (or null, if there is no such block in this
+     *   chain).
+     */
+    public Block blockAt(int num) {
+      if (num < 0 || num > this.height) {
+        return null;
+      } // if
+      return (Block) this.leafOf(num)[num & (WIDTH - 1)];
+    } // blockAt(int)
+
+    /**
+     * Collect the blocks of the chain that ends with this link.
+     *
+     * @return the blocks, from the initial block on.
+     */
+    public Block[] toArray() {
+      Block[] result = new Block[this.height + 1];
+      for (Link link = this; link != null; link = link.previous) {
+        result[link.height] = link.block;
+      } // for
+      return result;
+    } // toArray()
+
+    /**
+     * Get an iterator for the blocks of the chain that ends with this
+     * link. The blocks are read from the trie one leaf at a time, without
+     * copying them.
+     *
+     * @return an iterator for the blocks, from the initial block on.
+     */
+    public Iterator<Block> blocks() {
+      return new Iterator<Block>() {
+
+        int i = 0;
+
+        Object[] leaf = null;
+
+        public boolean hasNext() {
+          return i <= Link.this.height;
+        } // hasNext()
+
+        public Block next() {
+          if (!this.hasNext()) {
+            throw new NoSuchElementException();
+          } // if
+          if ((i & (WIDTH - 1)) == 0) {
+            leaf = Link.this.leafOf(i);
+          } // if
+          return (Block) leaf[i++ & (WIDTH - 1)];
+        } // next()
+      };
+    } // blocks()
+  } // class Link
+} // class PersistentChain
@@ -0,0 +1,265 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Checks the Ed25519 signatures on transactions. Every transfer must be
+ * signed with the key registered for its source; deposits have no source
+ * and so need no signature. Checking a signature is far more expensive
+ * than anything else we do with a transaction, so batches are checked in
+ * parallel chunks and the IDs of the transactions whose signatures have
+ * been accepted are remembered, so that no signature is checked twice.
+ * Since a transaction's ID covers its signature, and a user's key never
+ * changes once registered, an accepted ID stays accepted.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class SignatureVerifier {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The signature algorithm. */
+  static final String ALGORITHM = "Ed25519";
+
+  /** The largest number of signatures checked by one task. */
+  static final int CHUNK_SIZE = 32;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The public key of each user, by name. */
+  ConcurrentHashMap<String, PublicKey> keys;
+
+  /** The IDs of the transactions whose signatures have been accepted. */
+  Set<Hash> accepted;
+
+  /** The pool used to check signatures in parallel. */
+  ForkJoinPool pool;
+
+  /** A signature engine for each thread. */
+  ThreadLocal<Signature> engines;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new verifier that checks batches on the common fork-join
+   * pool.
+   */
+  public SignatureVerifier() {
+    this(ForkJoinPool.commonPool());
+  } // SignatureVerifier()
+
+  /**
+   * Create a new verifier.
+   *
+   * @param iPool
+   *   The pool used to check batches in parallel.
+   */
+  public SignatureVerifier(ForkJoinPool iPool) {
+    this.keys = new ConcurrentHashMap<String, PublicKey>();
+    this.accepted = ConcurrentHashMap.newKeySet();
+    this.pool = iPool;
+    this.engines = ThreadLocal.withInitial(() -> {
+      try {
+        return Signature.getInstance(ALGORITHM);
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("Cannot load signature algorithm", e);
+      } // try/catch
+    });
+  } // SignatureVerifier(ForkJoinPool)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the first transaction in a range whose signature is not
+   * correct.
+   *
+   * @param transactions
+   *   The transactions.
+   * @param lo
+   *   The index of the first transaction to check.
+   * @param hi
+   *   The index after the last transaction to check.
+   *
+   * @return the index of the first incorrect transaction in the range
+   *   (or hi, if they are all correct).
+   */
+  int firstUnverified(Transaction[] transactions, int lo, int hi) {
+    for (int i = lo; i < hi; i++) {
+      if (!this.verify(transactions[i])) {
+        return i;
+      } // if
+    } // for
+    return hi;
+  } // firstUnverified(Transaction[], int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Register the public key of a user.
+   *
+   * @param user
+   *   The name of the user.
+   * @param key
+   *   The user's Ed25519 public key.
+   *
+   * @throws IllegalArgumentException if the user is the empty string or
+   *   already has a different key.
+   */
+  public void register(String user, PublicKey key) {
+    if (user.equals("")) {
+      throw new IllegalArgumentException("Deposits have no key");
+    } // if
+    PublicKey old = this.keys.putIfAbsent(user, key);
+    if (old != null && !old.equals(key)) {
+      throw new IllegalArgumentException("Already registered: " + user);
+    } // if
+  } // register(String, PublicKey)
+
+  /**
+   * Get the public key of a user.
+   *
+   * @param user
+   *   The name of the user.
+   *
+   * @return the user's key (or null, if none has been registered).
+   */
+  public PublicKey keyOf(String user) {
+    return this.keys.get(user);
+  } // keyOf(String)
+
+  /**
+   * Determine if a transaction is properly signed: either it is a
+   * deposit, or it is signed with the key registered for its source.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return true if the transaction is properly signed and false
+   *   otherwise.
+   */
+  public boolean verify(Transaction t) {
+    if (t.getSource().equals("")) {
+      return true;
+    } else if (!t.isSigned()) {
+      return false;
+    } // if/else
+    Hash id = t.getId();
+    if (this.accepted.contains(id)) {
+      return true;
+    } // if
+    PublicKey key = this.keys.get(t.getSource());
+    if (key == null) {
+      return false;
+    } // if
+    try {
+      Signature engine = this.engines.get();
+      engine.initVerify(key);
+      engine.update(t.getSignedBytes());
+      if (!engine.verify(t.getSignature())) {
+        return false;
+      } // if
+    } catch (GeneralSecurityException e) {
+      return false;
+    } // try/catch
+    this.accepted.add(id);
+    return true;
+  } // verify(Transaction)
+
+  /**
+   * Find the first transaction whose signature is not correct, checking
+   * chunks of the transactions in parallel.
+   *
+   * @param transactions
+   *   The transactions.
+   *
+   * @return the index of the first incorrect transaction (or the number
+   *   of transactions, if they are all correct).
+   */
+  public int firstUnverified(Transaction[] transactions) {
+    if (transactions.length <= CHUNK_SIZE) {
+      return firstUnverified(transactions, 0, transactions.length);
+    } // if
+    return this.pool.invoke(new VerifyTask(transactions, 0, transactions.length));
+  } // firstUnverified(Transaction[])
+
+  /**
+   * Get the number of transactions whose signatures have been accepted.
+   *
+   * @return that number.
+   */
+  public int acceptedCount() {
+    return this.accepted.size();
+  } // acceptedCount()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A task that checks the signatures of a range of transactions,
+   * splitting the range in half until it is small enough.
+   */
+  class VerifyTask extends RecursiveTask<Integer> {
+    /** The version of the serialized form. */
+    private static final long serialVersionUID = 1L;
+
+    /** The transactions. */
+    Transaction[] transactions;
+
+    /** The index of the first transaction to check. */
+    int lo;
+
+    /** The index after the last transaction to check. */
+    int hi;
+
+    /**
+     * Create a task to check a range of transactions.
+     *
+     * @param iTransactions
+     *   The transactions.
+     * @param iLo
+     *   The index of the first transaction to check.
+     * @param iHi
+     *   The index after the last transaction to check.
+     */
+    VerifyTask(Transaction[] iTransactions, int iLo, int iHi) {
+      this.transactions = iTransactions;
+      this.lo = iLo;
+      this.hi = iHi;
+    } // VerifyTask(Transaction[], int, int)
+
+    /**
+     * Check the range.
+     *
+     * @return the index of the first incorrect transaction in the range
+     *   (or hi, if they are all correct).
+     */
+    protected Integer compute() {
+      if (this.hi - this.lo <= CHUNK_SIZE) {
+        return firstUnverified(this.transactions, this.lo, this.hi);
+      } // if
+      int mid = (this.lo + this.hi) >>> 1;
+      VerifyTask right = new VerifyTask(this.transactions, mid, this.hi);
+      right.fork();
+      int left = new VerifyTask(this.transactions, this.lo, mid).compute();
+      int rest = right.join();
+      return (left < mid) ? left : rest;
+    } // compute()
+  } // class VerifyTask
+} // class SignatureVerifier
@@ -1,5 +1,15 @@
 package edu.grinnell.csc207.blockchains;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+
 /**
  * A simple transaction.
  *
@@ -26,6 +36,21 @@ public class Transaction {
    */
   private int amount;
 
+  /**
+   * The source's signature of the transfer (or null, if it is unsigned).
+   */
+  private byte[] signature;
+
+  /**
+   * The canonical encoding of the transaction.
+   */
+  private byte[] encoding;
+
+  /**
+   * The ID of the transaction (or null, if it has not been computed).
+   */
+  private volatile Hash id;
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -45,8 +70,143 @@ public class Transaction {
     this.source = src;
     this.target = tgt;
     this.amount = amt;
+    this.encoding = encode(src, tgt, amt);
   } // Transaction(src)
 
+  /**
+   * Create a new signed Transaction.
+   *
+   * @param src
+   *   The source of the transaction (or empty for a deposit).
+   * @param tgt
+   *   The person receiving the transaction.
+   * @param amt
+   *   The funds transfered.
+   * @param sig
+   *   The source's Ed25519 signature of the unsigned encoding of the
+   *   transaction.
+   */
+  public Transaction(String src, String tgt, int amt, byte[] sig) {
+    this.source = src;
+    this.target = tgt;
+    this.amount = amt;
+    this.signature = sig.clone();
+    byte[] body = encode(src, tgt, amt);
+    this.encoding = ByteBuffer.allocate(body.length + Integer.BYTES + sig.length)
+        .put(body)
+        .putInt(sig.length).put(sig)
+        .array();
+  } // Transaction(String, String, int, byte[])
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Build the canonical encoding of a transaction: the length and UTF-8
+   * bytes of the source, the length and UTF-8 bytes of the target, and
+   * the amount, with all numbers as big-endian 4-byte ints.
+   *
+   * @param src
+   *   The source of the transaction.
+   * @param tgt
+   *   The target of the transaction.
+   * @param amt
+   *   The amount of the transaction.
+   *
+   * @return the encoding.
+   */
+  static byte[] encode(String src, String tgt, int amt) {
+    byte[] srcBytes = src.getBytes(StandardCharsets.UTF_8);
+    byte[] tgtBytes = tgt.getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocate(3 * Integer.BYTES + srcBytes.length + tgtBytes.length)
+        .putInt(srcBytes.length).put(srcBytes)
+        .putInt(tgtBytes.length).put(tgtBytes)
+        .putInt(amt)
+        .array();
+  } // encode(String, String, int)
+
+  /**
+   * Read the length of a field of an encoding.
+   *
+   * @param buf
+   *   The encoding, positioned at the length.
+   *
+   * @return the length.
+   *
+   * @throws IllegalArgumentException if the length is negative or longer
+   *   than the rest of the encoding.
+   */
+  static int fieldLength(ByteBuffer buf) {
+    int length = buf.getInt();
+    if (length < 0 || length > buf.remaining()) {
+      throw new IllegalArgumentException("Bad field length: " + length);
+    } // if
+    return length;
+  } // fieldLength(ByteBuffer)
+
+  /**
+   * Rebuild a transaction from its canonical encoding.
+   *
+   * @param bytes
+   *   The encoding, as from getEncoding.
+   *
+   * @return the transaction.
+   *
+   * @throws IllegalArgumentException if the bytes are not the encoding
+   *   of a transaction.
+   */
+  public static Transaction decode(byte[] bytes) {
+    try {
+      ByteBuffer buf = ByteBuffer.wrap(bytes);
+      byte[] srcBytes = new byte[fieldLength(buf)];
+      buf.get(srcBytes);
+      byte[] tgtBytes = new byte[fieldLength(buf)];
+      buf.get(tgtBytes);
+      int amt = buf.getInt();
+      String src = new String(srcBytes, StandardCharsets.UTF_8);
+      String tgt = new String(tgtBytes, StandardCharsets.UTF_8);
+      if (!buf.hasRemaining()) {
+        return new Transaction(src, tgt, amt);
+      } // if
+      byte[] sig = new byte[fieldLength(buf)];
+      buf.get(sig);
+      if (buf.hasRemaining()) {
+        throw new IllegalArgumentException("Extra bytes after transaction");
+      } // if
+      return new Transaction(src, tgt, amt, sig);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated transaction", e);
+    } // try/catch
+  } // decode(byte[])
+
+  /**
+   * Create a transaction signed by its source.
+   *
+   * @param src
+   *   The source of the transaction.
+   * @param tgt
+   *   The person receiving the transaction.
+   * @param amt
+   *   The funds transfered.
+   * @param key
+   *   The source's Ed25519 private key.
+   *
+   * @return the signed transaction.
+   *
+   * @throws IllegalArgumentException if the key cannot be used to sign.
+   */
+  public static Transaction sign(String src, String tgt, int amt, PrivateKey key) {
+    try {
+      Signature signer = Signature.getInstance(SignatureVerifier.ALGORITHM);
+      signer.initSign(key);
+      signer.update(encode(src, tgt, amt));
+      return new Transaction(src, tgt, amt, signer.sign());
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("Cannot sign with key: " + key, e);
+    } // try/catch
+  } // sign(String, String, int, PrivateKey)
+
   // +---------+-----------------------------------------------------
   // | Methods |
   // +---------+
@@ -78,6 +238,65 @@ public class Transaction {
     return this.amount;
   } // getAmount()
 
+  /**
+   * Determine if the transaction has been signed.
+   *
+   * @return true if it has a signature and false otherwise.
+   */
+  public boolean isSigned() {
+    return this.signature != null;
+  } // isSigned()
+
+  /**
+   * Get the signature of the transaction.
+   *
+   * @return a copy of the signature (or null, if it is unsigned).
+   */
+  public byte[] getSignature() {
+    return (this.signature == null) ? null : this.signature.clone();
+  } // getSignature()
+
+  /**
+   * Get the bytes covered by the signature, which are the canonical
+   * encoding of the transaction without its signature.
+   *
+   * @return those bytes.
+   */
+  byte[] getSignedBytes() {
+    return (this.signature == null) ? this.encoding.clone()
+        : encode(this.source, this.target, this.amount);
+  } // getSignedBytes()
+
+  /**
+   * Get the canonical encoding of the transaction. For a signed
+   * transaction, the length and bytes of the signature follow the
+   * amount.
+   *
+   * @return a copy of the encoding.
+   */
+  public byte[] getEncoding() {
+    return this.encoding.clone();
+  } // getEncoding()
+
+  /**
+   * Get the ID of the transaction, which is the SHA-256 hash of its
+   * canonical encoding. The ID is computed once and then remembered.
+   *
+   * @return the ID.
+   */
+  public Hash getId() {
+    Hash result = this.id;
+    if (result == null) {
+      try {
+        result = new Hash(MessageDigest.getInstance("sha-256").digest(this.encoding));
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("Cannot load hash algorithm", e);
+      } // try/catch
+      this.id = result;
+    } // if
+    return result;
+  } // getId()
+
   /**
    * Convert to string form.
    *
@@ -93,12 +312,14 @@ public class Transaction {
   } // toString()
 
   /**
-   * Get a hash code.
+   * Get a hash code, taken from the first bytes of the ID.
    *
    * @return the hash code.
    */
   public int hashCode() {
-    return this.toString().hashCode();
+    Hash h = this.getId();
+    return (h.get(0) << 24) | ((h.get(1) & 0xFF) << 16) | ((h.get(2) & 0xFF) << 8)
+        | (h.get(3) & 0xFF);
   } // hashCode()
 
   /**
@@ -121,12 +342,10 @@ public class Transaction {
    * @param other
    *   The transaction to compare to.
    *
-   * @return true if the other object has the same source, target,
-   *   and value.
+   * @return true if the other object has the same canonical encoding
+   *   (and therefore the same source, target, value, and signature).
    */
   public boolean equals(Transaction other) {
-    return other.source.equals(this.source)
-        && other.target.equals(this.target)
-        && other.amount == this.amount;
+    return Arrays.equals(this.encoding, other.encoding);
   } // equals(Transaction)
 } // class Transaction
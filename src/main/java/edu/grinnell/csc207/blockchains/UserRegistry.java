@@ -0,0 +1,175 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The people who participate in a blockchain, along with the number of
+ * transactions in which each appears. Counts are stored in an array
+ * indexed by account ID, and the IDs of the current users are kept
+ * together in a second array, so that listing the users takes time
+ * proportional to their number rather than to the number of accounts
+ * ever seen. A user who leaves is replaced by the last user in the
+ * list; since remove undoes add, and the chain only removes its last
+ * block, that user is the last one anyway, so users stay listed in the
+ * order in which they joined.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class UserRegistry {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The IDs of the accounts. */
+  AccountDictionary accounts;
+
+  /** The number of transactions in which each account appears. */
+  int[] counts;
+
+  /** The IDs of the accounts that appear in at least one transaction. */
+  int[] live;
+
+  /** The position of each account in live (or -1, if it is not there). */
+  int[] positions;
+
+  /** The number of accounts that appear in at least one transaction. */
+  int size;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new registry with no users.
+   *
+   * @param iAccounts
+   *   The IDs of the accounts.
+   */
+  public UserRegistry(AccountDictionary iAccounts) {
+    this.accounts = iAccounts;
+    this.counts = new int[iAccounts.size()];
+    this.live = new int[iAccounts.size()];
+    this.positions = new int[iAccounts.size()];
+    Arrays.fill(this.positions, -1);
+    this.size = 0;
+  } // UserRegistry(AccountDictionary)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Count one more appearance of an account.
+   *
+   * @param id
+   *   The ID of the account (or DEPOSIT, which is ignored).
+   */
+  void increment(int id) {
+    if (id == AccountDictionary.DEPOSIT) {
+      return;
+    } // if
+    if (id >= this.counts.length) {
+      int length = Math.max(id + 1, Math.max(this.accounts.size(), this.counts.length * 2));
+      int before = this.counts.length;
+      this.counts = Arrays.copyOf(this.counts, length);
+      this.live = Arrays.copyOf(this.live, length);
+      this.positions = Arrays.copyOf(this.positions, length);
+      Arrays.fill(this.positions, before, length, -1);
+    } // if
+    if (this.counts[id]++ == 0) {
+      this.positions[id] = this.size;
+      this.live[this.size++] = id;
+    } // if
+  } // increment(int)
+
+  /**
+   * Count one fewer appearance of an account.
+   *
+   * @param id
+   *   The ID of the account (or DEPOSIT, which is ignored).
+   */
+  void decrement(int id) {
+    if (id != AccountDictionary.DEPOSIT && --this.counts[id] == 0) {
+      int last = this.live[--this.size];
+      this.live[this.positions[id]] = last;
+      this.positions[last] = this.positions[id];
+      this.positions[id] = -1;
+    } // if
+  } // decrement(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Record the source and target of a transaction.
+   *
+   * @param source
+   *   The ID of the source.
+   * @param target
+   *   The ID of the target.
+   */
+  public void add(int source, int target) {
+    this.increment(source);
+    this.increment(target);
+  } // add(int, int)
+
+  /**
+   * Forget the source and target of a transaction that was added.
+   *
+   * @param source
+   *   The ID of the source.
+   * @param target
+   *   The ID of the target.
+   */
+  public void remove(int source, int target) {
+    this.decrement(target);
+    this.decrement(source);
+  } // remove(int, int)
+
+  /**
+   * Determine if an account appears in any transaction.
+   *
+   * @param id
+   *   The ID of the account.
+   *
+   * @return true if it appears and false otherwise.
+   */
+  public boolean contains(int id) {
+    return id >= 0 && id < this.counts.length && this.counts[id] > 0;
+  } // contains(int)
+
+  /**
+   * Get the number of users.
+   *
+   * @return the number of users.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Get all the users, in the order in which they joined.
+   *
+   * @return an iterator of the users.
+   */
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      int pos = 0;
+
+      public boolean hasNext() {
+        return this.pos < UserRegistry.this.size;
+      } // hasNext()
+
+      public String next() {
+        if (!this.hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        return UserRegistry.this.accounts.nameOf(UserRegistry.this.live[this.pos++]);
+      } // next()
+    };
+  } // iterator()
+} // class UserRegistry
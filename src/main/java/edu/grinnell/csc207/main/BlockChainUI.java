@@ -1,13 +1,22 @@
 package edu.grinnell.csc207.main;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 
 import edu.grinnell.csc207.blockchains.Block;
 import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.ChainExporter;
 import edu.grinnell.csc207.blockchains.HashValidator;
+import edu.grinnell.csc207.blockchains.InvalidBlockException;
 import edu.grinnell.csc207.blockchains.Transaction;
 import edu.grinnell.csc207.util.IOUtils;
 
@@ -53,6 +62,134 @@ public class BlockChainUI {
         quit: quits the program""");
   } // instructions(PrintWriter)
 
+  /**
+   * Run one line of a batch. A line holding commas is a transaction,
+   * source first, to mine and append. Any other line is a command
+   * followed by its arguments, separated by spaces: append (with a
+   * source, target, and amount, or just a target and amount for a
+   * deposit), remove, check, users, balance (with a user),
+   * transactions, blocks, or export (with csv, jsonl, or binary, and the
+   * path of the file to write).
+   *
+   * @param chain
+   *   The chain.
+   * @param line
+   *   The line.
+   * @param pen
+   *   Where to print the results.
+   *
+   * @return a description of what was done.
+   *
+   * @throws IllegalArgumentException if the line is malformed, the
+   *   amount is not a number or is negative, the source lacks the
+   *   funds, or the block cannot be appended.
+   * @throws InvalidBlockException if the chain does not check out.
+   * @throws IOException if the export cannot be written.
+   */
+  static String runLine(BlockChain chain, String line, PrintWriter pen)
+      throws InvalidBlockException, IOException {
+    String[] words = line.contains(",") ? ("append," + line).split(",", -1)
+        : line.trim().split("\\s+");
+    String command = words[0].toLowerCase();
+    if (command.equals("append") && (words.length == 3 || words.length == 4)) {
+      String source = (words.length == 4) ? words[1].trim() : "";
+      String target = words[words.length - 2].trim();
+      int amount;
+      try {
+        amount = Integer.parseInt(words[words.length - 1].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Bad amount: " + words[words.length - 1]);
+      } // try/catch
+      if (amount < 0) {
+        throw new IllegalArgumentException("Amount must not be negative: " + amount);
+      } else if (target.equals("")) {
+        throw new IllegalArgumentException("Missing target");
+      } else if (!source.equals("") && chain.balance(source) < amount) {
+        throw new IllegalArgumentException("Source does not have enough funds");
+      } // if
+      chain.append(chain.mine(new Transaction(source, target, amount)));
+      return "appended block " + (chain.getSize() - 1);
+    } else if (command.equals("remove") && words.length == 1) {
+      return chain.removeLast() ? "removed last block" : "could not remove last block";
+    } else if (command.equals("check") && words.length == 1) {
+      chain.check();
+      return "the blockchain checks out";
+    } else if (command.equals("balance") && words.length == 2) {
+      return words[1] + "'s balance is " + chain.balance(words[1]);
+    } else if (command.equals("users") && words.length == 1) {
+      for (Iterator<String> it = chain.users(); it.hasNext();) {
+        pen.println(it.next());
+      } // for
+      return "listed users";
+    } else if (command.equals("transactions") && words.length == 1) {
+      for (Iterator<Transaction> it = chain.iterator(); it.hasNext();) {
+        pen.println(it.next());
+      } // for
+      return "listed transactions";
+    } else if (command.equals("blocks") && words.length == 1) {
+      for (Iterator<Block> it = chain.blocks(); it.hasNext();) {
+        pen.println(it.next());
+      } // for
+      return "listed blocks";
+    } else if (command.equals("export") && words.length == 3) {
+      ChainExporter.Format format = switch (words[1].toLowerCase()) {
+        case "csv" -> ChainExporter.Format.CSV;
+        case "jsonl" -> ChainExporter.Format.JSON_LINES;
+        case "binary" -> ChainExporter.Format.BINARY;
+        default -> throw new IllegalArgumentException("Unknown format: " + words[1]);
+      };
+      try (FileChannel out = FileChannel.open(Path.of(words[2]), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        return "exported " + new ChainExporter(chain, format).export(out, 0, Integer.MAX_VALUE,
+            Runtime.getRuntime().availableProcessors()) + " blocks";
+      } // try
+    } // if/else
+    throw new IllegalArgumentException("invalid command: '" + line + "'");
+  } // runLine(BlockChain, String, PrintWriter)
+
+  /**
+   * Run every line of a batch, timing each one. Blank lines and lines
+   * starting with # are skipped, and a line that fails for any reason is
+   * reported, with its line number, without stopping the rest.
+   *
+   * @param chain
+   *   The chain.
+   * @param eyes
+   *   Where to read the batch.
+   * @param pen
+   *   Where to print the results.
+   *
+   * @return the number of lines that failed.
+   *
+   * @throws IOException if the batch cannot be read.
+   */
+  static int runBatch(BlockChain chain, BufferedReader eyes, PrintWriter pen)
+      throws IOException {
+    int lines = 0;
+    int failures = 0;
+    long start = System.nanoTime();
+    for (String line = eyes.readLine(); line != null; line = eyes.readLine()) {
+      lines++;
+      if (line.isBlank() || line.startsWith("#")) {
+        continue;
+      } // if
+      long before = System.nanoTime();
+      try {
+        String result = runLine(chain, line, pen);
+        pen.printf("%d: %s (%.3f ms)%n", lines, result, (System.nanoTime() - before) / 1e6);
+      } catch (IllegalArgumentException | InvalidBlockException | IOException e) {
+        failures++;
+        pen.printf("%d: failed: %s%n", lines, e.getMessage());
+      } catch (RuntimeException e) {
+        failures++;
+        pen.printf("%d: failed: %s%n", lines, e);
+      } // try/catch
+    } // for
+    pen.printf("%d lines, %d failed, %.3f ms%n", lines, failures,
+        (System.nanoTime() - start) / 1e6);
+    return failures;
+  } // runBatch(BlockChain, BufferedReader, PrintWriter)
+
   // +------+--------------------------------------------------------
   // | Main |
   // +------+
@@ -61,11 +198,18 @@ public class BlockChainUI {
    * Run the UI.
    *
    * @param args
-   *   Command-line arguments (currently ignored).
+   *   Command-line arguments: none, to prompt for commands, or --batch
+   *   and the path of a batch to run (or -, to read the batch from
+   *   standard input).
    */
   public static void main(String[] args) throws Exception {
-    PrintWriter pen = new PrintWriter(System.out, true);
-    BufferedReader eyes = new BufferedReader(new InputStreamReader(System.in));
+    boolean batch = args.length == 2 && args[0].equals("--batch");
+    PrintWriter pen = batch
+        ? new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)))
+        : new PrintWriter(System.out, true);
+    BufferedReader eyes = (batch && !args[1].equals("-"))
+        ? Files.newBufferedReader(Path.of(args[1]))
+        : new BufferedReader(new InputStreamReader(System.in));
 
     // Set up our blockchain.
     /* HashValidator validator =
@@ -87,6 +231,13 @@ public class BlockChainUI {
 
     BlockChain chain = new BlockChain(standardValidator);
 
+    if (batch) {
+      int failures = runBatch(chain, eyes, pen);
+      eyes.close();
+      pen.close();
+      System.exit((failures == 0) ? 0 : 1);
+    } // if
+
     instructions(pen);
 
     boolean done = false;
@@ -117,7 +268,9 @@ public class BlockChainUI {
             amount = IOUtils.readInt(pen, eyes, "Amount: ");
             nonce = IOUtils.readLong(pen, eyes, "Nonce: ");
             Block b = chain.mine(new Transaction(source, target, amount));
-            if (!source.equals("") && chain.balance(source) < amount) {
+            if (amount < 0) {
+              pen.println("Amount must not be negative, please try again.");
+            } else if (!source.equals("") && chain.balance(source) < amount) {
               pen.println("Source does not have enough funds, please try again.");
             } else if (nonce != b.getNonce()) {
               pen.println("Incorrect nonce for information provided.");
@@ -142,11 +295,12 @@ public class BlockChainUI {
           break;
 
         case "check":
-          if (chain.isCorrect()) {
+          try {
+            chain.check();
             pen.println("The blockchain checks out.");
-          } else {
-            pen.println("Something is wrong");
-          } // if/else
+          } catch (InvalidBlockException e) {
+            pen.println("Something is wrong: " + e.getMessage());
+          } // try/catch
           break;
 
         case "help":
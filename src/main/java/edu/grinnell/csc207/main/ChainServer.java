@@ -0,0 +1,527 @@
+package edu.grinnell.csc207.main;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.grinnell.csc207.blockchains.Block;
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.ChainExporter;
+import edu.grinnell.csc207.blockchains.Hash;
+import edu.grinnell.csc207.blockchains.HashValidator;
+import edu.grinnell.csc207.blockchains.Mempool;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+/**
+ * An HTTP server that answers questions about a blockchain in JSON and
+ * accepts new transactions. Each request is handled on its own virtual
+ * thread where the JVM has them (and on a cached pool of platform
+ * threads otherwise), so many clients can wait on the chain at once.
+ * Accepted transactions are mined by a single background thread, so
+ * requests never wait for mining.
+ *
+ * <p>The server answers these requests.</p>
+ * <ul>
+ *   <li>GET /status: the size and last hash of the chain, and the number
+ *     of users.</li>
+ *   <li>GET /balance?user=U: a user's balance. With several user
+ *     parameters, the balances of all of them, in a list.</li>
+ *   <li>GET /users: every user.</li>
+ *   <li>GET /blocks?from=F&amp;to=T: the blocks from number F up to (but
+ *     not including) number T.</li>
+ *   <li>GET /blocks?hash=H&amp;count=N: N blocks, starting with the one
+ *     whose hash is H.</li>
+ *   <li>POST /transactions with source (empty, for a deposit), target,
+ *     amount, and (optionally) a hex signature, as form fields or query
+ *     parameters: accept the transaction, answering with its ID, and
+ *     have the miner add it to the chain shortly afterwards. Deposits
+ *     create funds, so they are refused unless the operator allows
+ *     them.</li>
+ *   <li>POST /batch with one GET request path per line: the answers to
+ *     all of them, in a list of objects with a status and a body.</li>
+ * </ul>
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class ChainServer {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The most blocks returned by one request. */
+  static final int MAX_BLOCKS = 1000;
+
+  /** The most requests in one batch. */
+  static final int MAX_BATCH = 1000;
+
+  /** The number of transactions that may wait to be mined. */
+  static final int POOL_SIZE = 1024;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain. */
+  BlockChain chain;
+
+  /** The pool through which transactions reach the chain. */
+  Mempool pool;
+
+  /** The HTTP server. */
+  HttpServer server;
+
+  /** The executor that runs the requests. */
+  ExecutorService executor;
+
+  /** The single thread that mines accepted transactions into the chain. */
+  ExecutorService miner;
+
+  /** Whether the miner has been asked to run and has not started yet. */
+  AtomicBoolean mining;
+
+  /** Whether deposits are accepted. */
+  boolean deposits;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a server for a chain that listens on a port of the local
+   * machine and refuses deposits.
+   *
+   * @param iChain
+   *   The chain.
+   * @param port
+   *   The port (or 0, to pick any free port).
+   *
+   * @throws IOException if the server cannot listen on the port.
+   */
+  public ChainServer(BlockChain iChain, int port) throws IOException {
+    this(iChain, port, false);
+  } // ChainServer(BlockChain, int)
+
+  /**
+   * Create a server for a chain that listens on a port of the local
+   * machine.
+   *
+   * @param iChain
+   *   The chain.
+   * @param port
+   *   The port (or 0, to pick any free port).
+   * @param iDeposits
+   *   Whether to accept deposits.
+   *
+   * @throws IOException if the server cannot listen on the port.
+   */
+  public ChainServer(BlockChain iChain, int port, boolean iDeposits) throws IOException {
+    this.chain = iChain;
+    this.deposits = iDeposits;
+    this.pool = new Mempool(iChain, POOL_SIZE);
+    this.server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.executor = newRequestExecutor();
+    this.miner = Executors.newSingleThreadExecutor();
+    this.mining = new AtomicBoolean(false);
+    this.server.setExecutor(this.executor);
+    this.server.createContext("/", this::handle);
+  } // ChainServer(BlockChain, int, boolean)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make an executor that runs each task on a new virtual thread, if
+   * the JVM supports them, or on a cached pool of threads otherwise.
+   *
+   * @return the executor.
+   */
+  static ExecutorService newRequestExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    } // try/catch
+  } // newRequestExecutor()
+
+  /**
+   * Read the parameters of a query string or form.
+   *
+   * @param query
+   *   The query string (or null, if there is none).
+   * @param params
+   *   The parameters read so far, to which these are added.
+   */
+  static void parse(String query, Map<String, List<String>> params) {
+    if (query == null || query.isEmpty()) {
+      return;
+    } // if
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      String key = URLDecoder.decode((eq < 0) ? pair : pair.substring(0, eq),
+          StandardCharsets.UTF_8);
+      String value = (eq < 0) ? "" : URLDecoder.decode(pair.substring(eq + 1),
+          StandardCharsets.UTF_8);
+      params.computeIfAbsent(key, (k) -> new ArrayList<String>()).add(value);
+    } // for
+  } // parse(String, Map)
+
+  /**
+   * Get a required parameter.
+   *
+   * @param params
+   *   The parameters.
+   * @param name
+   *   The name of the parameter.
+   *
+   * @return its first value.
+   *
+   * @throws IllegalArgumentException if it is missing.
+   */
+  static String param(Map<String, List<String>> params, String name) {
+    List<String> values = params.get(name);
+    if (values == null) {
+      throw new IllegalArgumentException("Missing parameter: " + name);
+    } // if
+    return values.get(0);
+  } // param(Map, String)
+
+  /**
+   * Get an optional number parameter.
+   *
+   * @param params
+   *   The parameters.
+   * @param name
+   *   The name of the parameter.
+   * @param otherwise
+   *   The value if it is missing.
+   *
+   * @return its first value, as a number.
+   *
+   * @throws IllegalArgumentException if it is not a number.
+   */
+  static int intParam(Map<String, List<String>> params, String name, int otherwise) {
+    return params.containsKey(name) ? Integer.parseInt(param(params, name)) : otherwise;
+  } // intParam(Map, String, int)
+
+  /**
+   * Get the answer to a request.
+   *
+   * @param method
+   *   The HTTP method.
+   * @param path
+   *   The path of the request.
+   * @param params
+   *   The parameters of the request.
+   * @param body
+   *   The body of the request.
+   *
+   * @return the answer.
+   *
+   * @throws IllegalArgumentException if the parameters are incorrect.
+   */
+  Reply answer(String method, String path, Map<String, List<String>> params, String body) {
+    boolean get = method.equals("GET");
+    if (get && path.equals("/status")) {
+      return new Reply(200, "{\"size\":" + this.chain.getSize()
+          + ",\"hash\":" + ChainExporter.quoteJson(this.chain.getHash().toString())
+          + ",\"users\":" + this.chain.userCount()
+          + ",\"pending\":" + this.pool.size() + "}");
+    } else if (get && path.equals("/balance")) {
+      List<String> users = params.getOrDefault("user", List.of());
+      if (users.isEmpty()) {
+        throw new IllegalArgumentException("Missing parameter: user");
+      } // if
+      ArrayList<String> balances = new ArrayList<String>();
+      for (String user : users) {
+        balances.add("{\"user\":" + ChainExporter.quoteJson(user)
+            + ",\"balance\":" + this.chain.balance(user) + "}");
+      } // for
+      return new Reply(200, (balances.size() == 1) ? balances.get(0)
+          : "[" + String.join(",", balances) + "]");
+    } else if (get && path.equals("/users")) {
+      ArrayList<String> users = new ArrayList<String>();
+      for (Iterator<String> it = this.chain.users(); it.hasNext();) {
+        users.add(ChainExporter.quoteJson(it.next()));
+      } // for
+      return new Reply(200, "[" + String.join(",", users) + "]");
+    } else if (get && path.equals("/blocks")) {
+      return this.blocks(params);
+    } else if (method.equals("POST") && path.equals("/transactions")) {
+      return this.submit(params);
+    } else if (method.equals("POST") && path.equals("/batch")) {
+      return this.batch(body);
+    } // if/else
+    return new Reply(404, "{\"error\":"
+        + ChainExporter.quoteJson("No such request: " + method + " " + path) + "}");
+  } // answer(String, String, Map, String)
+
+  /**
+   * Get a range of blocks.
+   *
+   * @param params
+   *   Either from and (optionally) to, or hash and (optionally) count.
+   *
+   * @return the answer.
+   *
+   * @throws IllegalArgumentException if the parameters are incorrect.
+   */
+  Reply blocks(Map<String, List<String>> params) {
+    int from;
+    int to;
+    if (params.containsKey("hash")) {
+      from = this.chain.heightOf(Hash.fromString(param(params, "hash")));
+      if (from < 0) {
+        return new Reply(404, "{\"error\":\"No such block\"}");
+      } // if
+      to = from + intParam(params, "count", 1);
+    } else {
+      from = intParam(params, "from", 0);
+      to = intParam(params, "to", from + MAX_BLOCKS);
+    } // if/else
+    if (from < 0 || to < from) {
+      throw new IllegalArgumentException("Bad range: " + from + " to " + to);
+    } // if
+    ArrayList<String> blocks = new ArrayList<String>();
+    for (int i = from; i < Math.min(to, from + MAX_BLOCKS); i++) {
+      Block blk = this.chain.blockAt(i);
+      if (blk == null) {
+        break;
+      } // if
+      blocks.add(ChainExporter.toJson(blk));
+    } // for
+    return new Reply(200, "[" + String.join(",", blocks) + "]");
+  } // blocks(Map)
+
+  /**
+   * Have the miner mine the transactions waiting in the pool, unless it
+   * has already been asked to and has not started.
+   */
+  void scheduleMining() {
+    if (this.mining.compareAndSet(false, true)) {
+      this.miner.execute(() -> {
+        this.mining.set(false);
+        this.pool.mine(POOL_SIZE);
+      });
+    } // if
+  } // scheduleMining()
+
+  /**
+   * Accept a transaction to be mined into the chain.
+   *
+   * @param params
+   *   The source (empty, for a deposit), target, amount, and
+   *   (optionally) signature.
+   *
+   * @return the answer, with the ID of the transaction (or an error, if
+   *   it is a deposit and deposits are refused, or the pool is full).
+   *
+   * @throws IllegalArgumentException if the transaction is incorrect or
+   *   is rejected.
+   */
+  Reply submit(Map<String, List<String>> params) {
+    String source = param(params, "source");
+    String target = param(params, "target");
+    int amount = Integer.parseInt(param(params, "amount"));
+    if (source.isEmpty() && !this.deposits) {
+      return new Reply(403, "{\"error\":\"Deposits are not accepted\"}");
+    } // if
+    Transaction t = params.containsKey("signature")
+        ? new Transaction(source, target, amount,
+            Hash.fromString(param(params, "signature")).getBytes())
+        : new Transaction(source, target, amount);
+    if (!this.pool.offer(t)) {
+      return new Reply(503, "{\"error\":\"Too many transactions waiting\"}");
+    } // if
+    this.scheduleMining();
+    return new Reply(202, "{\"id\":" + ChainExporter.quoteJson(t.getId().toString()) + "}");
+  } // submit(Map)
+
+  /**
+   * Answer a batch of GET requests.
+   *
+   * @param body
+   *   The paths of the requests, one per line.
+   *
+   * @return the answers, in order.
+   *
+   * @throws IllegalArgumentException if there are too many requests.
+   */
+  Reply batch(String body) {
+    String[] lines = body.split("\r?\n");
+    if (lines.length > MAX_BATCH) {
+      throw new IllegalArgumentException("Too many requests: " + lines.length);
+    } // if
+    ArrayList<String> replies = new ArrayList<String>();
+    for (String line : lines) {
+      if (!line.isBlank()) {
+        URI uri = URI.create(line.trim());
+        Reply reply = this.answerSafely("GET", uri.getPath(), uri.getRawQuery(), "");
+        replies.add("{\"status\":" + reply.status + ",\"body\":" + reply.json + "}");
+      } // if
+    } // for
+    return new Reply(200, "[" + String.join(",", replies) + "]");
+  } // batch(String)
+
+  /**
+   * Get the answer to a request, turning a bad request into an answer
+   * that describes the problem, and any other failure into an answer
+   * that says only that something went wrong.
+   *
+   * @param method
+   *   The HTTP method.
+   * @param path
+   *   The path of the request.
+   * @param query
+   *   The raw query string (or null, if there is none).
+   * @param body
+   *   The body of the request.
+   *
+   * @return the answer.
+   */
+  Reply answerSafely(String method, String path, String query, String body) {
+    try {
+      HashMap<String, List<String>> params = new HashMap<String, List<String>>();
+      parse(query, params);
+      if (method.equals("POST") && !path.equals("/batch")) {
+        parse(body.trim(), params);
+      } // if
+      return this.answer(method, path, params, body);
+    } catch (IllegalArgumentException e) {
+      return new Reply(400, "{\"error\":"
+          + ChainExporter.quoteJson(String.valueOf(e.getMessage())) + "}");
+    } catch (RuntimeException e) {
+      return new Reply(500, "{\"error\":\"Internal error\"}");
+    } // try/catch
+  } // answerSafely(String, String, String, String)
+
+  /**
+   * Handle one HTTP exchange.
+   *
+   * @param exchange
+   *   The exchange.
+   *
+   * @throws IOException if the reply cannot be sent.
+   */
+  void handle(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody();
+         OutputStream out = exchange.getResponseBody()) {
+      String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      URI uri = exchange.getRequestURI();
+      Reply reply = this.answerSafely(exchange.getRequestMethod(), uri.getPath(),
+          uri.getRawQuery(), body);
+      byte[] bytes = reply.json.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(reply.status, bytes.length);
+      out.write(bytes);
+    } // try
+  } // handle(HttpExchange)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Start answering requests.
+   */
+  public void start() {
+    this.server.start();
+  } // start()
+
+  /**
+   * Stop answering requests.
+   */
+  public void stop() {
+    this.server.stop(0);
+    this.executor.shutdown();
+    this.miner.shutdown();
+  } // stop()
+
+  /**
+   * Get the port the server listens on.
+   *
+   * @return the port.
+   */
+  public int getPort() {
+    return this.server.getAddress().getPort();
+  } // getPort()
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Serve a new chain.
+   *
+   * @param args
+   *   The port to listen on (8080, if there is none), and
+   *   --allow-deposits to accept deposits.
+   */
+  public static void main(String[] args) throws Exception {
+    HashValidator standardValidator =
+        (hash) -> (hash.length() >= 3) && (hash.get(0) == 0)
+          && (hash.get(1) == 0) && (hash.get(2) == 0);
+    int port = 8080;
+    boolean allowDeposits = false;
+    for (String arg : args) {
+      if (arg.equals("--allow-deposits")) {
+        allowDeposits = true;
+      } else {
+        port = Integer.parseInt(arg);
+      } // if/else
+    } // for
+    ChainServer server =
+        new ChainServer(new BlockChain(standardValidator), port, allowDeposits);
+    server.start();
+    PrintWriter pen = new PrintWriter(System.out, true);
+    pen.println("Serving on port " + server.getPort());
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The answer to a request.
+   */
+  static class Reply {
+    /** The HTTP status. */
+    int status;
+
+    /** The body, in JSON. */
+    String json;
+
+    /**
+     * Create an answer.
+     *
+     * @param iStatus
+     *   The HTTP status.
+     * @param iJson
+     *   The body, in JSON.
+     */
+    Reply(int iStatus, String iJson) {
+      this.status = iStatus;
+      this.json = iJson;
+    } // Reply(int, String)
+  } // class Reply
+} // class ChainServer
@@ -0,0 +1,141 @@
+package edu.grinnell.csc207.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, stored without boxing.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class IntList {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The initial capacity of a list. */
+  static final int INITIAL_CAPACITY = 4;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The values in the list, followed by unused space. */
+  int[] values;
+
+  /** The number of values in the list. */
+  int size;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty, list.
+   */
+  public IntList() {
+    this.values = new int[INITIAL_CAPACITY];
+    this.size = 0;
+  } // IntList()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add a value to the end of the list.
+   *
+   * @param value
+   *   The value to add.
+   */
+  public void add(int value) {
+    if (this.size == this.values.length) {
+      this.values = Arrays.copyOf(this.values, this.values.length * 2);
+    } // if
+    this.values[this.size++] = value;
+  } // add(int)
+
+  /**
+   * Get the value at an index.
+   *
+   * @param i
+   *   The index, between 0 (inclusive) and size() (exclusive).
+   *
+   * @return the value at that index.
+   */
+  public int get(int i) {
+    if (i < 0 || i >= this.size) {
+      throw new IndexOutOfBoundsException(i);
+    } // if
+    return this.values[i];
+  } // get(int)
+
+  /**
+   * Replace the value at an index.
+   *
+   * @param i
+   *   The index, between 0 (inclusive) and size() (exclusive).
+   * @param value
+   *   The new value.
+   */
+  public void set(int i, int value) {
+    if (i < 0 || i >= this.size) {
+      throw new IndexOutOfBoundsException(i);
+    } // if
+    this.values[i] = value;
+  } // set(int, int)
+
+  /**
+   * Remove the last value in the list.
+   *
+   * @return the value removed.
+   */
+  public int removeLast() {
+    if (this.size == 0) {
+      throw new IndexOutOfBoundsException(-1);
+    } // if
+    return this.values[--this.size];
+  } // removeLast()
+
+  /**
+   * Get the number of values in the list.
+   *
+   * @return the number of values.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Determine if the list is empty.
+   *
+   * @return true if the list has no values and false otherwise.
+   */
+  public boolean isEmpty() {
+    return this.size == 0;
+  } // isEmpty()
+
+  /**
+   * Find the last value that is no larger than a key, in a list whose
+   * values are in increasing order.
+   *
+   * @param key
+   *   The key to search for.
+   *
+   * @return the index of that value (or -1, if every value is larger
+   *   than the key).
+   */
+  public int floorIndex(int key) {
+    int lo = 0;
+    int hi = this.size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (this.values[mid] <= key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      } // if/else
+    } // while
+    return lo - 1;
+  } // floorIndex(int)
+} // class IntList
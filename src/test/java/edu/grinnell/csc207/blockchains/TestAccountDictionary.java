@@ -0,0 +1,45 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our AccountDictionary class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestAccountDictionary {
+  /**
+   * Test that names get dense IDs in order of appearance.
+   */
+  @Test
+  public void testIntern() {
+    AccountDictionary accounts = new AccountDictionary();
+    assertEquals(AccountDictionary.DEPOSIT, accounts.lookup(""), "the empty name");
+    assertEquals(-1, accounts.lookup("A"), "unknown name");
+    assertEquals(1, accounts.intern("A"), "first name");
+    assertEquals(2, accounts.intern("B"), "second name");
+    assertEquals(1, accounts.intern("A"), "repeated name");
+    assertEquals(2, accounts.lookup("B"), "known name");
+    assertEquals("B", accounts.nameOf(2), "name with an ID");
+    assertEquals(3, accounts.size(), "number of names");
+  } // testIntern()
+
+  /**
+   * Test that IDs survive the table growing.
+   */
+  @Test
+  public void testGrow() {
+    AccountDictionary accounts = new AccountDictionary();
+    for (int i = 1; i <= 1000; i++) {
+      assertEquals(i, accounts.intern("user" + i), "new name " + i);
+    } // for
+    for (int i = 1; i <= 1000; i++) {
+      assertEquals(i, accounts.lookup("user" + i), "old name " + i);
+      assertEquals("user" + i, accounts.nameOf(i), "name of " + i);
+    } // for
+    assertEquals(1001, accounts.size(), "number of names");
+  } // testGrow()
+} // class TestAccountDictionary
@@ -0,0 +1,96 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.grinnell.csc207.util.IntList;
+
+/**
+ * Some simple tests of our BalanceIndex class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestBalanceIndex {
+  /**
+   * Convert a list of IDs to an array.
+   */
+  static int[] toArray(IntList ids) {
+    int[] result = new int[ids.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = ids.get(i);
+    } // for
+    return result;
+  } // toArray(IntList)
+
+  /**
+   * Test a small index.
+   */
+  @Test
+  public void testSmall() {
+    BalanceIndex index = new BalanceIndex();
+    index.insert(1, 50);
+    index.insert(2, 100);
+    index.insert(3, 50);
+    index.insert(4, 10);
+    assertEquals(4, index.size(), "size");
+    assertEquals("[2, 1, 3, 4]", Arrays.toString(toArray(index.top(10))), "order");
+    assertEquals("[2, 1]", Arrays.toString(toArray(index.top(2))), "top 2");
+    assertEquals("[1, 3, 4]", Arrays.toString(toArray(index.between(10, 50))),
+        "balances from 10 to 50");
+    assertEquals(3, index.rank(3), "rank of a tie");
+    assertEquals(0, index.rank(7), "rank of a missing account");
+
+    index.remove(2);
+    index.insert(2, 0);
+    assertEquals("[1, 3, 4, 2]", Arrays.toString(toArray(index.top(10))),
+        "after moving 2");
+    assertEquals(4, index.rank(2), "rank after moving");
+  } // testSmall()
+
+  /**
+   * Test a larger index against a simple model.
+   */
+  @Test
+  public void testRandom() {
+    Random rand = new Random(207);
+    BalanceIndex index = new BalanceIndex();
+    int[] balances = new int[500];
+    boolean[] present = new boolean[500];
+    for (int step = 0; step < 5000; step++) {
+      int id = rand.nextInt(balances.length);
+      index.remove(id);
+      present[id] = rand.nextInt(4) != 0;
+      balances[id] = rand.nextInt(200) - 50;
+      if (present[id]) {
+        index.insert(id, balances[id]);
+      } // if
+    } // for
+
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int b = 200; b >= -50; b--) {
+      for (int id = 0; id < balances.length; id++) {
+        if (present[id] && balances[id] == b) {
+          expected.add(id);
+        } // if
+      } // for
+    } // for
+    IntList all = index.top(balances.length);
+    assertEquals(expected.size(), all.size(), "number of accounts");
+    for (int i = 0; i < all.size(); i++) {
+      assertEquals(expected.get(i), all.get(i), "account " + i);
+      assertEquals(i + 1, index.rank(all.get(i)), "rank of account " + i);
+    } // for
+    IntList band = index.between(0, 20);
+    for (int i = 0; i < band.size(); i++) {
+      int b = balances[band.get(i)];
+      assertTrue(b >= 0 && b <= 20, "balance in band");
+    } // for
+  } // testRandom()
+} // class TestBalanceIndex
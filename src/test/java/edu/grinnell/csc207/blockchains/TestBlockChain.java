@@ -3,6 +3,7 @@ package edu.grinnell.csc207.blockchains;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -315,6 +316,28 @@ public class TestBlockChain {
         "A-E, with extra C and D");
   } // testUsers()
 
+  /**
+   * Test that users are listed in the order in which they joined, and
+   * that removing blocks removes the users who joined in them.
+   */
+  @Test
+  public void testUserOrder() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "C", 100)));
+    chain.append(chain.mine(new Transaction("C", "A", 10)));
+    chain.append(chain.mine(new Transaction("D", "B", 0)));
+    ArrayList<String> users = new ArrayList<String>();
+    chain.users().forEachRemaining(users::add);
+    assertEquals(List.of("C", "A", "D", "B"), users, "order of joining");
+
+    chain.removeLast();
+    chain.append(chain.mine(new Transaction("A", "E", 5)));
+    users.clear();
+    chain.users().forEachRemaining(users::add);
+    assertEquals(List.of("C", "A", "E"), users, "after removing D and B");
+    assertEquals(3, chain.userCount(), "three users");
+  } // testUserOrder()
+
   /**
    * Test a long valid sequence.
    */
@@ -458,9 +481,422 @@ public class TestBlockChain {
     Iterator<Block> blocks = chain.blocks();
     blocks.next();
     blocks.next().transaction = new Transaction("", "F", 1000);
-    assertEquals(1010, chain.balance("F"), "F's balance in modified chain");
+    assertEquals(110, chain.balance("F"), "F's balance as of appending");
     assertFalse(chain.isCorrect(), "modified chain is incorrect");
     assertCheckFails(chain, "modified chain is incorrect");
   } // testModifiedChain()
 
+  /**
+   * Test that pruned chains keep their balances and still check out.
+   */
+  @Test
+  public void testPruning() throws Exception {
+    HashValidator v =
+        (hash) ->
+            (hash.length() >= 2) && (hash.get(0) == 12) && (hash.get(1) == 12);
+    BlockChain chain = new BlockChain(v);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("", "B", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    chain.enablePruning(2);
+
+    assertEquals(2, chain.getCheckpoint().getCount(), "blocks covered by checkpoint");
+    Iterator<Block> blocks = chain.blocks();
+    assertTrue(blocks.next().isPruned(), "initial block is pruned");
+    assertTrue(blocks.next().isPruned(), "block 1 is pruned");
+    assertFalse(blocks.next().isPruned(), "block 2 is kept");
+    assertEquals(70, chain.balance("A"), "A's balance after pruning");
+    assertEquals(130, chain.balance("B"), "B's balance after pruning");
+    assertArrayEquals(new String[] {"A", "B"}, users(chain), "users after pruning");
+    assertTrue(chain.isCorrect(), "pruned chain is correct");
+    chain.check();
+
+    chain.append(chain.mine(new Transaction("B", "C", 10)));
+    assertEquals(3, chain.getCheckpoint().getCount(), "checkpoint follows appends");
+    assertEquals(120, chain.balance("B"), "B's balance after more pruning");
+    assertTrue(chain.isCorrect(), "chain is correct after more pruning");
+
+    assertTrue(chain.removeLast(), "removing an unpruned block");
+    assertTrue(chain.removeLast(), "removing the last unpruned block");
+    assertFalse(chain.removeLast(), "removing a pruned block");
+    assertTrue(chain.isCorrect(), "chain is correct after removing");
+    chain.check();
+
+    Block header = new Block(chain.getSize(), chain.getHash(), 0, new Hash(new byte[] {12, 12}));
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+        () -> chain.append(header), "appending a pruned block");
+    assertEquals("Cannot append pruned block 3", e.getMessage(), "why it failed");
+    assertEquals(3, chain.getSize(), "nothing added");
+
+    blocks = chain.blocks();
+    blocks.next();
+    blocks.next().currentHash = new Hash(new byte[] {12, 12});
+    assertFalse(chain.isCorrect(), "modified pruned header");
+    assertCheckFails(chain, "modified pruned header");
+  } // testPruning()
+
+  /**
+   * Test that an overdraft is caught even if it is repaid later.
+   */
+  @Test
+  public void testRepaidOverdraft() throws Exception {
+    HashValidator v =
+        (hash) ->
+            (hash.length() >= 2) && (hash.get(0) == 13) && (hash.get(1) == 13);
+    BlockChain chain = new BlockChain(v);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("B", "A", 50)));
+    chain.append(chain.mine(new Transaction("", "B", 100)));
+    assertEquals(50, chain.balance("B"), "B's final balance is legal");
+    assertFalse(chain.isCorrect(), "B overdrew before the deposit");
+    InvalidBlockException e = assertThrows(InvalidBlockException.class, () -> chain.check());
+    assertEquals(2, e.getBlockNum(), "first failing block");
+  } // testRepaidOverdraft()
+
+  /**
+   * Test that checking a long chain finds the first incorrect block
+   * without changing any blocks.
+   */
+  @Test
+  public void testCheckLongChain() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 10000)));
+    for (int i = 0; i < 1000; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 1)));
+    } // for
+    assertTrue(chain.isCorrect(), "long chain is correct");
+
+    Iterator<Block> blocks = chain.blocks();
+    for (int i = 0; i < 700; i++) {
+      blocks.next();
+    } // for
+    Block tampered = blocks.next();
+    Hash original = tampered.getHash();
+    tampered.transaction = new Transaction("A", "C", 1);
+    InvalidBlockException e = assertThrows(InvalidBlockException.class, () -> chain.check());
+    assertEquals(700, e.getBlockNum(), "first incorrect block");
+    assertEquals(original, tampered.getHash(), "checking leaves the hash alone");
+  } // testCheckLongChain()
+
+  /**
+   * Test that incremental checks only look at the new blocks.
+   */
+  @Test
+  public void testIncrementalCheck() throws Exception {
+    HashValidator v =
+        (hash) ->
+            (hash.length() >= 2) && (hash.get(0) == 14) && (hash.get(1) == 14);
+    BlockChain chain = new BlockChain(v);
+    assertTrue(chain.isCorrectIncremental(), "initial chain");
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 60)));
+    assertTrue(chain.isCorrectIncremental(), "after two appends");
+
+    // Blocks that have already been checked are not checked again.
+    Iterator<Block> blocks = chain.blocks();
+    blocks.next();
+    blocks.next().transaction = new Transaction("", "A", 50);
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    assertTrue(chain.isCorrectIncremental(), "earlier blocks are trusted");
+    assertFalse(chain.isCorrect(), "a full check finds the modified block");
+
+    // The balances as of the last check carry over.
+    BlockChain chain2 = new BlockChain(v);
+    chain2.append(chain2.mine(new Transaction("", "A", 100)));
+    chain2.append(chain2.mine(new Transaction("A", "B", 60)));
+    chain2.check();
+    chain2.append(chain2.mine(new Transaction("A", "B", 60)));
+    InvalidBlockException e =
+        assertThrows(InvalidBlockException.class, () -> chain2.checkIncremental());
+    assertEquals(3, e.getBlockNum(), "A overdrew in the new block");
+
+    // Removing checked blocks lowers the watermark.
+    assertTrue(chain2.removeLast(), "removing the incorrect block");
+    assertTrue(chain2.removeLast(), "removing a checked block");
+    chain2.append(chain2.mine(new Transaction("A", "B", 100)));
+    chain2.checkIncremental();
+    chain2.append(chain2.mine(new Transaction("B", "C", 101)));
+    assertFalse(chain2.isCorrectIncremental(), "B overdrew after the removal");
+  } // testIncrementalCheck()
+
+  /**
+   * Test that sources count as users and that users who no longer
+   * appear are forgotten.
+   */
+  @Test
+  public void testUserCount() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    assertEquals(0, chain.userCount(), "No users");
+
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("B", "A", 10)));
+    assertEquals(2, chain.userCount(), "A and B");
+    assertArrayEquals(new String[] {"A", "B"}, users(chain), "sources are users");
+
+    chain.append(chain.mine(new Transaction("A", "C", 10)));
+    assertEquals(3, chain.userCount(), "A-C");
+    assertTrue(chain.removeLast(), "removing the only block with C");
+    assertArrayEquals(new String[] {"A", "B"}, users(chain), "C is forgotten");
+    assertTrue(chain.removeLast(), "removing the only block with B");
+    assertArrayEquals(new String[] {"A"}, users(chain), "B is forgotten");
+    assertEquals(1, chain.userCount(), "only A");
+  } // testUserCount()
+
+  /**
+   * Test balances as of earlier blocks.
+   */
+  @Test
+  public void testBalanceAt() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("", "B", 50)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    chain.append(chain.mine(new Transaction("B", "B", 10)));
+    chain.append(chain.mine(new Transaction("B", "A", 80)));
+
+    int[] as = {0, 100, 100, 70, 70, 150, 150};
+    int[] bs = {0, 0, 50, 80, 80, 0, 0};
+    for (int h = 0; h < as.length; h++) {
+      assertEquals(as[h], chain.balanceAt("A", h), "A's balance after block " + h);
+      assertEquals(bs[h], chain.balanceAt("B", h), "B's balance after block " + h);
+    } // for
+    assertEquals(0, chain.balanceAt("C", 3), "unknown user");
+    assertThrows(IllegalArgumentException.class, () -> chain.balanceAt("A", -1));
+
+    assertTrue(chain.removeLast(), "removing a block");
+    assertTrue(chain.removeLast(), "removing a self-transfer");
+    assertEquals(80, chain.balanceAt("B", 5), "B's balance after removing");
+    chain.append(chain.mine(new Transaction("A", "C", 20)));
+    assertEquals(50, chain.balanceAt("A", 4), "A's balance after a new block");
+    assertEquals(70, chain.balanceAt("A", 3), "A's earlier balance is unchanged");
+  } // testBalanceAt()
+
+  /**
+   * Test the transactions of one user.
+   */
+  @Test
+  public void testTransactionsOf() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Transaction t1 = new Transaction("", "A", 100);
+    Transaction t2 = new Transaction("", "B", 100);
+    Transaction t3 = new Transaction("A", "B", 10);
+    Transaction t4 = new Transaction("B", "C", 20);
+    Transaction t5 = new Transaction("C", "A", 5);
+    for (Transaction t : new Transaction[] {t1, t2, t3, t4, t5}) {
+      chain.append(chain.mine(t));
+    } // for
+
+    assertEquals(List.of(t1, t3, t5), chain.transactionsOf("A"), "all of A's");
+    assertEquals(List.of(), chain.transactionsOf("D"), "unknown user");
+    assertEquals(List.of(), chain.transactionsOf(""), "deposits have no history");
+    assertEquals(0, chain.balanceAt("", 2), "nor past balances");
+    assertEquals(List.of(t3, t4), chain.transactionsOf("B", 3, 5, 0, 10), "B's in a range");
+    assertEquals(List.of(t3), chain.transactionsOf("A", 0, 6, 1, 1), "second page of A's");
+    assertEquals(List.of(), chain.transactionsOf("A", 0, 6, 3, 1), "past the last page");
+
+    assertTrue(chain.removeLast(), "removing a block");
+    assertEquals(List.of(t1, t3), chain.transactionsOf("A"), "A's after removing");
+    chain.enablePruning(2);
+    assertEquals(List.of(t3, t4), chain.transactionsOf("B"), "B's after pruning");
+  } // testTransactionsOf()
+
+  /**
+   * Test the ranking of users by balance.
+   */
+  @Test
+  public void testRanking() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("", "B", 50)));
+    chain.append(chain.mine(new Transaction("", "C", 75)));
+    assertEquals(List.of("A", "C"), chain.topAccounts(2), "top two");
+    assertEquals(List.of("C", "B"), chain.accountsWithBalanceBetween(50, 75), "middle band");
+    assertEquals(2, chain.rank("C"), "C's rank");
+    assertEquals(0, chain.rank("D"), "unknown user");
+
+    chain.append(chain.mine(new Transaction("A", "B", 90)));
+    assertEquals(List.of("B", "C", "A"), chain.topAccounts(5), "after a transfer");
+    assertEquals(3, chain.rank("A"), "A's rank after the transfer");
+
+    assertTrue(chain.removeLast(), "removing the transfer");
+    assertEquals(List.of("A", "C", "B"), chain.topAccounts(5), "after removing");
+    assertTrue(chain.removeLast(), "removing C's deposit");
+    assertEquals(List.of("A", "B"), chain.topAccounts(5), "C is no longer a user");
+  } // testRanking()
+
+  /**
+   * Test finding transactions by ID.
+   */
+  @Test
+  public void testFindTransaction() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Transaction t1 = new Transaction("", "A", 100);
+    Transaction t2 = new Transaction("A", "B", 10);
+    Block b1 = chain.mine(t1);
+    chain.append(b1);
+    Block b2 = chain.mine(t2);
+    chain.append(b2);
+    assertEquals(b1, chain.findTransaction(t1.getId()), "first transaction");
+    assertEquals(b2, chain.findTransaction(t2.getId()), "second transaction");
+    assertEquals(null, chain.findTransaction(new Transaction("B", "A", 1).getId()),
+        "missing transaction");
+
+    Block b3 = chain.mine(t2);
+    chain.append(b3);
+    assertEquals(b3, chain.findTransaction(t2.getId()), "most recent copy");
+    assertTrue(chain.removeLast(), "removing the copy");
+    assertEquals(b2, chain.findTransaction(t2.getId()), "earlier copy");
+    assertTrue(chain.removeLast(), "removing the original");
+    assertEquals(null, chain.findTransaction(t2.getId()), "removed transaction");
+  } // testFindTransaction()
+
+  /**
+   * Test that iterators see the chain as it was when they were created.
+   */
+  @Test
+  public void testSnapshotIterators() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 10)));
+    Iterator<Block> blocks = chain.blocks();
+    Iterator<Transaction> transactions = chain.iterator();
+
+    assertTrue(chain.removeLast(), "removing the transfer");
+    chain.append(chain.mine(new Transaction("A", "C", 20)));
+    chain.append(chain.mine(new Transaction("A", "D", 30)));
+
+    int count = 0;
+    Block last = null;
+    while (blocks.hasNext()) {
+      last = blocks.next();
+      count++;
+    } // while
+    assertEquals(3, count, "blocks as of creation");
+    assertEquals(new Transaction("A", "B", 10), last.getTransaction(), "removed block");
+    transactions.next();
+    transactions.next();
+    assertEquals(new Transaction("A", "B", 10), transactions.next(), "removed transaction");
+    assertFalse(transactions.hasNext(), "no later transactions");
+  } // testSnapshotIterators()
+
+  /**
+   * Test that readers see consistent chains while another thread appends.
+   */
+  @Test
+  public void testConcurrentReads() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 500; i++) {
+        chain.append(chain.mine(new Transaction("A", "B", 1)));
+        if (i % 50 == 49) {
+          chain.removeLast();
+        } // if
+      } // for
+    });
+    ArrayList<String> problems = new ArrayList<String>();
+    Thread[] readers = new Thread[4];
+    for (int r = 0; r < readers.length; r++) {
+      readers[r] = new Thread(() -> {
+        while (writer.isAlive()) {
+          int balance = chain.balance("A");
+          Iterator<Block> blocks = chain.blocks();
+          Block prev = blocks.next();
+          while (blocks.hasNext()) {
+            Block blk = blocks.next();
+            if (blk.getNum() != prev.getNum() + 1 || !blk.getPrevHash().equals(prev.getHash())) {
+              synchronized (problems) {
+                problems.add("inconsistent block " + blk.getNum());
+              } // synchronized
+            } // if
+            prev = blk;
+          } // while
+          if (balance < 500 || balance > 1000) {
+            synchronized (problems) {
+              problems.add("balance of " + balance);
+            } // synchronized
+          } // if
+        } // while
+      });
+    } // for
+    writer.start();
+    for (Thread reader : readers) {
+      reader.start();
+    } // for
+    writer.join();
+    for (Thread reader : readers) {
+      reader.join();
+    } // for
+    assertEquals(List.of(), problems, "no inconsistent reads");
+    assertEquals(492, chain.getSize(), "all appended blocks, less removals");
+    assertEquals(490, chain.balance("B"), "B's balance");
+    assertTrue(chain.isCorrect(), "still correct");
+  } // testConcurrentReads()
+
+  /**
+   * Test that a batch of blocks is added all at once or not at all.
+   */
+  @Test
+  public void testAppendAll() {
+    HashValidator check = (hash) -> true;
+    BlockChain scratch = new BlockChain(check);
+    ArrayList<Block> blocks = new ArrayList<Block>();
+    blocks.add(scratch.mine(new Transaction("", "A", 1000)));
+    scratch.append(blocks.get(0));
+    for (int i = 0; i < 600; i++) {
+      Block blk = scratch.mine(new Transaction("A", "B" + (i % 3), 1));
+      scratch.append(blk);
+      blocks.add(blk);
+    } // for
+
+    BlockChain chain = new BlockChain(check);
+    chain.appendAll(blocks.subList(0, 300));
+    assertEquals(301, chain.getSize(), "first half");
+    ArrayList<Block> gap = new ArrayList<Block>(blocks.subList(300, 601));
+    gap.remove(150);
+    Exception e = assertThrows(IllegalArgumentException.class, () -> chain.appendAll(gap),
+        "missing block");
+    assertEquals("Incorrect Number for Block: 451", e.getMessage(), "first bad block");
+    assertEquals(301, chain.getSize(), "nothing added");
+    chain.appendAll(blocks.subList(300, 601));
+    assertEquals(scratch.getHash(), chain.getHash(), "same chain");
+    assertEquals(400, chain.balance("A"), "A's balance");
+
+    scratch.append(scratch.mine(new Transaction("B1", "A", 10)));
+    scratch.append(scratch.mine(new Transaction("B1", "A", 1000)));
+    Iterator<Block> it = scratch.blocks();
+    ArrayList<Block> overdraft = new ArrayList<Block>();
+    while (it.hasNext()) {
+      Block blk = it.next();
+      if (blk.getNum() > 601) {
+        overdraft.add(blk);
+      } // if
+    } // while
+    e = assertThrows(IllegalArgumentException.class, () -> chain.appendAll(overdraft),
+        "overdraft");
+    assertEquals("Incorrect Amounts for User: B1", e.getMessage(), "overdrawn user");
+    assertEquals(602, chain.getSize(), "neither added");
+    assertEquals(200, chain.balance("B1"), "B1's balance unchanged");
+    assertTrue(chain.isCorrect(), "still correct");
+
+    Block deposit = chain.mine(new Transaction("A", "C", 5));
+    Block spend = new Block(603, new Transaction("C", "D", 6), deposit.getHash(), check);
+    e = assertThrows(IllegalArgumentException.class,
+        () -> chain.appendAll(Arrays.asList(deposit, spend)), "new user overdraws");
+    assertEquals("Incorrect Amounts for User: C", e.getMessage(), "overdrawn new user");
+    assertEquals(-1, chain.accounts.lookup("C"), "no ID for rejected names");
+    assertEquals(-1, chain.accounts.lookup("D"), "no ID for rejected names");
+
+    InvalidBlockException ibe = assertThrows(InvalidBlockException.class,
+        () -> chain.appendVerified(Arrays.asList(spend)), "skipped block");
+    assertEquals("Block Does Not Follow Chain: 603", ibe.getMessage(), "why it failed");
+    assertEquals(602, chain.getSize(), "nothing added");
+
+    ibe = assertThrows(InvalidBlockException.class,
+        () -> chain.appendVerified(Arrays.asList(deposit, spend)), "verified overdraft");
+    assertEquals("Incorrect Amounts for User: C", ibe.getMessage(), "funds are checked");
+    assertEquals(603, chain.getSize(), "block before the overdraft added");
+    assertEquals(5, chain.balance("C"), "C's balance");
+    assertTrue(chain.isCorrect(), "still correct");
+  } // testAppendAll()
 } // class TestBlockChain
@@ -0,0 +1,82 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Some simple tests of our BlockStore class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestBlockStore {
+  /**
+   * Test that a store follows its chain through a reorganization and
+   * recovers its index when reopened.
+   */
+  @Test
+  public void testCatchUpAndRecover(@TempDir Path dir) throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 0; i < 100; i++) {
+      chain.append(chain.mine(new Transaction("", "A", i)));
+    } // for
+    Path path = dir.resolve("chain.blocks");
+    try (BlockStore store = new BlockStore(path)) {
+      assertEquals(101, store.catchUp(chain), "every block stored");
+      assertEquals(0, store.catchUp(chain), "nothing new");
+      for (int i = 0; i < 3; i++) {
+        chain.removeLast();
+      } // for
+      chain.append(chain.mine(new Transaction("", "B", 7)));
+      assertEquals(1, store.catchUp(chain), "only the replacement stored");
+      assertEquals(99, store.size(), "three forgotten, one added");
+      assertEquals(chain.getHash(), store.read(98).getHash(), "replacement");
+      assertNull(store.read(99), "past the end");
+    } // try
+    try (BlockStore store = new BlockStore(path)) {
+      assertEquals(99, store.size(), "same size after reopening");
+      assertEquals(chain.getHash(), store.read(98).getHash(), "same last block");
+      assertEquals(chain.blockAt(50).getHash(), store.read(50).getHash(), "same block 50");
+    } // try
+  } // testCatchUpAndRecover()
+
+  /**
+   * Test that a node sends ranges of blocks from its store, including
+   * ranges that span blocks stored apart.
+   */
+  @Test
+  public void testServeRange(@TempDir Path dir) throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 0; i < 2000; i++) {
+      chain.append(chain.mine(new Transaction("", "U" + (i % 5), i)));
+    } // for
+    try (BlockStore store = new BlockStore(dir.resolve("chain.blocks"));
+         PeerNode node = new PeerNode(chain, 0)) {
+      node.setStore(store);
+      node.start();
+      try (SocketChannel channel = FastSync.connect(node.getPort())) {
+        List<Block> blocks = FastSync.fetchBlocks(channel, 1, 5000);
+        assertEquals(PeerNode.MAX_BATCH, blocks.size(), "one batch");
+        assertEquals(chain.blockAt(1).getHash(), blocks.get(0).getHash(), "first block");
+        assertEquals(chain.blockAt(PeerNode.MAX_BATCH).getHash(),
+            blocks.get(PeerNode.MAX_BATCH - 1).getHash(), "last block");
+
+        chain.removeLast();
+        chain.removeLast();
+        chain.append(chain.mine(new Transaction("", "V", 1)));
+        blocks = FastSync.fetchBlocks(channel, 1990, 100);
+        assertEquals(10, blocks.size(), "to the end of the chain");
+        assertEquals(chain.getHash(), blocks.get(9).getHash(), "replacement block");
+        assertEquals(0, FastSync.fetchBlocks(channel, 5000, 10).size(), "past the end");
+      } // try
+      assertEquals(2000, store.size(), "store kept up");
+    } // try
+  } // testServeRange()
+} // class TestBlockStore
@@ -0,0 +1,177 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our BlockTree class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestBlockTree {
+  /**
+   * Mine a block that follows another.
+   *
+   * @param prev
+   *   The previous block.
+   * @param t
+   *   The transaction for the new block.
+   *
+   * @return the new block.
+   */
+  static Block after(Block prev, Transaction t) {
+    return new Block(prev.getNum() + 1, t, prev.getHash(), (hash) -> true);
+  } // after(Block, Transaction)
+
+  /**
+   * Test that the chain follows the longest branch.
+   */
+  @Test
+  public void testReorganize() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    BlockTree tree = new BlockTree(chain);
+    Block genesis = chain.blocks().next();
+    Block deposit = after(genesis, new Transaction("", "A", 100));
+    assertTrue(tree.add(deposit), "extends the chain");
+
+    Block a1 = after(deposit, new Transaction("A", "B", 10));
+    Block b1 = after(deposit, new Transaction("A", "C", 20));
+    assertTrue(tree.add(a1), "first branch");
+    assertFalse(tree.add(b1), "equal work keeps the first branch");
+    assertEquals(10, chain.balance("B"), "B paid on the first branch");
+    assertEquals(3, tree.getWork(a1.getHash()), "work of the first branch");
+
+    Block b2 = after(b1, new Transaction("C", "D", 5));
+    assertTrue(tree.add(b2), "second branch is heavier");
+    assertEquals(b2.getHash(), chain.getHash(), "chain follows the second branch");
+    assertEquals(0, chain.balance("B"), "B's payment undone");
+    assertEquals(15, chain.balance("C"), "C's balance on the second branch");
+    assertEquals(80, chain.balance("A"), "A's balance on the second branch");
+    assertTrue(chain.isCorrect(), "reorganized chain is correct");
+    assertFalse(tree.add(b2), "duplicate");
+    assertEquals(5, tree.size(), "every block is kept");
+  } // testReorganize()
+
+  /**
+   * Test that an incorrect branch is never followed or tried again.
+   */
+  @Test
+  public void testInvalidBranch() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    BlockTree tree = new BlockTree(chain);
+    Block genesis = chain.blocks().next();
+    Block deposit = after(genesis, new Transaction("", "A", 100));
+    Block a1 = after(deposit, new Transaction("A", "B", 10));
+    assertTrue(tree.add(deposit), "extends the chain");
+    assertTrue(tree.add(a1), "extends the chain");
+
+    Block b1 = after(deposit, new Transaction("A", "C", 20));
+    Block b2 = after(b1, new Transaction("C", "D", 50));
+    Block b3 = after(b2, new Transaction("D", "E", 1));
+    assertFalse(tree.add(b1), "equal work");
+    assertFalse(tree.add(b2), "overdraft");
+    assertEquals(a1.getHash(), chain.getHash(), "chain unchanged");
+    assertEquals(10, chain.balance("B"), "B's payment kept");
+    assertTrue(tree.entries.get(b2.getHash()).invalid, "overdraft marked invalid");
+    assertFalse(tree.entries.get(b1.getHash()).invalid, "block before it is fine");
+    assertFalse(tree.add(b3), "follows an invalid block");
+    assertTrue(tree.entries.get(b3.getHash()).invalid, "inherits invalid");
+    assertTrue(tree.isValid(b1.getHash()), "valid side branch");
+    assertFalse(tree.isValid(b2.getHash()), "overdraft not valid");
+    assertFalse(tree.isValid(b3.getHash()), "block after it not valid");
+    assertEquals(a1.getHash(), tree.getBestHash(), "best unchanged");
+
+    Block a2 = after(a1, new Transaction("B", "C", 200));
+    assertFalse(tree.add(a2), "overdraft at the end of the chain");
+    assertTrue(tree.contains(a2.getHash()) && !tree.isValid(a2.getHash()), "kept as invalid");
+    assertEquals(a1.getHash(), tree.getBestHash(), "best unchanged");
+    assertTrue(tree.add(after(a1, new Transaction("B", "C", 5))), "still extends");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testInvalidBranch()
+
+  /**
+   * Test that blocks that arrive before their previous block wait for
+   * it.
+   */
+  @Test
+  public void testOrphans() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    BlockTree tree = new BlockTree(chain);
+    Block genesis = chain.blocks().next();
+    Block b1 = after(genesis, new Transaction("", "A", 100));
+    Block b2 = after(b1, new Transaction("A", "B", 10));
+    Block b3 = after(b2, new Transaction("B", "C", 5));
+    assertFalse(tree.add(b3), "orphan");
+    assertFalse(tree.add(b2), "orphan");
+    assertEquals(2, tree.orphanCount(), "two orphans");
+    assertTrue(tree.add(b1), "connects the orphans");
+    assertEquals(0, tree.orphanCount(), "no orphans");
+    assertEquals(4, chain.getSize(), "all blocks in the chain");
+    assertEquals(5, chain.balance("C"), "C's balance");
+
+    assertThrows(IllegalArgumentException.class,
+        () -> tree.add(new Block(7, new Transaction("", "D", 1), b3.getHash(), (hash) -> true)),
+        "wrong number");
+  } // testOrphans()
+
+  /**
+   * Test that the oldest orphans are dropped once there are too many, in
+   * all or for one missing block.
+   */
+  @Test
+  public void testOrphanLimits() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    BlockTree tree = new BlockTree(chain);
+    Block genesis = chain.blocks().next();
+    Block missing = after(genesis, new Transaction("", "A", 100));
+    Block[] children = new Block[BlockTree.MAX_ORPHANS_PER_PARENT + 1];
+    for (int i = 0; i < children.length; i++) {
+      children[i] = after(missing, new Transaction("", "B", i));
+      assertFalse(tree.add(children[i]), "orphan");
+    } // for
+    assertFalse(tree.add(children[children.length - 1]), "held once");
+    assertEquals(BlockTree.MAX_ORPHANS_PER_PARENT, tree.orphanCount(), "per-parent limit");
+
+    Block prev = genesis;
+    for (int i = 0; i < BlockTree.MAX_ORPHANS; i++) {
+      prev = after(prev, new Transaction("", "C", i));
+      tree.add(after(prev, new Transaction("", "D", i)));
+    } // for
+    assertEquals(BlockTree.MAX_ORPHANS, tree.orphanCount(), "total limit");
+    assertTrue(tree.add(missing), "missing block arrives");
+    assertEquals(2, chain.getSize(), "oldest orphans were dropped");
+    assertEquals(BlockTree.MAX_ORPHANS, tree.orphanCount(), "none of them attached");
+  } // testOrphanLimits()
+
+  /**
+   * Test that forks before the pruned blocks are not followed.
+   */
+  @Test
+  public void testPrunedFork() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.enablePruning(1);
+    BlockTree tree = new BlockTree(chain);
+    Block genesis = chain.blocks().next();
+    Block a1 = after(genesis, new Transaction("", "A", 100));
+    Block a2 = after(a1, new Transaction("", "A", 100));
+    Block a3 = after(a2, new Transaction("", "A", 100));
+    tree.add(a1);
+    tree.add(a2);
+    tree.add(a3);
+    Block b1 = after(genesis, new Transaction("", "B", 100));
+    Block b2 = after(b1, new Transaction("", "B", 100));
+    Block b3 = after(b2, new Transaction("", "B", 100));
+    Block b4 = after(b3, new Transaction("", "B", 100));
+    tree.add(b1);
+    tree.add(b2);
+    tree.add(b3);
+    assertFalse(tree.add(b4), "cannot undo pruned blocks");
+    assertEquals(a3.getHash(), chain.getHash(), "chain unchanged");
+    assertEquals(300, chain.balance("A"), "A's balance unchanged");
+  } // testPrunedFork()
+} // class TestBlockTree
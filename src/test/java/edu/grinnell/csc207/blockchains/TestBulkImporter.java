@@ -0,0 +1,70 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our BulkImporter class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestBulkImporter {
+  /**
+   * Import blocks into a chain.
+   *
+   * @param chain
+   *   The chain.
+   * @param bytes
+   *   The blocks, in binary.
+   *
+   * @return the number of blocks appended.
+   */
+  static int importInto(BlockChain chain, byte[] bytes) throws Exception {
+    return new BulkImporter(chain, 3).run(Channels.newChannel(new ByteArrayInputStream(bytes)));
+  } // importInto(BlockChain, byte[])
+
+  /**
+   * Test importing an exported chain, and importing damaged exports.
+   */
+  @Test
+  public void testImport() throws Exception {
+    HashValidator check = (hash) -> true;
+    BlockChain source = new BlockChain(check);
+    source.append(source.mine(new Transaction("", "A", 100000)));
+    for (int i = 0; i < 5000; i++) {
+      source.append(source.mine(new Transaction("A", "U" + (i % 11), 1 + i % 5)));
+    } // for
+    byte[] all = TestChainExporter.export(source, ChainExporter.Format.BINARY,
+        0, Integer.MAX_VALUE, 1);
+
+    BlockChain copy = new BlockChain(check);
+    assertEquals(5001, importInto(copy, all), "every block but the first");
+    assertEquals(source.getHash(), copy.getHash(), "same chain");
+    assertEquals(source.balance("U7"), copy.balance("U7"), "same balances");
+    assertTrue(copy.isCorrect(), "correct chain");
+    assertEquals(0, importInto(copy, all), "nothing new");
+
+    int end = TestChainExporter.export(source, ChainExporter.Format.BINARY, 0, 3001, 1).length;
+    byte[] damaged = all.clone();
+    damaged[end - 1]++;
+    BlockChain partial = new BlockChain(check);
+    InvalidBlockException e = assertThrows(InvalidBlockException.class,
+        () -> importInto(partial, damaged), "changed amount");
+    assertEquals("Incorrect Hash for Block: 3000", e.getMessage(), "first bad block");
+    assertEquals(3000, partial.getSize(), "blocks before it appended");
+
+    BlockChain truncated = new BlockChain(check);
+    assertThrows(IOException.class,
+        () -> importInto(truncated, Arrays.copyOf(all, end - 3)), "truncated");
+    assertEquals(3000, truncated.getSize(), "whole records appended");
+  } // testImport()
+} // class TestBulkImporter
@@ -0,0 +1,109 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our ChainDelta class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestChainDelta {
+  /**
+   * Test reconciling two chains that share most of their history.
+   */
+  @Test
+  public void testFork() {
+    HashValidator check = (hash) -> true;
+    BlockChain primary = new BlockChain(check);
+    BlockChain backup = new BlockChain(check);
+    for (int i = 0; i < 1000; i++) {
+      Block blk = primary.mine(new Transaction("", "A", i));
+      primary.append(blk);
+      backup.append(blk);
+    } // for
+    for (int i = 0; i < 3; i++) {
+      backup.append(backup.mine(new Transaction("", "B", i)));
+    } // for
+    for (int i = 0; i < 5; i++) {
+      primary.append(primary.mine(new Transaction("", "C", i)));
+    } // for
+
+    ChainDelta delta = ChainDelta.between(backup, primary);
+    assertEquals(1000, delta.getAncestor(), "last shared block");
+    assertEquals(3, delta.getRemovals(), "backup's own blocks");
+    assertEquals(5, delta.getAdditions().size(), "primary's new blocks");
+    assertTrue(delta.getComparisons() <= 6, "few comparisons: " + delta.getComparisons());
+    delta.applyTo(backup);
+    assertEquals(primary.getHash(), backup.getHash(), "same chain");
+    assertEquals(0, backup.balance("B"), "B's deposits removed");
+    assertTrue(ChainDelta.between(backup, primary).isEmpty(), "nothing left to do");
+  } // testFork()
+
+  /**
+   * Test reconciling a chain with a longer copy of itself, and with a
+   * chain that diverges early.
+   */
+  @Test
+  public void testPrefixAndEarlyFork() {
+    HashValidator check = (hash) -> true;
+    BlockChain a = new BlockChain(check);
+    BlockChain b = new BlockChain(check);
+    for (int i = 0; i < 100; i++) {
+      Block blk = a.mine(new Transaction("", "A", i));
+      a.append(blk);
+      if (i < 40) {
+        b.append(blk);
+      } // if
+    } // for
+    ChainDelta delta = ChainDelta.between(b, a);
+    assertEquals(40, delta.getAncestor(), "b is a prefix of a");
+    assertEquals(0, delta.getRemovals(), "nothing to remove");
+    assertEquals(1, delta.getComparisons(), "one comparison");
+
+    BlockChain c = new BlockChain(check);
+    for (int i = 0; i < 100; i++) {
+      c.append(c.mine(new Transaction("", "C", i)));
+    } // for
+    delta = ChainDelta.between(c, a);
+    assertEquals(0, delta.getAncestor(), "only the initial block is shared");
+    assertEquals(100, delta.getRemovals(), "all of c's blocks");
+    delta.applyTo(c);
+    assertEquals(a.getHash(), c.getHash(), "same chain");
+    assertTrue(c.isCorrect(), "correct chain");
+  } // testPrefixAndEarlyFork()
+
+  /**
+   * Test that a delta that cannot be applied leaves the chain alone.
+   */
+  @Test
+  public void testRefused() {
+    HashValidator check = (hash) -> true;
+    BlockChain primary = new BlockChain(check);
+    BlockChain backup = new BlockChain(check);
+    Block deposit = primary.mine(new Transaction("", "A", 10));
+    primary.append(deposit);
+    backup.append(deposit);
+    backup.append(backup.mine(new Transaction("A", "B", 5)));
+    primary.append(primary.mine(new Transaction("A", "C", 8)));
+    primary.append(primary.mine(new Transaction("A", "C", 8)));
+
+    Hash first = backup.getHash();
+    ChainDelta delta = ChainDelta.between(backup, primary);
+    assertThrows(IllegalArgumentException.class, () -> delta.applyTo(backup), "overdraft");
+    assertEquals(first, backup.getHash(), "backup unchanged");
+    assertEquals(5, backup.balance("B"), "B's payment kept");
+
+    backup.append(backup.mine(new Transaction("A", "B", 1)));
+    Hash second = backup.getHash();
+    backup.enablePruning(1);
+    assertThrows(IllegalStateException.class,
+        () -> ChainDelta.between(backup, primary).applyTo(backup), "pruned");
+    assertEquals(second, backup.getHash(), "backup unchanged");
+    assertTrue(backup.isCorrect(), "backup is correct");
+  } // testRefused()
+} // class TestChainDelta
@@ -0,0 +1,82 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our ChainExporter class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestChainExporter {
+  /**
+   * Export part of a chain.
+   *
+   * @param chain
+   *   The chain.
+   * @param format
+   *   The form of the output.
+   * @param from
+   *   The number of the first block.
+   * @param to
+   *   The number just past the last block.
+   * @param parallelism
+   *   The number of chunks to encode at once.
+   *
+   * @return the output.
+   */
+  static byte[] export(BlockChain chain, ChainExporter.Format format, int from, int to,
+      int parallelism) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new ChainExporter(chain, format).export(Channels.newChannel(bytes), from, to, parallelism);
+    return bytes.toByteArray();
+  } // export(BlockChain, Format, int, int, int)
+
+  /**
+   * Test each format, and that parallel output matches serial output.
+   */
+  @Test
+  public void testFormats() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "Smith, \"J\"", 100)));
+    for (int i = 0; i < 3000; i++) {
+      chain.append(chain.mine(new Transaction("", "U" + (i % 7), i)));
+    } // for
+
+    String csv = new String(export(chain, ChainExporter.Format.CSV, 0, 3, 1),
+        StandardCharsets.UTF_8);
+    String[] lines = csv.split("\n");
+    assertEquals(4, lines.length, "header and three blocks");
+    assertEquals(ChainExporter.CSV_HEADER.trim(), lines[0], "header");
+    assertTrue(lines[2].startsWith("1,,\"Smith, \"\"J\"\"\",100,,"), "quoted: " + lines[2]);
+
+    String json = new String(export(chain, ChainExporter.Format.JSON_LINES, 1, 2, 1),
+        StandardCharsets.UTF_8);
+    assertTrue(json.startsWith("{\"num\":1,\"source\":\"\",\"target\":\"Smith, \\\"J\\\"\""),
+        "escaped: " + json);
+
+    ByteBuffer binary = ByteBuffer.wrap(export(chain, ChainExporter.Format.BINARY,
+        0, Integer.MAX_VALUE, 1));
+    int count = 0;
+    while (binary.hasRemaining()) {
+      Block blk = BlockCodec.decode(BlockCodec.getField(binary));
+      assertEquals(chain.blockAt(count).getHash(), blk.getHash(), "block " + count);
+      count++;
+    } // while
+    assertEquals(chain.getSize(), count, "every block");
+
+    for (ChainExporter.Format format : ChainExporter.Format.values()) {
+      assertArrayEquals(export(chain, format, 5, 2900, 1), export(chain, format, 5, 2900, 4),
+          "parallel " + format);
+    } // for
+  } // testFormats()
+} // class TestChainExporter
@@ -0,0 +1,170 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our Mempool class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestMempool {
+  /**
+   * Test that transactions are mined in order of acceptance.
+   */
+  @Test
+  public void testFifo() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Mempool pool = new Mempool(chain, 10);
+    assertTrue(pool.offer(new Transaction("", "A", 100)), "deposit");
+    assertTrue(pool.offer(new Transaction("", "B", 50)), "another deposit");
+    assertEquals(2, pool.size(), "two waiting");
+    assertEquals(2, pool.mine(10), "mined both");
+    assertEquals(0, pool.size(), "none waiting");
+
+    Iterator<Transaction> transactions = chain.iterator();
+    transactions.next();
+    assertEquals(new Transaction("", "A", 100), transactions.next(), "first");
+    assertEquals(new Transaction("", "B", 50), transactions.next(), "second");
+    assertTrue(chain.isCorrect(), "mined chain is correct");
+  } // testFifo()
+
+  /**
+   * Test that duplicates and overdrafts are rejected.
+   */
+  @Test
+  public void testRejections() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    Mempool pool = new Mempool(chain, 10);
+
+    pool.put(new Transaction("A", "B", 60));
+    assertThrows(IllegalArgumentException.class,
+        () -> pool.offer(new Transaction("A", "B", 60)), "duplicate");
+    assertThrows(IllegalArgumentException.class,
+        () -> pool.offer(new Transaction("A", "C", 50)), "overdraft counting pending spends");
+    assertThrows(IllegalArgumentException.class,
+        () -> pool.offer(new Transaction("A", "C", -5)), "negative amount");
+    assertEquals(60, pool.pendingSpend("A"), "A's pending spend");
+    assertTrue(pool.offer(new Transaction("A", "C", 40)), "spend within the balance");
+    assertEquals(2, pool.size(), "rejections do not take space");
+
+    assertEquals(2, pool.mine(10), "mined both");
+    assertEquals(0, pool.pendingSpend("A"), "A's spends are settled");
+    assertEquals(0, chain.balance("A"), "A spent everything");
+  } // testRejections()
+
+  /**
+   * Test that a transaction cannot be submitted again while it is being
+   * mined or once it is in the chain.
+   */
+  @Test
+  public void testResubmitted() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    Mempool pool = new Mempool(chain, 10);
+    assertThrows(IllegalArgumentException.class,
+        () -> pool.offer(new Transaction("", "A", 100)), "already in the chain");
+
+    Transaction pay = new Transaction("A", "B", 10);
+    assertTrue(pool.offer(pay), "accepted");
+    assertEquals(1, pool.drain(10).size(), "taken for mining");
+    assertThrows(IllegalArgumentException.class, () -> pool.offer(pay), "being mined");
+    assertTrue(pool.mineOne(pay), "mined");
+    pool.settle(pay);
+    assertThrows(IllegalArgumentException.class, () -> pool.offer(pay), "mined");
+    assertEquals(0, pool.size(), "rejections do not take space");
+    assertEquals(0, pool.pendingSpend("A"), "A's spend is settled");
+  } // testResubmitted()
+
+  /**
+   * Test that a transaction the chain refuses when it is mined does not
+   * stop the rest.
+   */
+  @Test
+  public void testSpentMeanwhile() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    Mempool pool = new Mempool(chain, 10);
+    assertTrue(pool.offer(new Transaction("A", "B", 60)), "spend within the balance");
+    assertTrue(pool.offer(new Transaction("", "D", 5)), "deposit");
+    chain.append(chain.mine(new Transaction("A", "C", 50)));
+
+    assertEquals(1, pool.mine(10), "only the deposit is mined");
+    assertEquals(0, pool.size(), "none waiting");
+    assertEquals(0, pool.pendingSpend("A"), "refused spend is settled");
+    assertEquals(0, chain.balance("B"), "B not paid");
+    assertEquals(5, chain.balance("D"), "deposit mined after the refused spend");
+    assertTrue(chain.isCorrect(), "mined chain is correct");
+  } // testSpentMeanwhile()
+
+  /**
+   * Test that a full pool pushes back.
+   */
+  @Test
+  public void testCapacity() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Mempool pool = new Mempool(chain, 2);
+    assertTrue(pool.offer(new Transaction("", "A", 1)), "first");
+    assertTrue(pool.offer(new Transaction("", "A", 2)), "second");
+    assertFalse(pool.offer(new Transaction("", "A", 3)), "pool is full");
+
+    Thread producer = new Thread(() -> {
+      try {
+        pool.put(new Transaction("", "A", 3));
+      } catch (InterruptedException e) {
+        // Do nothing; the test will fail below.
+      } // try/catch
+    });
+    producer.start();
+    assertEquals(1, pool.mine(1), "making room");
+    producer.join(10000);
+    assertFalse(producer.isAlive(), "waiting producer finishes");
+    assertEquals(2, pool.mine(10), "mined the rest");
+    assertEquals(6, chain.balance("A"), "all deposits mined");
+  } // testCapacity()
+
+  /**
+   * Test many producers at once.
+   */
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Mempool pool = new Mempool(chain, 64);
+    ArrayList<Thread> producers = new ArrayList<Thread>();
+    for (int p = 0; p < 8; p++) {
+      String user = "user" + p;
+      Thread producer = new Thread(() -> {
+        for (int i = 1; i <= 50; i++) {
+          try {
+            pool.put(new Transaction("", user, i));
+          } catch (InterruptedException e) {
+            return;
+          } // try/catch
+        } // for
+      });
+      producers.add(producer);
+      producer.start();
+    } // for
+
+    int mined = 0;
+    while (mined < 400) {
+      mined += pool.mine(16);
+    } // while
+    for (Thread producer : producers) {
+      producer.join();
+    } // for
+    for (int p = 0; p < 8; p++) {
+      assertEquals(1275, chain.balance("user" + p), "deposits for user" + p);
+    } // for
+    assertEquals(401, chain.getSize(), "one block per transaction");
+  } // testConcurrentProducers()
+} // class TestMempool
@@ -0,0 +1,221 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our BlockCodec and PeerNode classes.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestPeerNode {
+  /**
+   * Wait for a condition to hold.
+   *
+   * @param condition
+   *   The condition.
+   *
+   * @return true if the condition held within ten seconds and false
+   *   otherwise.
+   */
+  static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      } // if
+      Thread.sleep(10);
+    } // while
+    return true;
+  } // eventually(BooleanSupplier)
+
+  /**
+   * Test that blocks survive encoding and decoding.
+   */
+  @Test
+  public void testCodec() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Block blk = chain.mine(new Transaction("A", "B", 10));
+    Block copy = BlockCodec.decode(BlockCodec.encode(blk));
+    assertEquals(blk.getHash(), copy.getHash(), "same hash");
+    assertEquals(blk.getTransaction(), copy.getTransaction(), "same transaction");
+    assertEquals(blk.getNonce(), copy.getNonce(), "same nonce");
+
+    byte[] bytes = BlockCodec.encode(blk);
+    bytes[bytes.length - 1]++;
+    assertThrows(IllegalArgumentException.class, () -> BlockCodec.decode(bytes),
+        "changed amount");
+    assertThrows(IllegalArgumentException.class,
+        () -> BlockCodec.decode(new byte[] {0, 0, 0, 1, 0x7f, 0, 0, 0}), "truncated");
+  } // testCodec()
+
+  /**
+   * Test that blocks spread across a line of nodes, including to a node
+   * that joins late.
+   */
+  @Test
+  public void testPropagation() throws Exception {
+    HashValidator check = (hash) -> true;
+    try (PeerNode a = new PeerNode(new BlockChain(check), 0);
+         PeerNode b = new PeerNode(new BlockChain(check), 0);
+         PeerNode c = new PeerNode(new BlockChain(check), 0)) {
+      a.start();
+      b.start();
+      c.start();
+      a.connect(b.getPort());
+      assertTrue(eventually(() -> a.peerCount() == 1 && b.peerCount() == 1), "connected");
+
+      a.mine(new Transaction("", "A", 100));
+      a.mine(new Transaction("A", "B", 30));
+      a.mine(new Transaction("B", "C", 10));
+      assertTrue(eventually(() -> b.getChain().getSize() == 4), "b caught up");
+      assertEquals(20, b.getChain().balance("B"), "B's balance on b");
+
+      c.connect(b.getPort());
+      assertTrue(eventually(() -> c.getChain().getSize() == 4), "late node caught up");
+      c.mine(new Transaction("C", "A", 5));
+      assertTrue(eventually(() -> a.getChain().getSize() == 5), "block from the late node");
+      assertEquals(a.getChain().getHash(), c.getChain().getHash(), "same chain");
+      assertTrue(a.getChain().isCorrect(), "correct chain");
+    } // try
+  } // testPropagation()
+
+  /**
+   * Test that a failure while handling a task or a message drops at most
+   * one connection and leaves the event loop running.
+   */
+  @Test
+  public void testFailures() throws Exception {
+    AtomicBoolean broken = new AtomicBoolean(false);
+    HashValidator flaky = (hash) -> {
+      if (broken.get()) {
+        throw new IllegalStateException("broken");
+      } // if
+      return true;
+    };
+    try (PeerNode a = new PeerNode(new BlockChain((hash) -> true), 0);
+         PeerNode b = new PeerNode(new BlockChain(flaky), 0)) {
+      a.start();
+      b.start();
+      a.connect(b.getPort());
+      assertTrue(eventually(() -> a.peerCount() == 1 && b.peerCount() == 1), "connected");
+
+      broken.set(true);
+      a.mine(new Transaction("", "A", 100));
+      assertTrue(eventually(() -> b.peerCount() == 0), "connection dropped");
+      b.later(() -> {
+        throw new IllegalStateException("task");
+      });
+      broken.set(false);
+
+      a.connect(b.getPort());
+      assertTrue(eventually(() -> b.peerCount() == 1), "still accepting");
+      a.mine(new Transaction("A", "B", 30));
+      assertTrue(eventually(() -> b.getChain().getSize() == 3), "still receiving");
+      assertEquals(30, b.getChain().balance("B"), "B's balance on b");
+    } // try
+  } // testFailures()
+
+  /**
+   * Test that the blocks a pool mines are recorded and announced.
+   */
+  @Test
+  public void testMempool() throws Exception {
+    HashValidator check = (hash) -> true;
+    try (PeerNode a = new PeerNode(new BlockChain(check), 0);
+         PeerNode b = new PeerNode(new BlockChain(check), 0)) {
+      a.start();
+      b.start();
+      a.connect(b.getPort());
+      assertTrue(eventually(() -> a.peerCount() == 1 && b.peerCount() == 1), "connected");
+
+      Mempool pool = new Mempool(a.getChain(), 10);
+      a.setMempool(pool);
+      assertTrue(pool.offer(new Transaction("", "A", 100)), "deposit");
+      assertEquals(1, pool.mine(10), "mined the deposit");
+      assertTrue(pool.offer(new Transaction("A", "B", 30)), "payment");
+      assertEquals(1, pool.mine(10), "mined the payment");
+      assertEquals(a.getChain().getHash(), a.tree.getBestHash(), "recorded in the tree");
+      assertTrue(eventually(() -> b.getChain().getSize() == 3), "announced to b");
+      assertEquals(30, b.getChain().balance("B"), "B's balance on b");
+      assertThrows(IllegalArgumentException.class,
+          () -> b.setMempool(new Mempool(a.getChain(), 10)), "another chain");
+    } // try
+  } // testMempool()
+
+  /**
+   * Test that a new chain catches up from two nodes, headers first.
+   */
+  @Test
+  public void testFastSync() throws Exception {
+    HashValidator check = (hash) -> true;
+    BlockChain source = new BlockChain(check);
+    BlockChain mirror = new BlockChain(check);
+    for (int i = 0; i < 1500; i++) {
+      Block blk = source.mine(new Transaction("", "U" + (i % 7), i));
+      source.append(blk);
+      mirror.append(blk);
+    } // for
+    BlockChain fresh = new BlockChain(check);
+    fresh.append(fresh.mine(new Transaction("", "X", 1)));
+    try (PeerNode a = new PeerNode(source, 0);
+         PeerNode b = new PeerNode(mirror, 0)) {
+      a.start();
+      b.start();
+      assertThrows(InvalidBlockException.class,
+          () -> new FastSync(fresh, a.getPort(), b.getPort()).run(), "diverging chain");
+
+      BlockChain empty = new BlockChain(check);
+      assertEquals(1500, new FastSync(empty, a.getPort(), b.getPort()).run(), "all appended");
+      assertEquals(source.getHash(), empty.getHash(), "same chain");
+      assertEquals(source.balance("U3"), empty.balance("U3"), "same balances");
+      assertTrue(empty.isCorrect(), "correct chain");
+      assertEquals(0, new FastSync(empty, a.getPort()).run(), "already up to date");
+    } // try
+  } // testFastSync()
+
+  /**
+   * Test that segments a node serves wrongly are fetched from another
+   * node.
+   */
+  @Test
+  public void testFastSyncBadPeer() throws Exception {
+    HashValidator check = (hash) -> true;
+    BlockChain source = new BlockChain(check);
+    BlockChain other = new BlockChain(check);
+    for (int i = 0; i < 1500; i++) {
+      source.append(source.mine(new Transaction("", "U" + (i % 7), i)));
+      other.append(other.mine(new Transaction("", "V" + (i % 7), i)));
+    } // for
+    try (PeerNode good = new PeerNode(source, 0);
+         PeerNode bad = new PeerNode(other, 0)) {
+      good.start();
+      bad.start();
+      BlockChain empty = new BlockChain(check);
+      assertEquals(1500, new FastSync(empty, good.getPort(), bad.getPort(), bad.getPort()).run(),
+          "all appended");
+      assertEquals(source.getHash(), empty.getHash(), "same chain");
+      assertTrue(empty.isCorrect(), "correct chain");
+
+      List<Block> headers;
+      try (SocketChannel channel = FastSync.connect(good.getPort())) {
+        headers = FastSync.fetchHeaders(channel, 1);
+      } // try
+      try (SocketChannel channel = FastSync.connect(bad.getPort())) {
+        InvalidBlockException e = assertThrows(InvalidBlockException.class,
+            () -> FastSync.fetchSegment(channel, headers.subList(0, 10)), "bad segment");
+        assertEquals("Transaction Does Not Match Header for Block: 1", e.getMessage(),
+            "first bad block");
+      } // try
+    } // try
+  } // testFastSyncBadPeer()
+} // class TestPeerNode
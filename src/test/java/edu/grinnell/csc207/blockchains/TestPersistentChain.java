@@ -0,0 +1,117 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our PersistentChain class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestPersistentChain {
+  /**
+   * Test that snapshots do not change when the chain does.
+   */
+  @Test
+  public void testSnapshots() {
+    PersistentChain chain = new PersistentChain((hash) -> true);
+    assertFalse(chain.removeLast(), "cannot remove the initial block");
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 10)));
+    PersistentChain.Link before = chain.snapshot();
+    assertEquals(3, chain.getSize(), "three blocks");
+
+    assertTrue(chain.removeLast(), "removing the transfer");
+    assertSame(before.getPrevious(), chain.snapshot(), "back to the shared link");
+    chain.append(chain.mine(new Transaction("A", "C", 20)));
+    assertEquals(3, chain.getSize(), "three blocks again");
+    assertEquals(2, before.getHeight(), "snapshot height");
+    assertEquals(new Transaction("A", "B", 10), before.getBlock().getTransaction(),
+        "snapshot keeps the removed block");
+
+    Iterator<Block> blocks = chain.blocks();
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, blocks.next().getNum(), "block " + i);
+    } // for
+    assertFalse(blocks.hasNext(), "no more blocks");
+    assertTrue(chain.isCorrect(), "correct chain");
+
+    Block stale = new Block(3, new Transaction("A", "D", 1), before.getBlock().getHash(),
+        (hash) -> true);
+    assertThrows(IllegalArgumentException.class, () -> chain.append(stale),
+        "block for a removed tip");
+    Block header = new Block(3, chain.getHash(), 0, new Hash(new byte[] {0}));
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+        () -> chain.append(header), "pruned block");
+    assertEquals("Cannot append pruned block 3", e.getMessage(), "why it failed");
+  } // testSnapshots()
+
+  /**
+   * Test that each version keeps its own balances and blocks.
+   */
+  @Test
+  public void testVersions() {
+    PersistentChain chain = new PersistentChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "Aa", 5000)));
+    for (int i = 0; i < 2000; i++) {
+      chain.append(chain.mine(new Transaction("Aa", (i % 2 == 0) ? "BB" : "U" + (i % 50), 1)));
+    } // for
+    PersistentChain.Link before = chain.snapshot();
+    chain.append(chain.mine(new Transaction("BB", "Aa", 600)));
+
+    assertEquals(3000, before.getBalances().balance("Aa"), "Aa's balance before");
+    assertEquals(1000, before.getBalances().balance("BB"), "BB shares Aa's hash");
+    assertEquals(3600, chain.balance("Aa"), "Aa's balance after");
+    assertEquals(400, chain.balance("BB"), "BB's balance after");
+    assertEquals(40, chain.balance("U1"), "U1's balance");
+    assertEquals(0, chain.balance("Q"), "unknown user");
+    assertEquals(27, before.getBalances().size(), "every user");
+
+    PersistentChain.Link after = chain.snapshot();
+    assertEquals(1234, after.blockAt(1234).getNum(), "block by number");
+    assertSame(before.blockAt(2001), after.blockAt(2001), "shared block");
+    assertEquals(null, before.blockAt(2002), "not in the older version");
+    Iterator<Block> blocks = after.blocks();
+    for (int i = 0; i <= 2002; i++) {
+      assertEquals(i, blocks.next().getNum(), "block " + i);
+    } // for
+    assertFalse(blocks.hasNext(), "no more blocks");
+  } // testVersions()
+
+  /**
+   * Test that threads appending at once each publish whole blocks.
+   */
+  @Test
+  public void testConcurrentAppends() throws Exception {
+    PersistentChain chain = new PersistentChain((hash) -> true);
+    Thread[] writers = new Thread[4];
+    for (int w = 0; w < writers.length; w++) {
+      String name = "U" + w;
+      writers[w] = new Thread(() -> {
+        int added = 0;
+        while (added < 100) {
+          try {
+            chain.append(chain.mine(new Transaction("", name, added)));
+            added++;
+          } catch (IllegalArgumentException e) {
+            // Another thread got there first; mine again.
+          } // try/catch
+        } // while
+      });
+      writers[w].start();
+    } // for
+    for (Thread writer : writers) {
+      writer.join();
+    } // for
+    assertEquals(401, chain.getSize(), "every block appended");
+    assertTrue(chain.isCorrect(), "correct chain");
+  } // testConcurrentAppends()
+} // class TestPersistentChain
@@ -0,0 +1,150 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of signed transactions and our SignatureVerifier
+ * class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestSignatureVerifier {
+  /**
+   * Make a new Ed25519 key pair.
+   *
+   * @return the key pair.
+   */
+  static KeyPair keys() throws Exception {
+    return KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+  } // keys()
+
+  /**
+   * Test that signatures are checked against the registered keys.
+   */
+  @Test
+  public void testVerify() throws Exception {
+    KeyPair alice = keys();
+    KeyPair mallory = keys();
+    SignatureVerifier verifier = new SignatureVerifier();
+    verifier.register("A", alice.getPublic());
+
+    Transaction signed = Transaction.sign("A", "B", 10, alice.getPrivate());
+    assertTrue(signed.isSigned(), "signed");
+    assertNotEquals(new Transaction("A", "B", 10).getId(), signed.getId(),
+        "signature is part of the ID");
+    assertTrue(verifier.verify(signed), "correct signature");
+    assertTrue(verifier.verify(new Transaction("", "B", 10)), "deposits need no signature");
+    assertFalse(verifier.verify(new Transaction("A", "B", 10)), "unsigned transfer");
+    assertFalse(verifier.verify(Transaction.sign("A", "B", 10, mallory.getPrivate())),
+        "wrong key");
+    assertFalse(verifier.verify(Transaction.sign("C", "B", 10, alice.getPrivate())),
+        "unregistered source");
+    assertFalse(verifier.verify(new Transaction("A", "B", 11, signed.getSignature())),
+        "signature for another amount");
+    assertEquals(1, verifier.acceptedCount(), "only the correct signature is remembered");
+    assertThrows(IllegalArgumentException.class,
+        () -> verifier.register("A", mallory.getPublic()), "keys cannot change");
+  } // testVerify()
+
+  /**
+   * Test that a batch reports its first bad signature.
+   */
+  @Test
+  public void testBatch() throws Exception {
+    KeyPair alice = keys();
+    SignatureVerifier verifier = new SignatureVerifier();
+    verifier.register("A", alice.getPublic());
+    Transaction[] batch = new Transaction[100];
+    for (int i = 0; i < batch.length; i++) {
+      batch[i] = Transaction.sign("A", "B", i, alice.getPrivate());
+    } // for
+    assertEquals(batch.length, verifier.firstUnverified(batch), "all correct");
+    assertEquals(batch.length, verifier.acceptedCount(), "all remembered");
+    batch[70] = new Transaction("A", "B", 70);
+    batch[90] = new Transaction("A", "B", 90);
+    assertEquals(70, verifier.firstUnverified(batch), "first unsigned");
+  } // testBatch()
+
+  /**
+   * Test that a chain that requires signatures rejects unsigned
+   * transfers and checks the signatures already in the chain.
+   */
+  @Test
+  public void testChain() throws Exception {
+    KeyPair alice = keys();
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 10)));
+    assertTrue(chain.isCorrect(), "unsigned chain");
+
+    SignatureVerifier verifier = new SignatureVerifier();
+    verifier.register("A", alice.getPublic());
+    chain.requireSignatures(verifier);
+    InvalidBlockException e = assertThrows(InvalidBlockException.class,
+        () -> chain.check(), "unsigned transfer already in the chain");
+    assertEquals(2, e.getBlockNum(), "position of the unsigned transfer");
+    chain.removeLast();
+
+    assertThrows(IllegalArgumentException.class,
+        () -> chain.append(chain.mine(new Transaction("A", "B", 10))), "unsigned transfer");
+    chain.append(chain.mine(Transaction.sign("A", "B", 10, alice.getPrivate())));
+    assertTrue(chain.isCorrect(), "signed chain");
+    assertEquals(90, chain.balance("A"), "A's balance");
+
+    Mempool pool = new Mempool(chain, 10);
+    assertThrows(IllegalArgumentException.class,
+        () -> pool.offer(new Transaction("A", "C", 5)), "pool rejects unsigned transfers");
+    assertTrue(pool.offer(Transaction.sign("A", "C", 5, alice.getPrivate())), "signed");
+    assertEquals(1, pool.mine(10), "mined");
+    assertTrue(chain.isCorrect(), "still correct");
+  } // testChain()
+
+  /**
+   * Test that a signed transfer cannot be added to the chain twice.
+   */
+  @Test
+  public void testReplay() throws Exception {
+    KeyPair alice = keys();
+    SignatureVerifier verifier = new SignatureVerifier();
+    verifier.register("A", alice.getPublic());
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.requireSignatures(verifier);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    assertEquals(200, chain.balance("A"), "deposits may repeat");
+
+    Transaction pay = Transaction.sign("A", "B", 10, alice.getPrivate());
+    chain.append(chain.mine(pay));
+    assertThrows(IllegalArgumentException.class,
+        () -> chain.append(chain.mine(pay)), "replayed by append");
+    assertThrows(IllegalArgumentException.class,
+        () -> chain.appendAll(Collections.singletonList(chain.mine(pay))),
+        "replayed by appendAll");
+    assertEquals(4, chain.getSize(), "replays not added");
+    assertEquals(190, chain.balance("A"), "A paid once");
+
+    Transaction other = Transaction.sign("A", "C", 10, alice.getPrivate());
+    Block first = chain.mine(other);
+    Block second = new Block(5, other, first.getHash(), (hash) -> true);
+    assertThrows(IllegalArgumentException.class,
+        () -> chain.appendAll(Arrays.asList(first, second)), "repeated in one batch");
+    assertEquals(4, chain.getSize(), "batch not added");
+
+    chain.removeLast();
+    chain.appendAll(Collections.singletonList(chain.mine(pay)));
+    assertEquals(4, chain.getSize(), "may be added again once removed");
+    assertTrue(chain.isCorrect(), "still correct");
+  } // testReplay()
+} // class TestSignatureVerifier
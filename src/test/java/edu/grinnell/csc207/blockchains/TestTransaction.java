@@ -1,6 +1,7 @@
 package edu.grinnell.csc207.blockchains;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 import org.junit.jupiter.api.Test;
 
@@ -38,4 +39,22 @@ public class TestTransaction {
         trans.toString(),
         "String representation of deposit");
   } // depositTest()
+
+  /**
+   * Test that transaction IDs depend on every field and nothing else.
+   */
+  @Test
+  public void idTest() {
+    Transaction trans = new Transaction("Here", "There", 10);
+    assertEquals(new Transaction("Here", "There", 10).getId(), trans.getId(),
+        "Same fields, same ID");
+    assertEquals(new Transaction("Here", "There", 10).hashCode(), trans.hashCode(),
+        "Same fields, same hash code");
+    assertNotEquals(new Transaction("Here", "There", 11).getId(), trans.getId(),
+        "Different amount");
+    assertNotEquals(new Transaction("HereT", "here", 10).getId(), trans.getId(),
+        "Names are length-prefixed");
+    assertNotEquals(new Transaction("HereT", "here", 10), trans, "Different names");
+    assertEquals(32, trans.getId().length(), "SHA-256 ID");
+  } // idTest()
 } // class TestTransaction
@@ -0,0 +1,83 @@
+package edu.grinnell.csc207.main;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+
+/**
+ * Some simple tests of the batch mode of our BlockChainUI class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestBlockChainUI {
+  /**
+   * Test a batch that mixes transactions and commands.
+   */
+  @Test
+  public void testBatch() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    StringWriter out = new StringWriter();
+    String batch = """
+        # Deposits, then transfers.
+        ,A,100
+        B,50
+        A,B,30
+        append B C 5
+        append A C 500
+        remove
+        balance B
+
+        check
+        frobnicate
+        """;
+    int failures = BlockChainUI.runBatch(chain,
+        new BufferedReader(new StringReader(batch)), new PrintWriter(out));
+    assertEquals(2, failures, "overdraft and unknown command");
+    assertEquals(4, chain.getSize(), "three blocks after the removal");
+    assertEquals(80, chain.balance("B"), "B's balance");
+    String output = out.toString();
+    assertTrue(output.contains("3: appended block 2 ("), "timed append: " + output);
+    assertTrue(output.contains("8: B's balance is 80"), "balance: " + output);
+    assertTrue(output.contains("11: failed: invalid command"), "unknown command: " + output);
+    assertTrue(output.contains("11 lines, 2 failed"), "summary: " + output);
+  } // testBatch()
+
+  /**
+   * Test that bad amounts are reported by line without stopping the
+   * batch.
+   */
+  @Test
+  public void testBadAmounts() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    StringWriter out = new StringWriter();
+    String batch = """
+        ,A,100
+        A,B,-50
+        A,B,lots
+        append A 5
+        A,,5
+        A,B,20
+        """;
+    int failures = BlockChainUI.runBatch(chain,
+        new BufferedReader(new StringReader(batch)), new PrintWriter(out));
+    assertEquals(3, failures, "negative, non-numeric, and missing target");
+    assertEquals(4, chain.getSize(), "good lines appended");
+    assertEquals(85, chain.balance("A"), "A's balance");
+    assertTrue(chain.isCorrect(), "chain is correct");
+    String output = out.toString();
+    assertTrue(output.contains("2: failed: Amount must not be negative: -50"),
+        "negative: " + output);
+    assertTrue(output.contains("3: failed: Bad amount: lots"), "non-numeric: " + output);
+    assertTrue(output.contains("5: failed: Missing target"), "missing target: " + output);
+    assertTrue(output.contains("6: appended block 3"), "rest of the batch: " + output);
+  } // testBadAmounts()
+} // class TestBlockChainUI
@@ -0,0 +1,120 @@
+package edu.grinnell.csc207.main;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+
+/**
+ * Some simple tests of our ChainServer class.
+ *
+ * @author Myles Bohrer-Purnell
+ * @author Anthony Castleberry
+ */
+public class TestChainServer {
+  /**
+   * Test the requests the server answers.
+   */
+  @Test
+  public void testRequests() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    ChainServer server = new ChainServer(chain, 0, true);
+    server.start();
+    try {
+      HttpClient client = HttpClient.newHttpClient();
+      String base = "http://localhost:" + server.getPort();
+
+      HttpResponse<String> reply = client.send(
+          HttpRequest.newBuilder(URI.create(base + "/transactions"))
+              .POST(HttpRequest.BodyPublishers.ofString("target=A&amount=100")).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(400, reply.statusCode(), "source is required");
+
+      reply = client.send(
+          HttpRequest.newBuilder(URI.create(base + "/transactions"))
+              .POST(HttpRequest.BodyPublishers.ofString("source=&target=A&amount=100")).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(202, reply.statusCode(), "deposit accepted");
+      assertTrue(reply.body().startsWith("{\"id\":"), "deposit ID: " + reply.body());
+      long deadline = System.currentTimeMillis() + 10000;
+      while (chain.getSize() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      } // while
+      assertEquals(2, chain.getSize(), "deposit mined in the background");
+
+      reply = client.send(
+          HttpRequest.newBuilder(URI.create(base + "/transactions?source=A&target=B&amount=500"))
+              .POST(HttpRequest.BodyPublishers.noBody()).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(400, reply.statusCode(), "overdraft rejected");
+
+      reply = client.send(HttpRequest.newBuilder(URI.create(base + "/balance?user=A")).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals("{\"user\":\"A\",\"balance\":100}", reply.body(), "A's balance");
+
+      reply = client.send(HttpRequest.newBuilder(URI.create(base + "/blocks?from=1")).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertTrue(reply.body().startsWith("[{\"num\":1,\"source\":\"\",\"target\":\"A\""),
+          "blocks from 1: " + reply.body());
+
+      reply = client.send(
+          HttpRequest.newBuilder(URI.create(base + "/blocks?hash=" + chain.getHash())).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertTrue(reply.body().startsWith("[{\"num\":1,"), "block by hash: " + reply.body());
+
+      reply = client.send(
+          HttpRequest.newBuilder(URI.create(base + "/batch"))
+              .POST(HttpRequest.BodyPublishers.ofString(
+                  "/status\n/users\n/balance?user=A&user=Q\n/nowhere")).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals("[{\"status\":200,\"body\":{\"size\":2,\"hash\":\"" + chain.getHash()
+          + "\",\"users\":1,\"pending\":0}},"
+          + "{\"status\":200,\"body\":[\"A\"]},"
+          + "{\"status\":200,\"body\":[{\"user\":\"A\",\"balance\":100},"
+          + "{\"user\":\"Q\",\"balance\":0}]},"
+          + "{\"status\":404,\"body\":{\"error\":\"No such request: GET /nowhere\"}}]",
+          reply.body(), "batch");
+    } finally {
+      server.stop();
+    } // try/finally
+  } // testRequests()
+
+  /**
+   * Test that deposits are refused unless they are allowed, and that
+   * unexpected failures are reported as such.
+   */
+  @Test
+  public void testRefusals() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    ChainServer server = new ChainServer(chain, 0);
+    server.start();
+    try {
+      HttpClient client = HttpClient.newHttpClient();
+      HttpResponse<String> reply = client.send(
+          HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort()
+              + "/transactions?source=&target=A&amount=100"))
+              .POST(HttpRequest.BodyPublishers.noBody()).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(403, reply.statusCode(), "deposits refused by default");
+      assertEquals(0, server.pool.size(), "nothing waiting");
+    } finally {
+      server.stop();
+    } // try/finally
+
+    ChainServer broken = new ChainServer(null, 0);
+    try {
+      ChainServer.Reply reply = broken.answerSafely("GET", "/status", null, "");
+      assertEquals(500, reply.status, "unexpected failure");
+      assertEquals("{\"error\":\"Internal error\"}", reply.json, "error body");
+    } finally {
+      broken.stop();
+    } // try/finally
+  } // testRefusals()
+} // class TestChainServer